@@ -12,6 +12,7 @@ import lombok.Data;
 import org.springframework.ai.tool.ToolCallback;
 import reactor.core.publisher.Sinks;
 
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.time.LocalDateTime;
@@ -180,6 +181,15 @@ public abstract class ChatSession {
 
     public abstract void sendBinaryMessage(byte[] message);
 
+    /**
+     * 发送二进制消息，默认复制为数组后发送，实现类可以直接发送缓冲区
+     */
+    public void sendBinaryMessage(ByteBuffer message) {
+        byte[] bytes = new byte[message.remaining()];
+        message.duplicate().get(bytes);
+        sendBinaryMessage(bytes);
+    }
+
     /**
      * 设置 Conversation，需要与当前活跃角色一致。
      * 当切换角色时，会释放当前 Conversation，并新建一个对应于新角色的Conversation。
@@ -7,6 +7,7 @@ import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.TextMessage;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 public class WebSocketSession extends ChatSession {
     private static final Logger logger = LoggerFactory.getLogger(WebSocketSession.class);
@@ -63,6 +64,15 @@ public class WebSocketSession extends ChatSession {
         }
     }
 
+    @Override
+    public void sendBinaryMessage(ByteBuffer message) {
+        try {
+            session.sendMessage(new BinaryMessage(message));
+        } catch (IOException e) {
+            logger.error("发送Binary消息失败", e);
+        }
+    }
+
     @Override
     public void sendBinaryMessage(byte[] message) {
         try {
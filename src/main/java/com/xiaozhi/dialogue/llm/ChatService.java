@@ -21,13 +21,18 @@ import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.model.tool.ToolCallingChatOptions;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Flux;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -63,9 +68,21 @@ public class ChatService {
     // 最小句子长度（字符数）
     private static final int MIN_SENTENCE_LENGTH = 5;
 
+    // 首句迟迟没有标点时，推测合成的前缀至少需要的字符数（只在空白处截断）
+    private static final int SPECULATIVE_PREFIX_LENGTH = 20;
+
     // 新句子判断的字符阈值
     private static final int NEW_SENTENCE_TOKEN_THRESHOLD = 8;
 
+    // 识别中间结果至少多少字才预先检索记忆
+    private static final int PREWARM_MEMORY_MIN_LENGTH = 4;
+
+    // 预检索记忆的查询至少覆盖最终文本的比例，否则重新检索
+    private static final double PREWARM_MEMORY_MIN_COVERAGE = 0.6;
+
+    // 识别过程中预先准备的模型和记忆上下文，key为会话ID
+    private final Map<String, Prewarm> prewarms = new ConcurrentHashMap<>();
+
     @Resource
     private ChatMemory chatMemoryStore;
 
@@ -190,8 +207,10 @@ public class ChatService {
         logger.info("SessionId: {}", session.getSessionId());
         logger.info("DeviceId: {}", session.getSysDevice() != null ? session.getSysDevice().getDeviceId() : "null");
         
-        // 获取ChatModel
-        ChatModel chatModel = chatModelFactory.takeChatModel(session);
+        // 获取ChatModel，识别过程中已预先创建的直接使用
+        Prewarm prewarm = prewarms.remove(session.getSessionId());
+        ChatModel chatModel = prewarm != null && prewarm.chatModel != null ? prewarm.chatModel
+                : chatModelFactory.takeChatModel(session);
         logger.info("ChatModel type: {}", chatModel.getClass().getSimpleName());
 
         ChatOptions chatOptions = ToolCallingChatOptions.builder()
@@ -213,7 +232,10 @@ public class ChatService {
         // 注入 MemOS 检索到的记忆上下文（作为系统补充）
         try {
             if (memoryOrchestrator != null && memoryOrchestrator.isMemosEnabled()) {
-                String memContext = memoryOrchestrator.buildMemorySystemPrompt(session, message);
+                String memContext = prewarm != null ? prewarm.memoryContextFor(message) : null;
+                if (memContext == null) {
+                    memContext = memoryOrchestrator.buildMemorySystemPrompt(session, message);
+                }
                 if (memContext != null && !memContext.isBlank()) {
                     List<Message> enriched = new java.util.ArrayList<>(messages);
                     enriched.add(1, new SystemMessage(memContext));
@@ -276,6 +298,11 @@ public class ChatService {
                         observation.stop();
                     } catch (Exception ignore) {}
                 })
+                .doOnCancel(() -> {
+                    try {
+                        observation.stop();
+                    } catch (Exception ignore) {}
+                })
                 .doOnComplete(() -> logger.info("=== Chat Stream Completed ==="));
     }
 
@@ -291,16 +318,29 @@ public class ChatService {
 
     public void chatStreamBySentence(ChatSession session, String message, boolean useFunctionCall,
             TriConsumer<String, Boolean, Boolean> sentenceHandler) {
+        chatStreamBySentence(session, message, useFunctionCall, sentenceHandler, null);
+    }
+
+    /**
+     * 流式对话并按句子切分
+     *
+     * @param prefixHandler 首句发出前，在稳定的前缀处（首个短分句，或足够长时的词边界）回调一次，
+     *                      用于提前开始推测合成；前缀只是首句的开头，首句最终以sentenceHandler为准。可以为null
+     * @return 模型流的订阅，取消后不再回调句子，本轮对话也不会保存
+     */
+    public Disposable chatStreamBySentence(ChatSession session, String message, boolean useFunctionCall,
+            TriConsumer<String, Boolean, Boolean> sentenceHandler, Consumer<String> prefixHandler) {
         // 流式追踪由 Spring AI + OpenTelemetry 自动处理
         
         try {
             // 创建流式响应监听器
-            StreamResponseListener streamListener = new TokenStreamResponseListener(session, message, sentenceHandler);
+            StreamResponseListener streamListener = new TokenStreamResponseListener(session, message, sentenceHandler,
+                    prefixHandler);
             final StringBuilder toolName = new StringBuilder(); // 当前句子的缓冲区
             final StringBuilder fullResponse = new StringBuilder(); // 完整响应
             
             // 调用现有的流式方法
-            chatStream(session, message, useFunctionCall)
+            return chatStream(session, message, useFunctionCall)
                     .subscribe(
                             chatResponse -> {
                                 String token = chatResponse.getResult() == null
@@ -340,9 +380,93 @@ public class ChatService {
                 
             // 发送错误信号
             sentenceHandler.accept("抱歉，我在处理您的请求时遇到了问题。", true, true);
+            return Disposables.disposed();
+        }
+    }
+
+
+    /**
+     * 用识别中间结果预热：提前创建对话模型，并用中间文本预先检索记忆
+     * 最终文本到达后，chatStream直接使用预先准备的结果；记忆检索只在中间文本足以代表最终文本时复用
+     *
+     * @param partialText 当前整句的识别中间结果
+     */
+    public void prewarm(ChatSession session, String partialText) {
+        String sessionId = session.getSessionId();
+        Prewarm prewarm = prewarms.computeIfAbsent(sessionId, k -> {
+            Prewarm created = new Prewarm();
+            Thread.startVirtualThread(() -> {
+                try {
+                    created.chatModel = chatModelFactory.takeChatModel(session);
+                } catch (Exception e) {
+                    logger.debug("预先创建对话模型失败: {}", e.getMessage());
+                }
+            });
+            return created;
+        });
+
+        if (memoryOrchestrator == null || !memoryOrchestrator.isMemosEnabled() || partialText == null
+                || partialText.length() < PREWARM_MEMORY_MIN_LENGTH) {
+            return;
+        }
+        // 同一时间只有一个检索，完成后才用更新的中间结果再检索
+        synchronized (prewarm) {
+            if (prewarm.memoryContext != null && !prewarm.memoryContext.isDone()
+                    || partialText.equals(prewarm.memoryQuery)) {
+                return;
+            }
+            CompletableFuture<String> context = new CompletableFuture<>();
+            prewarm.memoryQuery = partialText;
+            prewarm.memoryContext = context;
+            Thread.startVirtualThread(() -> {
+                try {
+                    context.complete(memoryOrchestrator.buildMemorySystemPrompt(session, partialText));
+                } catch (Exception e) {
+                    context.completeExceptionally(e);
+                }
+            });
         }
     }
 
+    /**
+     * 丢弃会话未使用的预热结果
+     */
+    public void clearPrewarm(String sessionId) {
+        prewarms.remove(sessionId);
+    }
+
+    /**
+     * 预热结果
+     */
+    private static final class Prewarm {
+        private volatile ChatModel chatModel;
+        private String memoryQuery;
+        private CompletableFuture<String> memoryContext;
+
+        /**
+         * 查询足以代表最终文本时返回预先检索的记忆上下文，否则返回null
+         */
+        private String memoryContextFor(String message) {
+            CompletableFuture<String> context;
+            synchronized (this) {
+                if (memoryContext == null || memoryQuery == null || message == null) {
+                    return null;
+                }
+                // 中间结果和最终结果的标点常常不同，只比较文字
+                String query = memoryQuery.replaceAll("[\\p{P}\\s]", "");
+                String text = message.replaceAll("[\\p{P}\\s]", "");
+                if (!text.startsWith(query) || query.length() < text.length() * PREWARM_MEMORY_MIN_COVERAGE) {
+                    return null;
+                }
+                context = memoryContext;
+            }
+            try {
+                return context.join();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+    }
 
     /**
      * 清除设备缓存
@@ -386,12 +510,20 @@ public class ChatService {
         String message;// 用户消息内容
         ChatSession session;
         TriConsumer<String, Boolean, Boolean> sentenceHandler;
+        Consumer<String> prefixHandler; // 首句前缀回调，可以为null
+        boolean prefixSpeculated = false; // 每次回复只回调一次前缀
 
         public TokenStreamResponseListener(ChatSession session, String message,
                 TriConsumer<String, Boolean, Boolean> sentenceHandler) {
+            this(session, message, sentenceHandler, null);
+        }
+
+        public TokenStreamResponseListener(ChatSession session, String message,
+                TriConsumer<String, Boolean, Boolean> sentenceHandler, Consumer<String> prefixHandler) {
             this.message = message;
             this.session = session;
             this.sentenceHandler = sentenceHandler;
+            this.prefixHandler = prefixHandler;
         }
 
         @Override
@@ -472,11 +604,36 @@ public class ChatService {
                     }
                 }
 
+                // 首句还没凑够长度时，在短分句结尾或长文本的词边界提前通知前缀
+                if (prefixHandler != null && !prefixSpeculated && sentenceCount.get() == 0
+                        && currentSentence.length() > 0
+                        && (isPauseMark || (Character.isWhitespace(codePoint)
+                                && currentSentence.length() >= SPECULATIVE_PREFIX_LENGTH))) {
+                    speculatePrefix();
+                }
+
                 // 移动到下一个码点
                 i += Character.charCount(codePoint);
             }
         }
 
+        /**
+         * 把当前首句缓冲作为前缀回调，含颜文字或没有实质内容时放弃
+         */
+        void speculatePrefix() {
+            String prefix = currentSentence.toString().trim();
+            if (prefix.replaceAll("[\\p{P}\\s]", "").length() < 2
+                    || !EmojiUtils.filterKaomoji(prefix).equals(prefix)) {
+                return;
+            }
+            prefixSpeculated = true;
+            try {
+                prefixHandler.accept(prefix);
+            } catch (Exception e) {
+                logger.warn("首句前缀回调失败: {}", e.getMessage());
+            }
+        }
+
         @Override
         public void onComplete(String toolName) {
             // 检查该会话是否已完成处理
@@ -0,0 +1,126 @@
+package com.xiaozhi.dialogue.llm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 句子合并器，位于句子切分和TTS之间
+ * 切分器遇到逗号、冒号就会切出很短的片段，每个片段都是一次TTS请求、一个音频文件和一个播放单元。
+ * 首句立即发出保证首包时延，之后的片段先攒起来，达到字数预算才合并发出；预算从最小值开始每批翻倍直到上限，
+ * 越往后播放端缓冲越充足，批次可以越大。片段攒住超过最长等待时间（大模型输出变慢）时也会发出，避免播放断档。
+ */
+public class SentenceBatcher implements ChatService.TriConsumer<String, Boolean, Boolean> {
+    private static final Logger logger = LoggerFactory.getLogger(SentenceBatcher.class);
+
+    private final ChatService.TriConsumer<String, Boolean, Boolean> delegate;
+    private final int maxChars;
+    private final long maxHoldMs;
+
+    private final StringBuilder pending = new StringBuilder();
+    private int fragments = 0;
+    private int budget;
+    private boolean firstSent = false;
+    // 每攒一批递增，用于识别过期的超时任务
+    private long batchId = 0;
+    // 回复已取消，之后的片段和超时任务都不再发出
+    private boolean cancelled = false;
+
+    /**
+     * @param delegate  合并后的句子处理器
+     * @param minChars  第二批的字数预算
+     * @param maxChars  字数预算上限
+     * @param maxHoldMs 片段最长等待时间
+     */
+    public SentenceBatcher(ChatService.TriConsumer<String, Boolean, Boolean> delegate,
+            int minChars, int maxChars, long maxHoldMs) {
+        this.delegate = delegate;
+        this.budget = Math.max(1, minChars);
+        this.maxChars = Math.max(this.budget, maxChars);
+        this.maxHoldMs = maxHoldMs;
+    }
+
+    @Override
+    public synchronized void accept(String text, Boolean isFirst, Boolean isLast) {
+        if (cancelled) {
+            return;
+        }
+        // 首句（或出错时的提示）立即发出，此前攒下的片段先发
+        if (isFirst || !firstSent) {
+            flush(false);
+            firstSent = true;
+            delegate.accept(text, isFirst, isLast);
+            return;
+        }
+
+        if (text != null && !text.isEmpty()) {
+            append(text);
+        }
+        if (isLast) {
+            if (pending.length() > 0) {
+                flush(true);
+            } else {
+                delegate.accept(text, false, true);
+            }
+            return;
+        }
+        if (pending.length() >= budget) {
+            flush(false);
+        } else if (fragments == 1) {
+            // 一批的第一个片段开始计时，用虚拟线程等待，不占用公共线程池
+            long id = batchId;
+            Thread.startVirtualThread(() -> {
+                try {
+                    Thread.sleep(maxHoldMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                flushIfStale(id);
+            });
+        }
+    }
+
+    /**
+     * 取消合并：丢弃攒住的片段，未到期的超时任务失效
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        pending.setLength(0);
+        fragments = 0;
+        batchId++;
+    }
+
+    private void append(String text) {
+        if (pending.length() > 0 && !isCjk(pending.codePointBefore(pending.length())) && !isCjk(text.codePointAt(0))) {
+            // 英文等以空格分词的文本，合并时补上空格
+            pending.append(' ');
+        }
+        pending.append(text);
+        fragments++;
+    }
+
+    private synchronized void flushIfStale(long id) {
+        if (id == batchId && pending.length() > 0) {
+            logger.debug("句子合并等待超时，提前发出 - 片段数: {}, 字数: {}", fragments, pending.length());
+            flush(false);
+        }
+    }
+
+    private void flush(boolean isLast) {
+        if (pending.length() == 0) {
+            return;
+        }
+        String text = pending.toString();
+        if (fragments > 1) {
+            logger.debug("合并 {} 个片段为一句: {}", fragments, text);
+        }
+        pending.setLength(0);
+        fragments = 0;
+        batchId++;
+        budget = Math.min(maxChars, budget * 2);
+        delegate.accept(text, false, isLast);
+    }
+
+    private static boolean isCjk(int codePoint) {
+        return codePoint >= 0x2E80;
+    }
+}
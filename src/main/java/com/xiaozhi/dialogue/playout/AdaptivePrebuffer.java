@@ -0,0 +1,118 @@
+package com.xiaozhi.dialogue.playout;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话级自适应预缓冲
+ * 按帧测量WebSocket发送耗时（发送缓冲区满时发送会阻塞，耗时即反映链路的排空速度），
+ * 用类似TCP RTO的平滑均值加4倍偏差估计所需的提前量，决定开头突发和之后保持领先设备的帧数。
+ * 链路导致的欠载立即加大提前量，连续一段时间没有欠载且估计值更小时逐帧收缩，
+ * 好的链路不会被过度缓冲，抖动的链路也不会出现断音。
+ */
+public class AdaptivePrebuffer {
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(FramePacer.FRAME_INTERVAL_MS);
+    // 连续多少帧没有欠载后允许收缩一帧（约3秒）
+    private static final int SHRINK_AFTER_FRAMES = 50;
+
+    private final int minLead;
+    private final int maxLead;
+    private int lead;
+
+    // 发送耗时的平滑均值和平均偏差（纳秒）
+    private double smoothedNanos = -1;
+    private double deviationNanos = 0;
+    private int cleanFrames = 0;
+
+    // 统计信息
+    private long framesSent = 0;
+    private long underruns = 0;
+    private long starvations = 0;
+    private long maxSendNanos = 0;
+
+    public AdaptivePrebuffer(int minLead, int maxLead, int initialLead) {
+        this.minLead = minLead;
+        this.maxLead = Math.max(minLead, maxLead);
+        this.lead = clamp(initialLead);
+    }
+
+    /**
+     * 当前提前量（帧），即开头突发的帧数，也是之后保持领先设备播放位置的帧数
+     */
+    public synchronized int lead() {
+        return lead;
+    }
+
+    /**
+     * 记录一帧的发送耗时，并按估计值放大提前量
+     */
+    public synchronized void recordSend(long sendNanos) {
+        framesSent++;
+        maxSendNanos = Math.max(maxSendNanos, sendNanos);
+        if (smoothedNanos < 0) {
+            smoothedNanos = sendNanos;
+            deviationNanos = sendNanos / 2.0;
+        } else {
+            deviationNanos = deviationNanos * 3 / 4 + Math.abs(sendNanos - smoothedNanos) / 4;
+            smoothedNanos = smoothedNanos * 7 / 8 + sendNanos / 8.0;
+        }
+
+        int needed = neededLead();
+        if (needed > lead) {
+            lead = needed;
+            cleanFrames = 0;
+        } else if (++cleanFrames >= SHRINK_AFTER_FRAMES) {
+            cleanFrames = 0;
+            if (needed < lead) {
+                lead = clamp(lead - 1);
+            }
+        }
+    }
+
+    /**
+     * 链路导致的欠载：帧在到期前就已可发送，但发送完成时设备已经播完缓冲
+     */
+    public synchronized void recordUnderrun() {
+        underruns++;
+        cleanFrames = 0;
+        lead = clamp(lead + 1);
+    }
+
+    /**
+     * 音源导致的欠载（如流式合成慢于实时），不调整提前量
+     */
+    public synchronized void recordStarvation() {
+        starvations++;
+    }
+
+    public synchronized long getUnderruns() {
+        return underruns;
+    }
+
+    public synchronized long getStarvations() {
+        return starvations;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("lead", lead);
+        stats.put("framesSent", framesSent);
+        stats.put("underruns", underruns);
+        stats.put("starvations", starvations);
+        stats.put("avgSendMs", smoothedNanos < 0 ? 0.0 : smoothedNanos / 1_000_000);
+        stats.put("sendDeviationMs", deviationNanos / 1_000_000);
+        stats.put("maxSendMs", maxSendNanos / 1_000_000.0);
+        return stats;
+    }
+
+    private int neededLead() {
+        double margin = smoothedNanos + 4 * deviationNanos;
+        // 额外保留一帧，覆盖节拍器本身的调度误差
+        return clamp((int) Math.ceil(margin / FRAME_INTERVAL_NANOS) + 1);
+    }
+
+    private int clamp(int value) {
+        return Math.max(minLead, Math.min(maxLead, value));
+    }
+}
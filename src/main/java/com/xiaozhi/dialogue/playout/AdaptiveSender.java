@@ -0,0 +1,165 @@
+package com.xiaozhi.dialogue.playout;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 按自适应提前量发送一段音频的帧来源
+ * 设备从收到首帧开始连续播放，据此推算设备当前播放到第几帧；每一拍把发送总数补到“设备播放位置 + 当前提前量”。
+ * 开头即突发提前量帧；提前量在播放中途变大时下一拍会多发几帧追上，变小时则少发直到回落。
+ * 发送完成晚于该帧的播放时刻即记为欠载，设备随之停顿，之后的播放时刻顺延；
+ * 音源暂时无帧（如等待下一句）导致设备播空时，恢复后重新突发提前量帧，而不是把空档期间的节拍一次补发。
+ */
+public class AdaptiveSender implements FramePacer.FrameSource {
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(FramePacer.FRAME_INTERVAL_MS);
+
+    /**
+     * 待发送的帧，暂无可用帧时poll返回null
+     */
+    public interface FrameQueue {
+        ByteBuffer poll();
+
+        /**
+         * 不会再有新的帧
+         */
+        boolean isDrained();
+    }
+
+    /**
+     * 帧发送方式
+     */
+    @FunctionalInterface
+    public interface FrameSink {
+        void send(ByteBuffer frame) throws IOException;
+    }
+
+    private final AdaptivePrebuffer prebuffer;
+    private final FrameQueue queue;
+    private final FrameSink sink;
+    private final BooleanSupplier active;
+
+    // 设备播放第0帧的时刻，设备因欠载停顿后顺延
+    private long playStartNanos = -1;
+    private long sent = 0;
+
+    public AdaptiveSender(AdaptivePrebuffer prebuffer, FrameQueue queue, FrameSink sink, BooleanSupplier active) {
+        this.prebuffer = prebuffer;
+        this.queue = queue;
+        this.sink = sink;
+        this.active = active;
+    }
+
+    /**
+     * 固定帧列表
+     */
+    public static FrameQueue listQueue(List<ByteBuffer> frames) {
+        return new FrameQueue() {
+            private int next = 0;
+
+            @Override
+            public ByteBuffer poll() {
+                return next < frames.size() ? frames.get(next++) : null;
+            }
+
+            @Override
+            public boolean isDrained() {
+                return next >= frames.size();
+            }
+        };
+    }
+
+    /**
+     * 暂停指定时长，不发送任何帧
+     */
+    public static FrameQueue pauseQueue(long millis) {
+        return new FrameQueue() {
+            private long startNanos = -1;
+
+            @Override
+            public ByteBuffer poll() {
+                if (startNanos < 0) {
+                    startNanos = System.nanoTime();
+                }
+                return null;
+            }
+
+            @Override
+            public boolean isDrained() {
+                return startNanos >= 0 && System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(millis);
+            }
+        };
+    }
+
+    /**
+     * 开头突发发送提前量帧，交给节拍器前调用，节拍器应从第1拍开始
+     *
+     * @return 还有后续帧返回true
+     */
+    public boolean burst() throws IOException {
+        return fill();
+    }
+
+    @Override
+    public boolean sendFrame(long tick) throws Exception {
+        if (!active.getAsBoolean()) {
+            return false;
+        }
+        return fill();
+    }
+
+    /**
+     * 已发送的帧数
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    private boolean fill() throws IOException {
+        long target = devicePosition() + prebuffer.lead();
+        while (sent < target) {
+            ByteBuffer frame = queue.poll();
+            if (frame == null) {
+                return !queue.isDrained();
+            }
+            long begin = System.nanoTime();
+            sink.send(frame);
+            long end = System.nanoTime();
+            record(begin, end);
+            sent++;
+        }
+        return !queue.isDrained();
+    }
+
+    /**
+     * 设备当前播放到的帧序号，已播空时为已发送帧数
+     */
+    private long devicePosition() {
+        if (playStartNanos < 0) {
+            return 0;
+        }
+        long position = (System.nanoTime() - playStartNanos) / FRAME_INTERVAL_NANOS;
+        return Math.min(position, sent);
+    }
+
+    private void record(long begin, long end) {
+        prebuffer.recordSend(end - begin);
+        if (playStartNanos < 0) {
+            playStartNanos = end;
+            return;
+        }
+        long deadline = playStartNanos + sent * FRAME_INTERVAL_NANOS;
+        if (end <= deadline) {
+            return;
+        }
+        // 帧到达晚于播放时刻，设备停顿，之后的播放时刻随之顺延
+        if (begin <= deadline) {
+            prebuffer.recordUnderrun();
+        } else {
+            prebuffer.recordStarvation();
+        }
+        playStartNanos += end - deadline;
+    }
+}
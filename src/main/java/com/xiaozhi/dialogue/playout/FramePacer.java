@@ -0,0 +1,371 @@
+package com.xiaozhi.dialogue.playout;
+
+import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.utils.StatsGauges;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 全局音频帧节拍器
+ * 所有会话的音频播放共用一个哈希时间轮：一个平台线程按固定刻度推进时间轮，
+ * 每个播放任务有一个常驻的虚拟线程，到期时由节拍线程唤醒，发送所有已到期的帧后按下一帧的到期时间重新入轮，
+ * 不为每帧创建任务或线程。
+ * 每帧的到期时间都从播放起点推算，误差不会累积；实际发送时间与到期时间的偏差记为抖动。
+ * 同一个播放任务只在自己的线程中发送，因此帧顺序天然保证。
+ * 活跃播放数、发送帧数、迟到帧数和抖动统计注册为playout.pacer.*指标。
+ */
+@Component
+public class FramePacer implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(FramePacer.class);
+
+    // 帧间隔
+    public static final long FRAME_INTERVAL_MS = AudioUtils.OPUS_FRAME_DURATION_MS;
+    private static final long FRAME_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(FRAME_INTERVAL_MS);
+
+    // 时间轮刻度
+    @Value("${playout.tick-ms:5}")
+    private long tickMs;
+
+    // 时间轮槽数
+    @Value("${playout.wheel-size:256}")
+    private int wheelSize;
+
+    private long tickNanos;
+    private ConcurrentLinkedQueue<Playout>[] wheel;
+    // 各槽的任务数，避免每个刻度遍历队列计数
+    private AtomicInteger[] wheelCounts;
+    private volatile long currentTick = 0;
+    private long wheelStartNanos;
+
+    private volatile boolean running = false;
+    private Thread ticker;
+    private final ExecutorService sender = Executors.newVirtualThreadPerTaskExecutor();
+
+    // 播放任务，键由调用方决定（如会话ID）
+    private final ConcurrentHashMap<String, Playout> playouts = new ConcurrentHashMap<>();
+
+    // 抖动统计
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong lateFrames = new AtomicLong();
+    private final AtomicLong totalJitterNanos = new AtomicLong();
+    private final AtomicLong maxJitterNanos = new AtomicLong();
+
+    /**
+     * 帧来源，每次调用发送一帧
+     */
+    @FunctionalInterface
+    public interface FrameSource {
+        /**
+         * 发送下一帧
+         *
+         * @param frameIndex 帧序号，从播放起点算起
+         * @return 还有后续帧返回true，播放结束返回false
+         */
+        boolean sendFrame(long frameIndex) throws Exception;
+    }
+
+    /**
+     * 单个播放任务
+     */
+    public final class Playout {
+        private final String key;
+        private final FrameSource source;
+        private final long startNanos;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final AtomicBoolean cancelled = new AtomicBoolean();
+        private volatile long frameIndex;
+        // 时间轮中待触发的目标刻度，触发时清为-1，保证每次入轮只唤醒一次
+        private final AtomicLong targetTick = new AtomicLong(-1);
+        // 节拍线程已唤醒，发送线程尚未处理
+        private volatile boolean signalled = false;
+        private volatile Thread driver;
+
+        // 本播放任务的抖动统计
+        private long frames = 0;
+        private long jitterSumNanos = 0;
+        private long jitterMaxNanos = 0;
+
+        private Playout(String key, FrameSource source, long startNanos, long firstFrameIndex) {
+            this.key = key;
+            this.source = source;
+            this.startNanos = startNanos;
+            this.frameIndex = firstFrameIndex;
+        }
+
+        /**
+         * 播放完成（正常结束、取消或出错）时完成
+         */
+        public CompletableFuture<Void> future() {
+            return future;
+        }
+
+        /**
+         * 已播放的时长（毫秒）
+         */
+        public long getPositionMs() {
+            return frameIndex * FRAME_INTERVAL_MS;
+        }
+
+        /**
+         * 平均抖动（毫秒）
+         */
+        public double getAvgJitterMs() {
+            return frames == 0 ? 0 : jitterSumNanos / (double) frames / 1_000_000;
+        }
+
+        /**
+         * 最大抖动（毫秒）
+         */
+        public double getMaxJitterMs() {
+            return jitterMaxNanos / 1_000_000.0;
+        }
+
+        public void cancel() {
+            if (cancelled.compareAndSet(false, true)) {
+                playouts.remove(key, this);
+                future.complete(null);
+                LockSupport.unpark(driver);
+            }
+        }
+
+        private long dueNanos() {
+            return startNanos + frameIndex * FRAME_INTERVAL_NANOS;
+        }
+
+        /**
+         * 节拍线程唤醒发送线程
+         */
+        private void signal() {
+            signalled = true;
+            LockSupport.unpark(driver);
+        }
+
+        /**
+         * 发送线程：被唤醒后发送到期的帧，落后时一次补发所有已到期的帧，再按下一帧的到期时间入轮
+         */
+        private void run() {
+            driver = Thread.currentThread();
+            while (!cancelled.get()) {
+                if (!signalled) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                signalled = false;
+                do {
+                    if (!step()) {
+                        return;
+                    }
+                } while (dueNanos() <= System.nanoTime());
+                enqueue(this);
+            }
+        }
+
+        /**
+         * 发送一帧，只在发送线程中执行
+         *
+         * @return 还有后续帧返回true
+         */
+        private boolean step() {
+            if (cancelled.get()) {
+                return false;
+            }
+            long jitter = Math.abs(System.nanoTime() - dueNanos());
+            recordJitter(jitter);
+            frames++;
+            jitterSumNanos += jitter;
+            jitterMaxNanos = Math.max(jitterMaxNanos, jitter);
+
+            boolean hasMore;
+            try {
+                hasMore = source.sendFrame(frameIndex);
+            } catch (Exception e) {
+                logger.error("发送音频帧失败 - Key: {}, 帧: {}", key, frameIndex, e);
+                if (cancelled.compareAndSet(false, true)) {
+                    playouts.remove(key, this);
+                    future.completeExceptionally(e);
+                }
+                return false;
+            }
+
+            frameIndex++;
+            if (!hasMore) {
+                finish();
+                return false;
+            }
+            return !cancelled.get();
+        }
+
+        private void finish() {
+            if (cancelled.compareAndSet(false, true)) {
+                playouts.remove(key, this);
+                logger.debug("播放结束 - Key: {}, 帧数: {}, 平均抖动: {}ms, 最大抖动: {}ms",
+                        key, frames, String.format("%.2f", getAvgJitterMs()), String.format("%.2f", getMaxJitterMs()));
+                future.complete(null);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @PostConstruct
+    public void init() {
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        wheel = new ConcurrentLinkedQueue[wheelSize];
+        wheelCounts = new AtomicInteger[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ConcurrentLinkedQueue<>();
+            wheelCounts[i] = new AtomicInteger();
+        }
+        wheelStartNanos = System.nanoTime();
+        running = true;
+        ticker = Thread.ofPlatform().name("frame-pacer").daemon(true).start(this::tickLoop);
+        logger.info("音频帧节拍器已启动 - 刻度: {}ms, 槽数: {}", tickMs, wheelSize);
+    }
+
+    /**
+     * 开始播放，替换同一键上正在进行的播放
+     *
+     * @param key             播放任务的键
+     * @param startNanos      播放起点（System.nanoTime），第i帧的到期时间为起点 + i * 帧间隔
+     * @param firstFrameIndex 第一个由节拍器发送的帧序号，之前的帧由调用方自行发送（预缓冲）
+     * @param source          帧来源
+     */
+    public Playout start(String key, long startNanos, long firstFrameIndex, FrameSource source) {
+        Playout playout = new Playout(key, source, startNanos, firstFrameIndex);
+        Playout previous = playouts.put(key, playout);
+        if (previous != null) {
+            previous.cancel();
+        }
+        try {
+            sender.execute(playout::run);
+        } catch (RejectedExecutionException e) {
+            playout.cancel();
+            return playout;
+        }
+        enqueue(playout);
+        return playout;
+    }
+
+    /**
+     * 取消播放
+     */
+    public void cancel(String key) {
+        Playout playout = playouts.get(key);
+        if (playout != null) {
+            playout.cancel();
+        }
+    }
+
+    /**
+     * 获取正在进行的播放
+     */
+    public Playout get(String key) {
+        return playouts.get(key);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        StatsGauges.register(registry, "playout.pacer", Tags.empty(), this::getStats);
+    }
+
+    /**
+     * 抖动统计
+     */
+    public Map<String, Object> getStats() {
+        long frames = framesSent.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activePlayouts", playouts.size());
+        stats.put("framesSent", frames);
+        stats.put("lateFrames", lateFrames.get());
+        stats.put("avgJitterMs", frames == 0 ? 0.0 : totalJitterNanos.get() / (double) frames / 1_000_000);
+        stats.put("maxJitterMs", maxJitterNanos.get() / 1_000_000.0);
+        return stats;
+    }
+
+    private void recordJitter(long jitterNanos) {
+        framesSent.incrementAndGet();
+        totalJitterNanos.addAndGet(jitterNanos);
+        maxJitterNanos.accumulateAndGet(jitterNanos, Math::max);
+        // 偏差超过半帧视为迟到
+        if (jitterNanos > FRAME_INTERVAL_NANOS / 2) {
+            lateFrames.incrementAndGet();
+        }
+    }
+
+    /**
+     * 按到期时间放入时间轮，已到期的放到下一刻度
+     */
+    private void enqueue(Playout playout) {
+        long tick = (playout.dueNanos() - wheelStartNanos) / tickNanos;
+        long targetTick = Math.max(tick, currentTick + 1);
+        playout.targetTick.set(targetTick);
+        int index = (int) (targetTick % wheelSize);
+        wheel[index].offer(playout);
+        wheelCounts[index].incrementAndGet();
+
+        // 入轮期间节拍线程已经越过目标刻度，直接唤醒，避免等待一整圈；时间轮中留下的一项按过期丢弃
+        if (targetTick <= currentTick && playout.targetTick.compareAndSet(targetTick, -1)) {
+            playout.signal();
+        }
+    }
+
+    private void tickLoop() {
+        while (running) {
+            long next = currentTick + 1;
+            long deadline = wheelStartNanos + next * tickNanos;
+            long wait;
+            while ((wait = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            currentTick = next;
+
+            int index = (int) (next % wheelSize);
+            ConcurrentLinkedQueue<Playout> slot = wheel[index];
+            AtomicInteger count = wheelCounts[index];
+            // 只处理本刻度开始时已在槽中的任务，本轮重新放回的留到下一圈
+            int size = count.get();
+            for (int i = 0; i < size; i++) {
+                Playout playout = slot.poll();
+                if (playout == null) {
+                    break;
+                }
+                count.decrementAndGet();
+                long targetTick = playout.targetTick.get();
+                if (targetTick == next) {
+                    if (playout.targetTick.compareAndSet(next, -1)) {
+                        playout.signal();
+                    }
+                } else if (targetTick > next && targetTick % wheelSize == index && !playout.cancelled.get()) {
+                    // 超过一圈的任务，留到后续轮次
+                    slot.offer(playout);
+                    count.incrementAndGet();
+                }
+                // 其余为已取消、已被直接唤醒或已重新入轮的过期项，丢弃
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (ticker != null) {
+            ticker.interrupt();
+        }
+        playouts.values().forEach(Playout::cancel);
+        sender.shutdownNow();
+    }
+}
@@ -0,0 +1,209 @@
+package com.xiaozhi.dialogue.playout;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 会话级连续播放队列
+ * 多个句子的帧按顺序拼成一条不间断的帧流，节拍器只启动一次，句子之间不再重新预缓冲、从零计时。
+ * 下一句的帧在入队时就开始异步准备，当前句播完前已经就绪；句子开始标记和表情在该句第一帧之前发送，
+ * 即与音频帧在帧边界上交错。最后一句入队后队列不再接受新句子，播完即结束；
+ * 迟迟等不到下一句（如大模型出错没有最后一句）时，空闲超时后同样结束。
+ * poll/isDrained只在节拍器的发送线程中串行调用。
+ */
+public class PlayoutQueue implements AdaptiveSender.FrameQueue {
+    private static final Logger logger = LoggerFactory.getLogger(PlayoutQueue.class);
+
+    private static final AdaptiveSender.FrameQueue EMPTY = AdaptiveSender.listQueue(List.of());
+
+    /**
+     * 队列中的一个句子
+     */
+    private static final class Segment {
+        private final Runnable onStart;
+        private final CompletableFuture<? extends AdaptiveSender.FrameQueue> frames;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final boolean last;
+        private boolean started = false;
+
+        private Segment(Runnable onStart, CompletableFuture<? extends AdaptiveSender.FrameQueue> frames, boolean last) {
+            this.onStart = onStart;
+            this.frames = frames;
+            this.last = last;
+        }
+    }
+
+    private final Deque<Segment> pending = new ArrayDeque<>();
+    private final long idleTimeoutNanos;
+    private volatile Segment current;
+    // 开始等待下一句的时刻，-1表示不在等待
+    private long idleSinceNanos = -1;
+    // 最后一句已入队，不再接受新句子
+    private boolean sealed = false;
+    // 最后一句已播完
+    private volatile boolean completed = false;
+    private volatile boolean cancelled = false;
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /**
+     * @param idleTimeoutMs 没有待播句子时最多等待多久，超时后队列结束
+     */
+    public PlayoutQueue(long idleTimeoutMs) {
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+    }
+
+    /**
+     * 追加一个句子
+     *
+     * @param onStart 该句第一帧之前执行，用于发送句子开始标记和表情，可以为null
+     * @param frames  该句的帧，可以仍在准备中
+     * @param last    是否最后一句
+     * @return 该句的帧全部发出（或队列取消）时完成；队列已不接受新句子时返回null
+     */
+    public synchronized CompletableFuture<Void> append(Runnable onStart,
+            CompletableFuture<? extends AdaptiveSender.FrameQueue> frames, boolean last) {
+        if (sealed || cancelled) {
+            return null;
+        }
+        Segment segment = new Segment(onStart, frames, last);
+        pending.addLast(segment);
+        if (last) {
+            sealed = true;
+        }
+        return segment.done;
+    }
+
+    /**
+     * 标记播放已启动，只有第一次调用返回true
+     */
+    public boolean markStarted() {
+        return started.compareAndSet(false, true);
+    }
+
+    /**
+     * 最后一句已入队
+     */
+    public synchronized boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * 最后一句已完整播出
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * 取消播放，未播完的句子立即完成
+     */
+    public void cancel() {
+        Segment active;
+        Segment[] waiting;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            sealed = true;
+            active = current;
+            waiting = pending.toArray(new Segment[0]);
+            pending.clear();
+        }
+        if (active != null) {
+            active.done.complete(null);
+        }
+        for (Segment segment : waiting) {
+            segment.done.complete(null);
+        }
+    }
+
+    @Override
+    public ByteBuffer poll() {
+        while (!cancelled) {
+            if (current == null) {
+                synchronized (this) {
+                    Segment next = pending.peekFirst();
+                    if (next == null) {
+                        if (idleSinceNanos < 0) {
+                            idleSinceNanos = System.nanoTime();
+                        }
+                        return null;
+                    }
+                    idleSinceNanos = -1;
+                    // 下一句的帧还没准备好，本拍留空
+                    if (!next.frames.isDone()) {
+                        return null;
+                    }
+                    current = pending.pollFirst();
+                }
+            }
+
+            AdaptiveSender.FrameQueue frames = framesOf(current);
+            if (!current.started) {
+                current.started = true;
+                if (current.onStart != null) {
+                    try {
+                        current.onStart.run();
+                    } catch (Exception e) {
+                        logger.warn("发送句子开始标记失败: {}", e.getMessage());
+                    }
+                }
+            }
+
+            ByteBuffer frame = frames.poll();
+            if (frame != null) {
+                return frame;
+            }
+            if (!frames.isDrained()) {
+                return null;
+            }
+
+            // 当前句播完，切到下一句
+            Segment finished = current;
+            current = null;
+            if (finished.last) {
+                completed = true;
+            }
+            finished.done.complete(null);
+            if (finished.last) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isDrained() {
+        if (cancelled || completed) {
+            return true;
+        }
+        synchronized (this) {
+            if (current == null && pending.isEmpty() && idleSinceNanos >= 0
+                    && System.nanoTime() - idleSinceNanos > idleTimeoutNanos) {
+                // 空闲超时，之后的句子进入新的队列
+                sealed = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static AdaptiveSender.FrameQueue framesOf(Segment segment) {
+        try {
+            AdaptiveSender.FrameQueue frames = segment.frames.getNow(null);
+            return frames != null ? frames : EMPTY;
+        } catch (Exception e) {
+            logger.warn("句子音频准备失败: {}", e.getMessage());
+            return EMPTY;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.xiaozhi.dialogue.playout;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * 按序号重排的环形缓冲
+ * 元素按序号直接放入 seq & mask 槽位，"下一个期望序号"游标只前进不回退，取队首是O(1)的数组访问，
+ * 增删都不复制数组、不扫描。多个线程可以乱序放入和并发触发出队，出队由"谁先进入谁负责"的计数器串行化：
+ * 正在出队的线程会替后来者再跑一轮，因此不需要加锁，也不会漏掉刚放入的元素，出队顺序严格按序号。
+ */
+public class ReorderBuffer<T> {
+
+    private record Entry<T>(long seq, T item) {
+    }
+
+    private final AtomicReferenceArray<Entry<T>> slots;
+    private final int mask;
+    // 下一个期望出队的序号
+    private final AtomicLong cursor;
+    // 已放入的最大序号
+    private final AtomicLong highest;
+    // 出队触发计数，非0表示已有线程在出队
+    private final AtomicInteger wip = new AtomicInteger();
+
+    /**
+     * @param capacity  容量，向上取整为2的幂，即最多能同时容纳多少个未出队的序号
+     * @param firstSeq  第一个序号
+     */
+    public ReorderBuffer(int capacity, long firstSeq) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.cursor = new AtomicLong(firstSeq);
+        this.highest = new AtomicLong(firstSeq - 1);
+    }
+
+    /**
+     * 按序号放入元素
+     *
+     * @return 序号已过期（小于游标）或超出容量时返回false
+     */
+    public boolean offer(long seq, T item) {
+        long next = cursor.get();
+        if (seq < next || seq - next > mask) {
+            return false;
+        }
+        slots.set((int) (seq & mask), new Entry<>(seq, item));
+        highest.accumulateAndGet(seq, Math::max);
+        return true;
+    }
+
+    /**
+     * 按序号依次出队：队首存在且满足条件时交给消费者，遇到缺失或不满足条件的序号即停
+     * 并发调用时只有一个线程在出队，其余调用会让该线程再检查一轮后立即返回
+     *
+     * @param releasable 队首能否出队
+     * @param consumer   出队的元素，在出队线程中按序号调用
+     */
+    public void drain(Predicate<T> releasable, Consumer<T> consumer) {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            while (true) {
+                long seq = cursor.get();
+                int index = (int) (seq & mask);
+                Entry<T> entry = slots.get(index);
+                if (entry == null || entry.seq() != seq || !releasable.test(entry.item())) {
+                    break;
+                }
+                // 游标被clear移动过则放弃这一项
+                if (!cursor.compareAndSet(seq, seq + 1)) {
+                    continue;
+                }
+                slots.compareAndSet(index, entry, null);
+                consumer.accept(entry.item());
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * 丢弃所有未出队的元素，游标跳到已放入的最大序号之后
+     */
+    public void clear() {
+        clearThrough(highest.get());
+    }
+
+    /**
+     * 丢弃序号不大于seq的所有元素，游标跳到seq与已放入的最大序号中较大者之后
+     * 已领取但尚未放入的序号随后放入时按过期拒绝，不会留下空档
+     */
+    public void clearThrough(long seq) {
+        long end = Math.max(seq, highest.get()) + 1;
+        long from = cursor.getAndAccumulate(end, Math::max);
+        // 放入的序号不会超出游标一圈，跨度超过容量时只需扫一圈槽位
+        long scanEnd = Math.min(end, from + slots.length());
+        for (long s = from; s < scanEnd; s++) {
+            int index = (int) (s & mask);
+            Entry<T> entry = slots.get(index);
+            if (entry != null && entry.seq() == s) {
+                slots.compareAndSet(index, entry, null);
+            }
+        }
+    }
+
+    /**
+     * 下一个期望出队的序号
+     */
+    public long nextSeq() {
+        return cursor.get();
+    }
+
+    /**
+     * 未出队的序号跨度（含尚未放入的空档）
+     */
+    public int size() {
+        return (int) Math.max(0, highest.get() + 1 - cursor.get());
+    }
+}
@@ -0,0 +1,220 @@
+package com.xiaozhi.dialogue.playout;
+
+import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.utils.OpusProcessor;
+import com.xiaozhi.utils.OpusStreamEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流式合成的句子音频
+ * TTS服务商推送的PCM块边到边编码为Opus帧放入队列，播放端按节拍从队列取帧发送，不经过临时文件。
+ * PCM同时保留在内存中，合成结束后异步写成WAV文件，仅用于对话历史。
+ */
+public class StreamingAudio implements AdaptiveSender.FrameQueue {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingAudio.class);
+
+    private final OpusStreamEncoder encoder;
+    private final ConcurrentLinkedQueue<byte[]> frames = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger framesProduced = new AtomicInteger();
+    private final ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+
+    // 首个音频帧到达（或合成结束）时完成
+    private final CompletableFuture<Void> firstFrame = new CompletableFuture<>();
+    // 等待缓冲到指定帧数的播放端
+    private final List<Waiter> waiters = new ArrayList<>();
+    // 历史文件写入完成，值为文件路径，没有音频时为null
+    private final CompletableFuture<String> saved = new CompletableFuture<>();
+    // 合成被放弃时完成，用于中断服务商的合成
+    private final CompletableFuture<Void> aborted = new CompletableFuture<>();
+
+    // complete/fail/abort只有第一个调用生效
+    private final AtomicBoolean ending = new AtomicBoolean();
+    // 最后的帧已放入队列
+    private volatile boolean finished = false;
+    private volatile long lastFrameNanos = System.nanoTime();
+
+    private record Waiter(int frames, CompletableFuture<Void> future) {
+    }
+
+    /**
+     * @param opusProcessor 用于借出增量编码器
+     */
+    public StreamingAudio(OpusProcessor opusProcessor) {
+        this.encoder = opusProcessor.newStreamEncoder(this::onFrame);
+    }
+
+    /**
+     * 写入一块16kHz单声道16位小端PCM
+     *
+     * @throws CancellationException 合成已结束或被放弃，服务商的回调据此停止合成
+     */
+    public void write(byte[] chunk) {
+        if (chunk == null || chunk.length == 0) {
+            return;
+        }
+        // 与结束互斥，编码器关闭或归还后不再写入
+        synchronized (encoder) {
+            if (ending.get()) {
+                throw new CancellationException("流式合成已结束");
+            }
+            synchronized (pcm) {
+                pcm.write(chunk, 0, chunk.length);
+            }
+            encoder.write(chunk, 0, chunk.length);
+        }
+    }
+
+    /**
+     * 合成正常结束，刷新残留样本并异步保存历史文件
+     */
+    public void complete() {
+        if (!ending.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (encoder) {
+            encoder.close();
+        }
+        end();
+    }
+
+    /**
+     * 合成出错，已收到的音频照常播放和保存
+     */
+    public void fail(Throwable error) {
+        if (!ending.compareAndSet(false, true)) {
+            return;
+        }
+        logger.warn("流式语音合成中断 - 已编码帧数: {}, 错误: {}", framesProduced.get(), error.getMessage());
+        synchronized (encoder) {
+            encoder.close();
+        }
+        end();
+    }
+
+    /**
+     * 放弃合成，丢弃未播放的帧
+     */
+    public void abort() {
+        if (!ending.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (encoder) {
+            encoder.release();
+        }
+        frames.clear();
+        end();
+        aborted.complete(null);
+    }
+
+    /**
+     * 取出下一帧，暂无可用帧时返回null
+     */
+    @Override
+    public ByteBuffer poll() {
+        byte[] frame = frames.poll();
+        return frame != null ? ByteBuffer.wrap(frame) : null;
+    }
+
+    /**
+     * 合成已结束且所有帧都已取出
+     */
+    @Override
+    public boolean isDrained() {
+        return finished && frames.isEmpty();
+    }
+
+    /**
+     * 是否已收到音频
+     */
+    public boolean hasAudio() {
+        return framesProduced.get() > 0;
+    }
+
+    /**
+     * 合成未结束，但超过指定时间没有新的帧
+     */
+    public boolean isStalled(long timeoutMs) {
+        return !finished && System.nanoTime() - lastFrameNanos > TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    }
+
+    public CompletableFuture<Void> firstFrame() {
+        return firstFrame;
+    }
+
+    /**
+     * 已编码帧数达到指定数量或合成结束时完成
+     */
+    public CompletableFuture<Void> awaitFrames(int count) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (waiters) {
+            if (finished || framesProduced.get() >= count) {
+                future.complete(null);
+            } else {
+                waiters.add(new Waiter(count, future));
+            }
+        }
+        return future;
+    }
+
+    public CompletableFuture<String> saved() {
+        return saved;
+    }
+
+    /**
+     * 合成被放弃时完成
+     */
+    public CompletableFuture<Void> aborted() {
+        return aborted;
+    }
+
+    private void onFrame(byte[] frame) {
+        frames.offer(frame);
+        lastFrameNanos = System.nanoTime();
+        firstFrame.complete(null);
+        int produced = framesProduced.incrementAndGet();
+        synchronized (waiters) {
+            waiters.removeIf(waiter -> waiter.frames() <= produced && waiter.future().complete(null));
+        }
+    }
+
+    private void end() {
+        // 先放完最后的帧再置结束标记，播放端看到结束且队列为空即可停止
+        finished = true;
+        firstFrame.complete(null);
+        synchronized (waiters) {
+            waiters.forEach(waiter -> waiter.future().complete(null));
+            waiters.clear();
+        }
+        Thread.startVirtualThread(this::save);
+    }
+
+    private void save() {
+        byte[] audio;
+        synchronized (pcm) {
+            audio = pcm.toByteArray();
+            pcm.reset();
+        }
+        if (audio.length == 0) {
+            saved.complete(null);
+            return;
+        }
+        try {
+            saved.complete(AudioUtils.AUDIO_PATH + AudioUtils.saveAsWav(audio));
+        } catch (Exception e) {
+            logger.error("保存流式合成音频失败", e);
+            saved.complete(null);
+        }
+    }
+}
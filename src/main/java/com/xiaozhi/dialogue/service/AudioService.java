@@ -2,80 +2,98 @@ package com.xiaozhi.dialogue.service;
 
 import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.communication.common.SessionManager;
+import com.xiaozhi.dialogue.playout.AdaptivePrebuffer;
+import com.xiaozhi.dialogue.playout.AdaptiveSender;
+import com.xiaozhi.dialogue.playout.FramePacer;
+import com.xiaozhi.dialogue.playout.PlayoutQueue;
+import com.xiaozhi.dialogue.playout.StreamingAudio;
 import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.dialogue.tts.TtsCache;
+import com.xiaozhi.utils.OpusFrameCache;
 import com.xiaozhi.utils.OpusProcessor;
+import com.xiaozhi.utils.StatsGauges;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 /**
  * 音频服务，负责处理音频的流式和非流式发送
+ * 所有会话的预缓冲汇总统计注册为playout.prebuffer.*指标。
  */
 @Service
-public class AudioService {
+public class AudioService implements MeterBinder {
     private static final Logger logger = LoggerFactory.getLogger(AudioService.class);
 
-    // 帧发送时间间隔略小于OPUS_FRAME_DURATION_MS，避免因某些调度原因，导致没能在规定时间内发送，设备出现杂音
-    private static final long OPUS_FRAME_SEND_INTERVAL_MS = AudioUtils.OPUS_FRAME_DURATION_MS;
-    
-    // 预缓冲帧数量
-    private static final int PRE_BUFFER_FRAMES = 3;
+    // 流式合成超过该时长没有新帧，视为中断
+    private static final long STREAM_STALL_TIMEOUT_MS = 5000;
 
     // 仅播放文本的 Sleep 时长
     private static final long ONLY_TEXT_SLEEP_TIME_MS = 1000;
 
+    // 自适应预缓冲的初始、最小和最大帧数
+    @Value("${playout.prebuffer.initial-frames:3}")
+    private int prebufferInitialFrames;
+
+    @Value("${playout.prebuffer.min-frames:2}")
+    private int prebufferMinFrames;
+
+    @Value("${playout.prebuffer.max-frames:10}")
+    private int prebufferMaxFrames;
+
+    // 连续播放队列等待下一句的最长时间
+    @Value("${playout.idle-timeout-ms:15000}")
+    private long playoutIdleTimeoutMs;
+
     @Autowired
     private OpusProcessor opusProcessor;
 
     @Autowired
-    private SessionManager sessionManager;
+    private OpusFrameCache opusFrameCache;
 
     @Autowired
-    private MessageService messageService;
+    private FramePacer framePacer;
 
-    // 使用虚拟线程池处理定时任务
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
-            Runtime.getRuntime().availableProcessors(),
-            Thread.ofVirtual().name("audio-scheduler-", 0).factory());
+    @Autowired
+    private SessionManager sessionManager;
 
-    // 存储每个会话最后一次发送帧的时间戳
-    private final Map<String, AtomicLong> lastFrameSentTime = new ConcurrentHashMap<>();
+    @Autowired
+    private MessageService messageService;
 
     // 存储每个会话当前是否正在播放音频
     private final Map<String, AtomicBoolean> isPlaying = new ConcurrentHashMap<>();
-    
-    // 存储首帧发送状态
-    private final Map<String, AtomicBoolean> firstFrameSent = new ConcurrentHashMap<>();
 
-    // 存储每个会话的调度任务
-    private final Map<String, ScheduledFuture<?>> scheduledTasks = new ConcurrentHashMap<>();
+    // 存储每个会话的自适应预缓冲，随会话链路质量调整
+    private final Map<String, AdaptivePrebuffer> prebuffers = new ConcurrentHashMap<>();
+    // 已结束会话累计的欠载次数，与在线会话合计得到总数
+    private final AtomicLong closedUnderruns = new AtomicLong();
+    private final AtomicLong closedStarvations = new AtomicLong();
+
+    // 存储每个会话的连续播放队列
+    private final Map<String, PlayoutQueue> playoutQueues = new ConcurrentHashMap<>();
 
     // 存储每个会话的音频发送任务
     private final Map<String, CompletableFuture<?>> sendAudioTasks = new ConcurrentHashMap<>();
 
-    // 存储播放开始时间（纳秒）
-    private final Map<String, Long> playStartTimes = new ConcurrentHashMap<>();
-    
-    // 存储播放位置（毫秒）
-    private final Map<String, Long> playPositions = new ConcurrentHashMap<>();
-
     /**
      * 发送TTS开始消息
      */
@@ -116,9 +134,6 @@ public class AudioService {
             // 取消调度任务
             cancelScheduledTask(sessionId);
             
-            // 清理播放时间信息
-            cleanTimers(sessionId);
-            
             CompletableFuture<Void> sendTtsMessageFuture = CompletableFuture.runAsync(()->messageService.sendTtsMessage(session, null, "stop"));
             // 检查是否需要关闭会话
             if (sessionManager.isCloseAfterChat(sessionId)) {
@@ -143,6 +158,13 @@ public class AudioService {
         }
     }
 
+    /**
+     * 创建流式合成的句子音频，帧边合成边编码，无需临时文件
+     */
+    public StreamingAudio newStreamingAudio() {
+        return new StreamingAudio(opusProcessor);
+    }
+
     /**
      * 检查会话是否正在播放音频
      */
@@ -153,12 +175,13 @@ public class AudioService {
 
     /**
      * 发送音频消息
+     * 句子追加到会话的连续播放队列，与前后句子无缝衔接；会话当前没有播放时新建队列并开始播放。
      *
      * @param session   WebSocketSession会话
      * @param sentence  句子对象
      * @param isFirst   是否是开始消息
      * @param isLast    是否是结束消息
-     * @return 操作完成的CompletableFuture
+     * @return 该句的音频帧全部发出后完成
      */
     public CompletableFuture<Void> sendAudioMessage(
             ChatSession session,
@@ -167,202 +190,237 @@ public class AudioService {
             boolean isLast) {
 
         String sessionId = session.getSessionId();
-        String audioPath = sentence.getAudioPath();
         String text = sentence.getText();
 
-        // 标记开始播放
-        AtomicBoolean playingState = isPlaying.computeIfAbsent(sessionId, k -> new AtomicBoolean(true));
-        playingState.set(true);
+        logger.info("向设备发送音频消息（sendAudioMessage） - SessionId: {}, 文本: {}, 音频路径: {}, 流式: {}",
+                sessionId, text, sentence.getAudioPath(), sentence.getStream() != null);
 
-        // 创建一个 CompletableFuture 链来处理整个流程
-        CompletableFuture<Void> startFuture = isFirst ? CompletableFuture.runAsync(()->sendStart(session))
-                : CompletableFuture.completedFuture(null);
-        
-        logger.info("向设备发送音频消息（sendAudioMessage） - SessionId: {}, 文本: {}, 音频路径: {}", sessionId, text, audioPath);
+        // 入队即开始准备帧，前一句播完前就绪
+        CompletableFuture<AdaptiveSender.FrameQueue> frames = prepareFrames(session, sentence);
 
-        if (audioPath == null) {
-            if(text != null && !text.isEmpty()) {
-                // 发送句子开始标记
-                CompletableFuture<Void> sentenceStartFuture = startFuture.thenRun(() -> sendSentenceStart(session, text + "--语音合成异常!!"));
-
-                // 发送句子表情
-                CompletableFuture<Void> emotionFuture = sentenceStartFuture.thenRun(() -> sendSentenceEmotion(session, sentence, null));
-
-                // 使用单独的变量存储播放状态引用
-                final AtomicBoolean finalPlayingState = playingState;
-
-                return emotionFuture.thenCompose(v -> {
-                    finalPlayingState.set(false);
-                    try {
-                        TimeUnit.MILLISECONDS.sleep(ONLY_TEXT_SLEEP_TIME_MS);
-                    } catch (InterruptedException e) {
-                        logger.error("等待异常提示播放失败", e);
-                    }
-
-                    if (isLast) {
-                        return sendStop(session);
-                    }
-                    return CompletableFuture.completedFuture(null);
-                });
+        // 句子开始标记和表情在该句第一帧之前发送
+        boolean hasAudio = sentence.getAudioPath() != null || sentence.getStream() != null;
+        Runnable onStart = () -> {
+            if (isFirst) {
+                sendStart(session);
             }
-            // 如果没有音频路径但是结束消息，发送结束标记
-            if (isLast) {
-                return startFuture.thenCompose(v -> sendStop(session));
+            if (hasAudio) {
+                sendSentenceStart(session, text);
+            } else if (text != null && !text.isEmpty()) {
+                sendSentenceStart(session, text + "--语音合成异常!!");
+            } else {
+                return;
             }
-            playingState.set(false);
-            return startFuture;
+            sendSentenceEmotion(session, sentence, null);
+        };
+
+        while (true) {
+            PlayoutQueue queue = playoutQueues.computeIfAbsent(sessionId, k -> new PlayoutQueue(playoutIdleTimeoutMs));
+            CompletableFuture<Void> done = queue.append(onStart, frames, isLast);
+            if (done == null) {
+                // 队列已结束或已收到最后一句，换新队列
+                playoutQueues.remove(sessionId, queue);
+                continue;
+            }
+            startPlayout(session, queue, frames);
+            return done;
+        }
+    }
+
+    /**
+     * 准备句子的帧：流式合成直接取合成队列，文件按缓存转码，无音频时停顿一段时间
+     */
+    private CompletableFuture<AdaptiveSender.FrameQueue> prepareFrames(ChatSession session,
+            DialogueService.Sentence sentence) {
+        String sessionId = session.getSessionId();
+
+        StreamingAudio stream = sentence.getStream();
+        if (stream != null) {
+            // 缓冲够预缓冲帧后开始播放，合成长时间无数据时放弃
+            return stream.awaitFrames(getPrebuffer(sessionId).lead()).thenApply(v -> new AdaptiveSender.FrameQueue() {
+                @Override
+                public ByteBuffer poll() {
+                    return stream.poll();
+                }
+
+                @Override
+                public boolean isDrained() {
+                    if (stream.isStalled(STREAM_STALL_TIMEOUT_MS)) {
+                        logger.warn("流式合成长时间无数据，停止播放 - SessionId: {}, 文本: {}", sessionId, sentence.getText());
+                        stream.abort();
+                    }
+                    return stream.isDrained();
+                }
+            });
+        }
+
+        String audioPath = sentence.getAudioPath();
+        if (audioPath == null) {
+            String text = sentence.getText();
+            return CompletableFuture.completedFuture(text != null && !text.isEmpty()
+                    ? AdaptiveSender.pauseQueue(ONLY_TEXT_SLEEP_TIME_MS)
+                    : AdaptiveSender.listQueue(List.of()));
         }
-        
-        // 使用单独的变量存储播放状态引用
-        final AtomicBoolean finalPlayingState = playingState;
-        
-        // 发送句子开始标记
-        CompletableFuture<Void> sentenceStartFuture = startFuture.thenRun(() -> sendSentenceStart(session, text));
-        
-        // 发送句子表情
-        CompletableFuture<Void> emotionFuture = sentenceStartFuture.thenRun(() -> sendSentenceEmotion(session, sentence, null));
 
         // 处理音频文件
-        return emotionFuture.thenCompose(v -> CompletableFuture.supplyAsync(() -> {
-            String fullPath = audioPath;
-            File audioFile = new File(fullPath);
+        return CompletableFuture.supplyAsync(() -> {
+            File audioFile = new File(audioPath);
             if (!audioFile.exists()) {
-                logger.warn("音频文件不存在: {}", fullPath);
-                return null;
+                logger.warn("音频文件不存在: {}", audioPath);
+                return AdaptiveSender.listQueue(List.of());
             }
 
-            List<byte[]> opusFrames;
-
             try {
-                if (audioPath.contains(".opus")) {
-                    // 如果是opus文件，直接读取opus帧数据
-                    opusFrames = opusProcessor.readOpus(audioFile);
-                } else {
+                if (audioPath.contains(".opus") && opusProcessor.isOgg(audioFile)) {
+                    // OGG封装的opus文件通过内存映射的页索引直接发送帧视图，不读入堆内存
+                    return AdaptiveSender.listQueue(opusProcessor.getOggIndex(audioFile).frames());
+                }
+                OpusFrameCache.FrameLoader loader = () -> {
+                    if (audioPath.contains(".opus")) {
+                        // 如果是opus文件，直接读取opus帧数据
+                        return opusProcessor.readOpus(audioFile);
+                    }
                     // 如果不是opus文件，按照原来的逻辑处理
-                    byte[] audioData = AudioUtils.readAsPcm(fullPath);
+                    byte[] audioData = AudioUtils.readAsPcm(audioPath);
                     // 将PCM转换为Opus帧
-                    opusFrames = opusProcessor.pcmToOpus(sessionId, audioData, false);
-                }
-                return opusFrames;
+                    return opusProcessor.pcmToOpus(sessionId, audioData, false);
+                };
+                // 只有TTS短语缓存命中的音频会重复播放，按文件内容缓存转码结果；每句新合成的音频不进缓存
+                List<byte[]> frames = TtsCache.isCachedCopy(audioPath)
+                        ? opusFrameCache.getOrLoad(audioFile, loader)
+                        : loader.load();
+                return AdaptiveSender.listQueue(frames.stream().map(ByteBuffer::wrap).toList());
             } catch (Exception e) {
-                logger.error("处理音频文件失败: {}", fullPath, e);
-                return null;
-            }
-        })).thenCompose(opusFrames -> {
-            if (opusFrames == null || opusFrames.isEmpty()) {
-                finalPlayingState.set(false);
-                if (isLast) {
-                    return sendStop(session);
-                }
-                return CompletableFuture.completedFuture(null);
+                logger.error("处理音频文件失败: {}", audioPath, e);
+                return AdaptiveSender.listQueue(List.of());
             }
+        }, Thread::startVirtualThread);
+    }
 
-            // 确保播放状态为true
-            finalPlayingState.set(true);
-            
-            // 创建发送帧的CompletableFuture
-            CompletableFuture<Void> sendFramesFuture = new CompletableFuture<>();
-            
+    /**
+     * 队列的第一句就绪后开始播放，同一队列只启动一次
+     */
+    private void startPlayout(ChatSession session, PlayoutQueue queue,
+            CompletableFuture<AdaptiveSender.FrameQueue> firstFrames) {
+        if (!queue.markStarted()) {
+            return;
+        }
+        String sessionId = session.getSessionId();
+
+        // 标记开始播放
+        AtomicBoolean playingState = isPlaying.computeIfAbsent(sessionId, k -> new AtomicBoolean(true));
+        playingState.set(true);
+
+        CompletableFuture<Void> playout = firstFrames.handle((v, e) -> null).thenComposeAsync(v -> {
             try {
-                // 初始化播放时间和位置
-                playStartTimes.put(sessionId, System.nanoTime());
-                playPositions.put(sessionId, 0L);
-                
-                // 预缓冲处理
-                int preBufferCount = Math.min(PRE_BUFFER_FRAMES, opusFrames.size());
-                for (int i = 0; i < preBufferCount; i++) {
-                    sendOpusFrame(session, opusFrames.get(i));
-                    // 更新播放位置
-                    playPositions.put(sessionId, (i + 1) * OPUS_FRAME_SEND_INTERVAL_MS);
-                }
-                
-                // 创建帧发送任务
-                final int[] frameIndex = {preBufferCount};
-                
-                Runnable frameTask = new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            if (!finalPlayingState.get() || frameIndex[0] >= opusFrames.size() || !session.isOpen()) {
-                                // 完成非流式音频处理
-                                endTask(sessionId, sendFramesFuture);
-                                return;
-                            }
-                            
-                            // 更新活跃时间
-                            sessionManager.updateLastActivity(sessionId);
-                            
-                            // 发送当前帧
-                            byte[] frame = opusFrames.get(frameIndex[0]++);
-                            sendOpusFrame(session, frame);
-                            
-                            // 更新播放位置
-                            Long position = playPositions.get(sessionId);
-                            if (position != null) {
-                                playPositions.put(sessionId, position + OPUS_FRAME_SEND_INTERVAL_MS);
-                            }
-                            
-                            // 计算下一帧的发送时间
-                            if (frameIndex[0] < opusFrames.size()) {
-                                scheduleNextFrame(sessionId, this);
-                            } else {
-                                // 所有帧已发送完成
-                                endTask(sessionId, sendFramesFuture);
-                            }
-                            
-                        } catch (Exception e) {
-                            // 发生错误，取消调度任务
-                            logger.error("非流式帧处理失败", e);
-                            endTask(sessionId, sendFramesFuture, e);
-                        }
-                    }
-                };
-                
-                // 如果还有帧需要发送，启动精确时间调度
-                if (frameIndex[0] < opusFrames.size()) {
-                    scheduleNextFrame(sessionId, frameTask);
-                } else {
-                    // 所有帧已在预缓冲中发送完毕
-                    endTask(sessionId, sendFramesFuture);
-                }
-                
+                return playFrames(session, playingState, queue);
             } catch (Exception e) {
                 logger.error("音频帧发送初始化失败", e);
-                endTask(sessionId, sendFramesFuture, e);
+                return CompletableFuture.<Void>failedFuture(e);
             }
-            
-            // 返回帧发送Future
-            return sendFramesFuture;
-        }).whenComplete((result, error) -> {
-            // 无论成功还是失败，都标记播放结束
-            finalPlayingState.set(false);
-            
-            // 取消调度任务
-            cancelScheduledTask(sessionId);
-            
-            // 清理播放时间信息
-            cleanTimers(sessionId);
-        }).thenCompose(v -> {
-            // 发送停止消息（只有在isLast为true时才发送）
-            if (isLast) {
-                return sendStop(session, true);
+        }, Thread::startVirtualThread);
+
+        sendAudioTasks.put(sessionId, playout);
+        playout.whenComplete((result, error) -> {
+            // 被停止消息取消时停止消息已经发出
+            boolean cancelled = error instanceof CancellationException;
+            if (error != null && !cancelled) {
+                logger.error("发送音频消息失败", error);
             }
+            playoutQueues.remove(sessionId, queue);
+            sendAudioTasks.remove(sessionId, playout);
+            queue.cancel();
+            // 会话已开始新的播放时不改动播放状态
+            if (!playoutQueues.containsKey(sessionId)) {
+                playingState.set(false);
+            }
+            // 最后一句发出后发送停止消息
+            if (!cancelled && queue.isSealed() && (queue.isCompleted() || error != null)) {
+                sendStop(session, true);
+            }
+        });
+    }
+
+    /**
+     * 按会话的自适应提前量播放帧：开头突发提前量帧，剩余帧交给全局节拍器按时发送
+     */
+    private CompletableFuture<Void> playFrames(ChatSession session, AtomicBoolean playingState,
+            AdaptiveSender.FrameQueue frames) throws IOException {
+        String sessionId = session.getSessionId();
+        AdaptivePrebuffer prebuffer = getPrebuffer(sessionId);
+        long underrunsBefore = prebuffer.getUnderruns();
+
+        AdaptiveSender sender = new AdaptiveSender(prebuffer, frames,
+                frame -> sendOpusFrame(session, frame),
+                () -> {
+                    if (!playingState.get() || !session.isOpen()) {
+                        return false;
+                    }
+                    // 更新活跃时间
+                    sessionManager.updateLastActivity(sessionId);
+                    return true;
+                });
+
+        // 播放起点，第i拍在起点之后i个帧间隔
+        long startNanos = System.nanoTime();
+        if (!sender.burst()) {
+            // 所有帧已在预缓冲中发送完毕
             return CompletableFuture.completedFuture(null);
-        }).exceptionally(error -> {
-            logger.error("发送音频消息失败", error);
-            
-            // 如果发生错误但仍然是结束消息，确保发送stop
-            if (isLast) {
-                try {
-                    sendStop(session, true);
-                } catch (Exception e) {
-                    logger.error("发送停止消息失败", e);
-                }
+        }
+
+        return framePacer.start(sessionId, startNanos, 1, sender).future().whenComplete((v, e) -> {
+            long underruns = prebuffer.getUnderruns() - underrunsBefore;
+            if (underruns > 0) {
+                logger.info("播放出现欠载 - SessionId: {}, 帧数: {}, 欠载次数: {}, 当前提前量: {}帧",
+                        sessionId, sender.getSent(), underruns, prebuffer.lead());
             }
-            return null;
         });
     }
 
+    private AdaptivePrebuffer getPrebuffer(String sessionId) {
+        return prebuffers.computeIfAbsent(sessionId,
+                k -> new AdaptivePrebuffer(prebufferMinFrames, prebufferMaxFrames, prebufferInitialFrames));
+    }
+
+    /**
+     * 会话的预缓冲统计（提前量、发送耗时、欠载次数），会话不存在时返回null
+     */
+    public Map<String, Object> getPrebufferStats(String sessionId) {
+        AdaptivePrebuffer prebuffer = prebuffers.get(sessionId);
+        return prebuffer != null ? prebuffer.getStats() : null;
+    }
+
+    /**
+     * 所有会话的预缓冲汇总统计：在线会话数、平均和最大提前量、累计欠载次数
+     */
+    public Map<String, Object> getPrebufferSummary() {
+        int sessions = 0;
+        long leadSum = 0;
+        int maxLead = 0;
+        long underruns = closedUnderruns.get();
+        long starvations = closedStarvations.get();
+        for (AdaptivePrebuffer prebuffer : prebuffers.values()) {
+            int lead = prebuffer.lead();
+            sessions++;
+            leadSum += lead;
+            maxLead = Math.max(maxLead, lead);
+            underruns += prebuffer.getUnderruns();
+            starvations += prebuffer.getStarvations();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", sessions);
+        stats.put("avgLead", sessions == 0 ? 0.0 : leadSum / (double) sessions);
+        stats.put("maxLead", maxLead);
+        stats.put("underruns", underruns);
+        stats.put("starvations", starvations);
+        return stats;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        StatsGauges.register(registry, "playout.prebuffer", Tags.empty(), this::getPrebufferSummary);
+    }
+
     /**
      * 发送Opus帧数据
      */
@@ -370,6 +428,13 @@ public class AudioService {
         messageService.sendBinaryMessage(session, opusFrame);
     }
 
+    /**
+     * 发送Opus帧数据，帧可以是内存映射文件的视图
+     */
+    public void sendOpusFrame(ChatSession session, ByteBuffer opusFrame) throws IOException {
+        messageService.sendBinaryMessage(session, opusFrame);
+    }
+
     /**
      * 发送表情信息。如果句子里没有分析出表情，则默认返回 happy
      */
@@ -386,85 +451,28 @@ public class AudioService {
      * 清理会话资源
      */
     public void cleanupSession(String sessionId) {
-        lastFrameSentTime.remove(sessionId);
         isPlaying.remove(sessionId);
-        cleanTimers(sessionId);
+        AdaptivePrebuffer prebuffer = prebuffers.remove(sessionId);
+        if (prebuffer != null) {
+            closedUnderruns.addAndGet(prebuffer.getUnderruns());
+            closedStarvations.addAndGet(prebuffer.getStarvations());
+            if (prebuffer.getUnderruns() > 0) {
+                logger.info("会话预缓冲统计 - SessionId: {}, {}", sessionId, prebuffer.getStats());
+            }
+        }
         cancelScheduledTask(sessionId);
         opusProcessor.cleanup(sessionId);
     }
     
-    /**
-     * 结束非流式任务
-     */
-    private void endTask(String sessionId, CompletableFuture<Void> future) {
-        endTask(sessionId, future, null);
-    }
-    
-    /**
-     * 结束非流式任务（带异常）
-     */
-    private void endTask(String sessionId, CompletableFuture<Void> future, Throwable error) {
-        // 取消调度任务
-        cancelScheduledTask(sessionId);
-        
-        // 清理播放时间信息
-        cleanTimers(sessionId);
-        
-        // 完成Future
-        if (error != null) {
-            future.completeExceptionally(error);
-        } else {
-            future.complete(null);
-        }
-    }
-    
-    /**
-     * 清理计时器资源
-     */
-    private void cleanTimers(String sessionId) {
-        playStartTimes.remove(sessionId);
-        playPositions.remove(sessionId);
-    }
-    
-    /**
-     * 计算并调度下一帧的发送时间
-     */
-    private void scheduleNextFrame(String sessionId, Runnable frameTask) {
-        Long startTime = playStartTimes.get(sessionId);
-        Long position = playPositions.get(sessionId);
-        
-        if (startTime == null || position == null) {
-            // 如果没有时间信息，使用固定间隔
-            ScheduledFuture<?> future = scheduler.schedule(frameTask, OPUS_FRAME_SEND_INTERVAL_MS, TimeUnit.MILLISECONDS);
-            scheduledTasks.put(sessionId, future);
-            return;
-        }
-
-        // 计算预期发送时间（纳秒级精度）
-        long expectedTime = startTime + position * 1_000_000;
-        long currentTime = System.nanoTime();
-        long delayNanos = expectedTime - currentTime;
-        
-        ScheduledFuture<?> future;
-        if (delayNanos <= 0) {
-            // 如果当前时间已经超过预期时间，立即发送
-            future = scheduler.schedule(frameTask, 0, TimeUnit.NANOSECONDS);
-        } else {
-            // 延迟到精确时间点再发送
-            future = scheduler.schedule(frameTask, delayNanos, TimeUnit.NANOSECONDS);
-        }
-
-        scheduledTasks.put(sessionId, future);
-    }
-    
     /**
      * 取消调度任务
      */
     public void cancelScheduledTask(String sessionId) {
-        ScheduledFuture<?> task = scheduledTasks.remove(sessionId);
-        if (task != null && !task.isDone()) {
-            task.cancel(false);
+        PlayoutQueue queue = playoutQueues.remove(sessionId);
+        if (queue != null) {
+            queue.cancel();
         }
+        framePacer.cancel(sessionId);
     }
 
 }
\ No newline at end of file
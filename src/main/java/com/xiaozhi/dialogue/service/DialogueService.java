@@ -3,9 +3,16 @@ package com.xiaozhi.dialogue.service;
 import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.communication.common.SessionManager;
 import com.xiaozhi.dialogue.llm.ChatService;
+import com.xiaozhi.dialogue.llm.SentenceBatcher;
+import com.xiaozhi.dialogue.playout.ReorderBuffer;
+import com.xiaozhi.dialogue.playout.StreamingAudio;
 import com.xiaozhi.dialogue.service.VadService.VadStatus;
+import com.xiaozhi.dialogue.stt.SttHypothesis;
 import com.xiaozhi.dialogue.stt.SttService;
 import com.xiaozhi.dialogue.stt.factory.SttServiceFactory;
+import com.xiaozhi.dialogue.tts.TtsHedger;
+import com.xiaozhi.dialogue.tts.TtsScheduler;
+import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysDevice;
@@ -24,6 +31,8 @@ import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
 
 import jakarta.annotation.Resource;
 import java.nio.file.Path;
@@ -32,7 +41,8 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
@@ -44,6 +54,8 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     private static final Logger logger = LoggerFactory.getLogger(DialogueService.class);
     private static final DecimalFormat df = new DecimalFormat("0.00");
     private static final long TIMEOUT_MS = 5000;
+    // 每个会话最多同时等待播放的句子数
+    private static final int SENTENCE_BUFFER_CAPACITY = 1024;
     
     // 从配置文件读取TTS相关参数
     @Value("${tts.timeout.ms:10000}")
@@ -54,9 +66,31 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     
     @Value("${tts.retry.delay.ms:1000}")
     private long TTS_RETRY_DELAY_MS;
-    
-    @Value("${tts.max.concurrent.per.session:3}")
-    private int MAX_CONCURRENT_PER_SESSION;
+
+    // 首句未完整前先推测合成其开头的短分句
+    @Value("${tts.speculative.enabled:false}")
+    private boolean SPECULATIVE_TTS_ENABLED;
+
+    // 首句之后的短片段合并后再合成，字数预算从最小值每批翻倍到上限
+    @Value("${tts.batch.enabled:true}")
+    private boolean SENTENCE_BATCH_ENABLED;
+
+    @Value("${tts.batch.min-chars:12}")
+    private int SENTENCE_BATCH_MIN_CHARS;
+
+    @Value("${tts.batch.max-chars:60}")
+    private int SENTENCE_BATCH_MAX_CHARS;
+
+    @Value("${tts.batch.max-hold-ms:600}")
+    private long SENTENCE_BATCH_MAX_HOLD_MS;
+
+    // 识别中间结果推送给设备并用于预热对话模型
+    @Value("${stt.partial.enabled:true}")
+    private boolean STT_PARTIAL_ENABLED;
+
+    // 中间结果推送给设备的最小间隔
+    @Value("${stt.partial.min-interval-ms:300}")
+    private long STT_PARTIAL_MIN_INTERVAL_MS;
 
     @Resource
     private ChatService chatService;
@@ -67,6 +101,12 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     @Resource
     private TtsServiceFactory ttsFactory;
 
+    @Resource
+    private TtsScheduler ttsScheduler;
+
+    @Resource
+    private TtsHedger ttsHedger;
+
     @Resource
     private SttServiceFactory sttFactory;
 
@@ -97,19 +137,28 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     private final Map<String, AtomicInteger> seqCounters = new ConcurrentHashMap<>();
     private final Map<String, Long> sttStartTimes = new ConcurrentHashMap<>();
     private final Map<String, Long> llmStartTimes = new ConcurrentHashMap<>();
-    private final Map<String, CopyOnWriteArrayList<Sentence>> sentenceQueue = new ConcurrentHashMap<>();
+    // 按序号重排的句子缓冲，TTS乱序完成，按序号出队播放
+    private final Map<String, ReorderBuffer<Sentence>> sentenceBuffers = new ConcurrentHashMap<>();
     private final Map<String, AtomicBoolean> firstSentDone = new ConcurrentHashMap<>();
-    private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+    // 正在推测合成、尚未与首句对账的前缀句子
+    private final Map<String, Sentence> speculations = new ConcurrentHashMap<>();
+    // 本轮用户输入已回复的识别文本，语音停顿后继续说话时与补充识别的文本对比
+    private final Map<String, CompletableFuture<String>> utteranceTexts = new ConcurrentHashMap<>();
+    // 当前回复的标识和模型流，补充识别的文本有实质变化时取消重来
+    private final Map<String, Object> dialogueTurns = new ConcurrentHashMap<>();
+    private final Map<String, Disposable> llmStreams = new ConcurrentHashMap<>();
+    // 当前回复的句子合并器，取消回复时丢弃攒住的片段
+    private final Map<String, SentenceBatcher> sentenceBatchers = new ConcurrentHashMap<>();
+    // 正在合成的流式音频，取消回复时放弃，服务商的合成随之中断
+    private final Map<String, Set<StreamingAudio>> activeStreams = new ConcurrentHashMap<>();
 
     // 存储每个对话ID的所有模型回复音频路径
     private final Map<Long, Map<Integer, String>> dialogueAudioPaths = new ConcurrentHashMap<>();
+    // 存储每个对话ID尚未写完的流式合成音频文件
+    private final Map<Long, List<CompletableFuture<String>>> pendingAudioWrites = new ConcurrentHashMap<>();
     // 存储每个对话ID的完整文本回复
     private final Map<Long, StringBuilder> dialogueResponses = new ConcurrentHashMap<>();
 
-    // 新增：并发控制相关
-    private final Map<String, Semaphore> sessionSemaphores = new ConcurrentHashMap<>();
-    private final Map<String, PriorityBlockingQueue<TtsTask>> sessionTaskQueues = new ConcurrentHashMap<>();
-
     @Override
     public void onApplicationEvent(ChatSessionCloseEvent event) {
         ChatSession chatSession = event.getSession();
@@ -118,6 +167,7 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             Long assistantTimeMillis = chatSession.getAssistantTimeMillis();
             if (assistantTimeMillis!=null ) {
                 dialogueAudioPaths.remove(assistantTimeMillis);
+                pendingAudioWrites.remove(assistantTimeMillis);
                 dialogueResponses.remove(assistantTimeMillis);
             }
             cleanupSession(chatSession.getSessionId());
@@ -132,8 +182,12 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
         private final String text;
         private boolean isFirst;
         private boolean isLast;
-        private boolean ready = false;
-        private String audioPath = null;
+        // 就绪状态由TTS线程写入、出队线程无锁读取
+        private volatile boolean ready = false;
+        private volatile String audioPath = null;
+        private volatile StreamingAudio stream = null;
+        // 推测合成的前缀与首句不符，只占位不播放
+        private volatile boolean discarded = false;
         private long timestamp = System.currentTimeMillis();
         private double modelResponseTime = 0.0; // 模型响应时间（秒）
         private double ttsGenerationTime = 0.0; // TTS生成时间（秒）
@@ -161,10 +215,26 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             this.ready = true;
         }
 
+        /**
+         * 设置流式合成的音频，收到首帧即可播放
+         */
+        public void setStream(StreamingAudio stream) {
+            this.stream = stream;
+            this.ready = true;
+        }
+
+        public StreamingAudio getStream() {
+            return stream;
+        }
+
         public boolean isReady() {
             return ready;
         }
 
+        public boolean isDiscarded() {
+            return discarded;
+        }
+
         public boolean isTimeout() {
             return System.currentTimeMillis() - timestamp > TIMEOUT_MS;
         }
@@ -223,9 +293,9 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     }
 
     /**
-     * TTS任务封装，用于优先队列
+     * TTS任务封装，交给全局TTS调度器排队
      */
-    private static class TtsTask implements Comparable<TtsTask> {
+    private static class TtsTask {
         private final String sessionId;
         private final Sentence sentence;
         private final EmoSentence emoSentence;
@@ -234,7 +304,6 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
         private final SysConfig ttsConfig;
         private final String voiceName;
         private final ChatSession session;
-        private final long createTime;
         private int retryCount = 0;
         private boolean isRetry = false;
 
@@ -249,19 +318,6 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             this.isLast = isLast;
             this.ttsConfig = ttsConfig;
             this.voiceName = voiceName;
-            this.createTime = System.currentTimeMillis();
-        }
-
-        @Override
-        public int compareTo(TtsTask other) {
-            // 优先级：重试任务 > 首句 > 序号小的句子
-            if (this.isRetry != other.isRetry) {
-                return this.isRetry ? -1 : 1;
-            }
-            if (this.isFirst != other.isFirst) {
-                return this.isFirst ? -1 : 1;
-            }
-            return Integer.compare(this.sentence.getSeq(), other.sentence.getSeq());
         }
 
         public String getSessionId() {
@@ -269,22 +325,6 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
         }
     }
 
-    /**
-     * 获取或创建session的信号量
-     */
-    private Semaphore getSessionSemaphore(String sessionId) {
-        return sessionSemaphores.computeIfAbsent(sessionId,
-                k -> new Semaphore(MAX_CONCURRENT_PER_SESSION));
-    }
-
-    /**
-     * 获取或创建session的任务队列
-     */
-    private PriorityBlockingQueue<TtsTask> getSessionTaskQueue(String sessionId) {
-        return sessionTaskQueues.computeIfAbsent(sessionId,
-                k -> new PriorityBlockingQueue<>());
-    }
-
     /**
      * 处理音频数据
      */
@@ -318,7 +358,12 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
 
                         // 初始化对话状态
                         initChat(sessionId);
-                        startStt(session, sessionId, sttConfig, device, vadResult.getProcessedData());
+                        startStt(session, sessionId, sttConfig, device, vadResult.getProcessedData(), false);
+                        break;
+
+                    case SPEECH_RESUME:
+                        // 提前结束识别后继续说话，补充识别这段语音，当前回复先不打断
+                        startStt(session, sessionId, sttConfig, device, vadResult.getProcessedData(), true);
                         break;
 
                     case SPEECH_CONTINUE:
@@ -328,8 +373,9 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                         }
                         break;
 
+                    case SPEECH_PAUSE:
                     case SPEECH_END:
-                        // 语音结束，完成流式识别
+                        // 语音停顿（提前结束识别）或语音结束，完成流式识别
                         if (sessionManager.isStreaming(sessionId)) {
                             sessionManager.completeAudioStream(sessionId);
                             sessionManager.setStreamingState(sessionId, false);
@@ -346,23 +392,31 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
 
     /**
      * 启动语音识别
+     *
+     * @param continuation 是否为语音停顿后继续说话的补充识别，补充的内容有实质变化时才取消当前回复，按完整文本重新回复
      */
     private void startStt(
             ChatSession session,
             String sessionId,
             SysConfig sttConfig,
             SysDevice device,
-            byte[] initialAudio) {
+            byte[] initialAudio,
+            boolean continuation) {
         Assert.notNull(session, "session不能为空");
         
         // STT 追踪由 Spring AI + OpenTelemetry 自动处理
         
         Thread.startVirtualThread(() -> {
             long sttStartTime = System.currentTimeMillis();
+            CompletableFuture<String> utteranceText = new CompletableFuture<>();
+            CompletableFuture<String> previousText = utteranceTexts.put(sessionId, utteranceText);
+            // 本轮已回复的文本，补充识别在识别完成后才取上一段的文本
+            String answeredText = continuation ? null : "";
             try {
                 // 如果正在播放，先中断音频
-                if (audioService.isPlaying(sessionId)) {
-                    sentenceQueue.get(sessionId).clear();
+                if (!continuation && audioService.isPlaying(sessionId)) {
+                    discardSpeculation(sessionId);
+                    clearSentences(sessionId);
                     audioService.sendStop(session);
                 }
 
@@ -386,55 +440,174 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                 }
 
                 // 设置用户收到音频的时间戳作为用户消息的创建时间戳，也用于约定保存音频文件的路径。一定要在STT前获得时间戳。
-                final Long userTimeMillis =  System.currentTimeMillis();
-                session.setUserTimeMillis(userTimeMillis);
+                // 补充识别属于同一轮输入，沿用原来的时间戳
+                if (!continuation) {
+                    final Long userTimeMillis =  System.currentTimeMillis();
+                    session.setUserTimeMillis(userTimeMillis);
+                }
 
-                final String finalText;
+                String text = null;
                 if (sessionManager.getAudioStream(sessionId) != null) {
-                    finalText = sttService.streamRecognition(sessionManager.getAudioStream(sessionId));
-                    if (!StringUtils.hasText(finalText)) {
-                        // STT 失败，OpenTelemetry 自动记录
+                    // 补充识别的中间结果接在已回复的文本后面显示
+                    String partialPrefix = continuation && previousText != null ? previousText.getNow("") : "";
+                    text = recognize(session, sttService, sessionManager.getAudioStream(sessionId), partialPrefix);
+                }
+
+                final String finalText;
+                if (continuation) {
+                    answeredText = awaitText(previousText);
+                    String combined = answeredText + (text != null ? text : "");
+                    if (!differsMaterially(answeredText, combined)) {
+                        logger.info("停顿后的补充识别没有实质内容，保持当前回复 - SessionId: {}, 补充: \"{}\"",
+                                sessionId, text);
                         return;
                     }
+                    logger.info("停顿后补充了内容，按完整文本重新回复 - SessionId: {}, 文本: \"{}\"", sessionId, combined);
+                    cancelReply(session, sessionId);
+                    initChat(sessionId);
+                    finalText = combined;
+                } else if (StringUtils.hasText(text)) {
+                    finalText = text;
                 } else {
                     // STT 失败，OpenTelemetry 自动记录
                     return;
                 }
-                
+                answeredText = finalText;
+
                 // STT 成功，OpenTelemetry 自动记录
                 
                 // 获取完整的音频数据并保存
                 saveUserAudio(session);
 
-                CompletableFuture.runAsync(() -> messageService.sendSttMessage(session, finalText))
-                        .thenRun(() -> audioService.sendStart(session))
-                        .thenRun(() -> {
-                            // 设置LLM生成消息的时间戳作为Assistant消息的创建时间戳，也用于约定保存音频文件的路径。一定要在LLM前设置时间戳。
-                            final Long assistantTimeMillis =  System.currentTimeMillis();
-                            session.setAssistantTimeMillis(assistantTimeMillis);
-                            // 初始化当前对话的音频路径映射和文本响应
-                            dialogueAudioPaths.put(assistantTimeMillis, new ConcurrentHashMap<>());
-                            dialogueResponses.put(assistantTimeMillis, new StringBuilder());
-                            // 使用句子切分处理响应
-                            chatService.chatStreamBySentence(session, finalText, true,
-                                    (sentence, isFirst, isLast) -> {
-                                        handleSentence(
-                                                session,
-                                                sentence,
-                                                isFirst,
-                                                isLast);
-                                    });
-                        })
-                        .exceptionally(e -> {
-                            logger.error("处理对话失败: {}", e.getMessage(), e);
-                            return null;
-                        });
+                startDialogue(session, sessionId, finalText);
             } catch (Exception e) {
                 logger.error("流式识别错误: {}", e.getMessage(), e);
+            } finally {
+                utteranceText.complete(answeredText != null ? answeredText : awaitText(previousText));
             }
         });
     }
 
+    /**
+     * 流式识别，中间结果推送给设备显示，并用于预热对话模型和记忆检索
+     *
+     * @param partialPrefix 中间结果前拼接的文本
+     * @return 最终识别文本，识别失败时返回null
+     */
+    private String recognize(ChatSession session, SttService sttService, Sinks.Many<byte[]> audioSink,
+            String partialPrefix) {
+        if (!STT_PARTIAL_ENABLED) {
+            return sttService.streamRecognition(audioSink);
+        }
+        AtomicLong lastSentAt = new AtomicLong();
+        AtomicReference<String> lastSent = new AtomicReference<>("");
+        try {
+            SttHypothesis result = sttService.streamHypotheses(audioSink)
+                    .doOnNext(hypothesis -> {
+                        if (hypothesis.isFinal()) {
+                            return;
+                        }
+                        String text = partialPrefix + hypothesis.text();
+                        chatService.prewarm(session, text);
+                        long now = System.currentTimeMillis();
+                        if (!text.equals(lastSent.get()) && now - lastSentAt.get() >= STT_PARTIAL_MIN_INTERVAL_MS) {
+                            lastSent.set(text);
+                            lastSentAt.set(now);
+                            messageService.sendSttMessage(session, text);
+                        }
+                    })
+                    .filter(SttHypothesis::isFinal)
+                    .blockLast();
+            return result != null ? result.text() : null;
+        } catch (Exception e) {
+            logger.error("流式识别失败: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 根据识别文本开始回复
+     */
+    private void startDialogue(ChatSession session, String sessionId, String finalText) {
+        Object turn = new Object();
+        dialogueTurns.put(sessionId, turn);
+        CompletableFuture.runAsync(() -> messageService.sendSttMessage(session, finalText))
+                .thenRun(() -> audioService.sendStart(session))
+                .thenRun(() -> {
+                    // 已被补充识别后的新回复取代
+                    if (dialogueTurns.get(sessionId) != turn) {
+                        return;
+                    }
+                    // 设置LLM生成消息的时间戳作为Assistant消息的创建时间戳，也用于约定保存音频文件的路径。一定要在LLM前设置时间戳。
+                    final Long assistantTimeMillis =  System.currentTimeMillis();
+                    session.setAssistantTimeMillis(assistantTimeMillis);
+                    // 初始化当前对话的音频路径映射和文本响应
+                    dialogueAudioPaths.put(assistantTimeMillis, new ConcurrentHashMap<>());
+                    dialogueResponses.put(assistantTimeMillis, new StringBuilder());
+                    // 使用句子切分处理响应
+                    Disposable stream = chatService.chatStreamBySentence(session, finalText, true,
+                            sentenceHandler(session, turn), prefixHandler(session));
+                    llmStreams.put(sessionId, stream);
+                    if (dialogueTurns.get(sessionId) != turn) {
+                        stream.dispose();
+                    }
+                })
+                .exceptionally(e -> {
+                    logger.error("处理对话失败: {}", e.getMessage(), e);
+                    return null;
+                });
+    }
+
+    /**
+     * 取消当前回复：停止模型输出，丢弃排队的TTS任务和未播放的句子
+     */
+    private void cancelReply(ChatSession session, String sessionId) {
+        dialogueTurns.remove(sessionId);
+        Disposable stream = llmStreams.remove(sessionId);
+        if (stream != null) {
+            stream.dispose();
+        }
+        SentenceBatcher batcher = sentenceBatchers.remove(sessionId);
+        if (batcher != null) {
+            batcher.cancel();
+        }
+        ttsScheduler.cancelSession(sessionId);
+        abortStreams(sessionId);
+        discardSpeculation(sessionId);
+        clearSentences(sessionId);
+        if (audioService.isPlaying(sessionId)) {
+            audioService.sendStop(session);
+        }
+    }
+
+    /**
+     * 等待上一段识别的文本，补充识别开始时它通常已经完成
+     */
+    private String awaitText(CompletableFuture<String> text) {
+        if (text == null) {
+            return "";
+        }
+        try {
+            return text.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "";
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    /**
+     * 两段识别文本是否有实质差别，忽略标点、空白和语气词
+     */
+    private static boolean differsMaterially(String previous, String current) {
+        return !normalizeText(previous).equals(normalizeText(current));
+    }
+
+    private static String normalizeText(String text) {
+        return text == null ? "" : text.replaceAll("[\\p{P}\\p{S}\\s嗯啊呃额哦唔]", "").toLowerCase();
+    }
+
     /**
      * 保存用户音频数据
      */
@@ -471,9 +644,12 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     private void initChat(String sessionId) {
         llmStartTimes.put(sessionId, System.currentTimeMillis());
         seqCounters.putIfAbsent(sessionId, new AtomicInteger(0));
-        sentenceQueue.putIfAbsent(sessionId, new CopyOnWriteArrayList<>());
+        // 序号在会话内持续递增，缓冲从下一个序号开始
+        sentenceBuffers.computeIfAbsent(sessionId,
+                k -> new ReorderBuffer<>(SENTENCE_BUFFER_CAPACITY, seqCounters.get(sessionId).get() + 1));
+        // 上一轮没有对账的推测不再需要
+        discardSpeculation(sessionId);
         firstSentDone.put(sessionId, new AtomicBoolean(false));
-        locks.putIfAbsent(sessionId, new ReentrantLock());
     }
 
     /**
@@ -484,11 +660,30 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             ChatSession session,
             String text,
             boolean isFirst,
-            boolean isLast) {
+            boolean isLast,
+            Object turn) {
         Assert.notNull(session, "session cannot be null");
         Long assistantTimeMillis = session.getAssistantTimeMillis();
         Assert.notNull(assistantTimeMillis, "assistantTimeMillis cannot be null");
         String sessionId = session.getSessionId();
+
+        // 首句与推测合成的前缀对账
+        if (isFirst && speculations.containsKey(sessionId)
+                && confirmSpeculation(session, text, isLast, turn)) {
+            return;
+        }
+
+        // 先确认设备、角色和句子缓冲都在，再领取序号，提前返回不会在缓冲中留下永远等不到的空档
+        SysDevice device = session.getSysDevice();
+        if (device == null) {
+            return;
+        }
+        SysRole role = roleService.selectRoleById(device.getRoleId());
+        ReorderBuffer<Sentence> buffer = sentenceBuffers.get(sessionId);
+        if (role == null || buffer == null) {
+            return;
+        }
+
         seqCounters.putIfAbsent(sessionId, new AtomicInteger(0));
         // 获取句子序列号
         int seq = seqCounters.get(sessionId).incrementAndGet();
@@ -511,12 +706,6 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             responseTime = 0.0;
         }
 
-        SysDevice device = session.getSysDevice();
-        SysRole role = roleService.selectRoleById(device.getRoleId());
-        if (device == null || role == null) {
-            return;
-        }
-
         // 新增加的设备很有可能没有配置TTS，采用默认Edge需要传递null
         final SysConfig ttsConfig;
         if (role.getTtsId() != null) {
@@ -533,10 +722,25 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
         
         logger.info("处理LLM返回的句子: seq={}, text={}, isFirst={}, isLast={}, responseTime={}s", seq, text, isFirst, isLast, responseTime);
 
-        // 添加到句子队列
-        CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-        if (queue == null) {return;}
-        queue.add(sentence);
+        // 回复已取消或被新回复取代，以丢弃状态占住序号
+        if (turn != null && dialogueTurns.get(sessionId) != turn) {
+            sentence.discarded = true;
+            if (buffer.offer(seq, sentence)) {
+                processQueue(session, sessionId);
+            }
+            logger.info("回复已取消，丢弃句子 - 序号: {}, 内容: \"{}\"", seq, text);
+            return;
+        }
+
+        // 按序号放入句子缓冲
+        if (!buffer.offer(seq, sentence)) {
+            if (seq >= buffer.nextSeq()) {
+                // 超出容量的序号放不进缓冲，跳过到该序号为止的句子，否则缓冲会一直等这个序号
+                buffer.clearThrough(seq);
+            }
+            logger.warn("句子缓冲已满或序号已过期，丢弃句子 - 序号: {}, 期望序号: {}, 内容: \"{}\"", seq, buffer.nextSeq(), text);
+            return;
+        }
 
         // 如果句子为空且是结束状态，直接标记为准备好（不需要生成音频）
         if ((text == null || text.isEmpty()) && isLast) {
@@ -562,6 +766,163 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
         });
     }
 
+    /**
+     * 返回一次回复的句子处理器，开启合并时首句之后的短片段合并后再交给handleSentence
+     */
+    private ChatService.TriConsumer<String, Boolean, Boolean> sentenceHandler(ChatSession session) {
+        return sentenceHandler(session, null);
+    }
+
+    /**
+     * 返回一次回复的句子处理器，回复标识不再是当前回复时句子不入队
+     *
+     * @param turn 回复标识，为null时不检查
+     */
+    private ChatService.TriConsumer<String, Boolean, Boolean> sentenceHandler(ChatSession session, Object turn) {
+        ChatService.TriConsumer<String, Boolean, Boolean> handler =
+                (sentence, isFirst, isLast) -> handleSentence(session, sentence, isFirst, isLast, turn);
+        if (!SENTENCE_BATCH_ENABLED) {
+            return handler;
+        }
+        SentenceBatcher batcher = new SentenceBatcher(handler, SENTENCE_BATCH_MIN_CHARS, SENTENCE_BATCH_MAX_CHARS,
+                SENTENCE_BATCH_MAX_HOLD_MS);
+        SentenceBatcher previous = sentenceBatchers.put(session.getSessionId(), batcher);
+        if (previous != null) {
+            previous.cancel();
+        }
+        return batcher;
+    }
+
+    /**
+     * 返回首句前缀的回调，未开启推测合成时为null
+     */
+    private Consumer<String> prefixHandler(ChatSession session) {
+        return SPECULATIVE_TTS_ENABLED ? prefix -> speculate(session, prefix) : null;
+    }
+
+    /**
+     * 推测合成首句的前缀
+     * 预留首句的序号并立即按首句优先级合成前缀，不进入句子缓冲，等首句到达时对账。
+     */
+    private void speculate(ChatSession session, String prefix) {
+        String sessionId = session.getSessionId();
+        Long assistantTimeMillis = session.getAssistantTimeMillis();
+        AtomicInteger seqCounter = seqCounters.get(sessionId);
+        SysDevice device = session.getSysDevice();
+        if (assistantTimeMillis == null || seqCounter == null || device == null
+                || speculations.containsKey(sessionId)) {
+            return;
+        }
+        SysRole role = roleService.selectRoleById(device.getRoleId());
+        if (role == null) {
+            return;
+        }
+        SysConfig ttsConfig = role.getTtsId() != null ? configService.selectConfigById(role.getTtsId()) : null;
+
+        Sentence sentence = new Sentence(seqCounter.incrementAndGet(), prefix, true, false);
+        Long startTime = llmStartTimes.get(sessionId);
+        sentence.setModelResponseTime(startTime != null ? (System.currentTimeMillis() - startTime) / 1000.0 : 0.0);
+        sentence.setAssistantTimeMillis(assistantTimeMillis);
+        speculations.put(sessionId, sentence);
+
+        logger.info("推测合成首句前缀: seq={}, text={}", sentence.getSeq(), prefix);
+        submitTtsTask(new TtsTask(session, sessionId, sentence, EmojiUtils.processSentence(prefix),
+                true, false, ttsConfig, role.getVoiceName()));
+    }
+
+    /**
+     * 首句与推测的前缀对账
+     * 首句以前缀开头时，前缀作为首句入队播放，剩余部分作为下一句；否则放弃推测，由调用方按普通首句处理。
+     *
+     * @return 首句已处理返回true
+     */
+    private boolean confirmSpeculation(ChatSession session, String text, boolean isLast, Object turn) {
+        String sessionId = session.getSessionId();
+        Sentence speculative = speculations.get(sessionId);
+        if (speculative == null) {
+            return false;
+        }
+        if (text == null || !text.startsWith(speculative.getText())) {
+            logger.info("首句与推测前缀不符，放弃推测 - 序号: {}, 前缀: \"{}\", 首句: \"{}\"",
+                    speculative.getSeq(), speculative.getText(), text);
+            discardSpeculation(sessionId);
+            return false;
+        }
+        speculations.remove(sessionId, speculative);
+
+        String prefix = speculative.getText();
+        String rest = text.substring(prefix.length()).trim();
+        dialogueResponses.computeIfAbsent(speculative.getAssistantTimeMillis(), k -> new StringBuilder()).append(prefix);
+
+        ReorderBuffer<Sentence> buffer = sentenceBuffers.get(sessionId);
+        if (buffer == null || !buffer.offer(speculative.getSeq(), speculative)) {
+            logger.warn("推测句子入队失败 - 序号: {}, 内容: \"{}\"", speculative.getSeq(), prefix);
+        }
+        logger.info("首句与推测前缀一致 - 序号: {}, 前缀: \"{}\", 剩余: \"{}\"", speculative.getSeq(), prefix, rest);
+        // 前缀的音频可能已经就绪
+        processQueue(session, sessionId);
+
+        if (rest.replaceAll("[\\p{P}\\s]", "").isEmpty()) {
+            // 剩余部分只有标点，不再单独合成
+            if (!rest.isEmpty()) {
+                dialogueResponses.get(speculative.getAssistantTimeMillis()).append(rest);
+            }
+            if (isLast) {
+                handleSentence(session, "", false, true, turn);
+            }
+        } else {
+            handleSentence(session, rest, false, isLast, turn);
+        }
+        return true;
+    }
+
+    /**
+     * 丢弃句子缓冲中未播放的句子，已领取序号但还没放入的句子随后按过期丢弃
+     */
+    private void clearSentences(String sessionId) {
+        ReorderBuffer<Sentence> buffer = sentenceBuffers.get(sessionId);
+        AtomicInteger seqCounter = seqCounters.get(sessionId);
+        if (buffer != null) {
+            buffer.clearThrough(seqCounter != null ? seqCounter.get() : buffer.nextSeq() - 1);
+        }
+    }
+
+    /**
+     * 放弃会话正在进行的流式合成
+     */
+    private void abortStreams(String sessionId) {
+        Set<StreamingAudio> streams = activeStreams.remove(sessionId);
+        if (streams != null) {
+            streams.forEach(StreamingAudio::abort);
+        }
+    }
+
+    /**
+     * 放弃未对账的推测，预留的序号以丢弃状态入队占位，避免句子缓冲卡在该序号
+     */
+    private void discardSpeculation(String sessionId) {
+        Sentence speculative = speculations.remove(sessionId);
+        if (speculative == null) {
+            return;
+        }
+        // 与合成成功时登记历史音频互斥，已登记的移除
+        synchronized (speculative) {
+            speculative.discarded = true;
+            Map<Integer, String> audioPaths = dialogueAudioPaths.get(speculative.getAssistantTimeMillis());
+            if (audioPaths != null) {
+                audioPaths.remove(speculative.getSeq());
+            }
+        }
+        StreamingAudio stream = speculative.getStream();
+        if (stream != null) {
+            stream.abort();
+        }
+        ReorderBuffer<Sentence> buffer = sentenceBuffers.get(sessionId);
+        if (buffer != null) {
+            buffer.offer(speculative.getSeq(), speculative);
+        }
+    }
+
     /**
      * 生成音频并处理
      * TODO 考虑inline , 无实质内容。可以另外切分函数得更优雅。
@@ -588,96 +949,238 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
 
     /**
      * 提交TTS任务
+     * 由全局调度器按服务商限流、跨会话公平排队，首句和重试优先；同一会话内按序号执行
      */
     private void submitTtsTask(TtsTask task) {
-        PriorityBlockingQueue<TtsTask> taskQueue = getSessionTaskQueue(task.sessionId);
-        taskQueue.offer(task);
-
-        // 尝试处理队列中的任务
-        processTtsTaskQueue(task.sessionId);
+        ttsScheduler.submit(task.ttsConfig, task.sessionId, task.isFirst || task.isRetry, task.sentence.getSeq(),
+                task.emoSentence.getTtsSentence(), () -> {
+                    // 耗时操作需及时更新最后活动时间，避免误判为会话终止
+                    sessionManager.updateLastActivity(task.sessionId);
+                    executeTtsTask(task);
+                });
     }
 
     /**
-     * 处理TTS任务队列
+     * 执行TTS任务（带超时和重试）
      */
-    private void processTtsTaskQueue(String sessionId) {
-        Thread.startVirtualThread(() -> {
-            PriorityBlockingQueue<TtsTask> taskQueue = getSessionTaskQueue(sessionId);
-            Semaphore semaphore = getSessionSemaphore(sessionId);
+    private void executeTtsTask(TtsTask task) {
+        if (task.sentence.isDiscarded()) {
+            return;
+        }
+        TtsService ttsService = ttsFactory.getTtsService(task.ttsConfig, task.voiceName);
+        if (ttsService.isSupportStreamTts()) {
+            executeStreamTtsTask(task, ttsService);
+            return;
+        }
 
-            while (!taskQueue.isEmpty()) {
-                // 耗时操作需及时更新最后活动时间，避免误判为会话终止
-                sessionManager.updateLastActivity(sessionId);
+        try {
+            // 耗时操作需及时更新最后活动时间，避免误判为会话终止
+            sessionManager.updateLastActivity(task.getSessionId());
 
-                // 尝试获取许可
-                if (!semaphore.tryAcquire()) {
-                    // 无法获取许可，等待其他任务完成
-                    break;
-                }
+            // 设置超时，主服务商迟迟不返回时对冲到备用服务
+            long ttsStartTime = System.currentTimeMillis();
+            String audioPath = ttsHedger.textToSpeech(task.ttsConfig, ttsService,
+                    task.emoSentence.getTtsSentence(), task.isFirst, TTS_TIMEOUT_MS);
 
-                TtsTask task = taskQueue.poll();
-                if (task == null) {
-                    semaphore.release();
-                    break;
-                }
+            // 记录TTS生成时间
+            task.sentence.setTtsGenerationTime((System.currentTimeMillis() - ttsStartTime) / 1000.0);
 
-                // 使用虚拟线程执行任务
-                Thread.startVirtualThread(() -> {
-                    try {
-                        executeTtsTask(task);
-                    } finally {
-                        semaphore.release();
-                        // 任务完成后，继续处理队列
-                        processTtsTaskQueue(sessionId);
-                    }
-                });
-            }
-        });
+            // 成功生成音频
+            handleTtsSuccess(task, audioPath);
+        } catch (TimeoutException e) {
+            // logger.warn("TTS生成超时 - 序号: {}, 重试次数: {}/{}, 内容: \"{}\"",
+            //         task.sentence.getSeq(), task.retryCount, MAX_RETRY_COUNT, task.sentence.getText());
+            handleTtsFailure(task, "超时");
+        } catch (Exception e) {
+            // logger.error("TTS生成失败 - 序号: {}, 重试次数: {}/{}, 错误: {}",
+            //         task.sentence.getSeq(), task.retryCount, MAX_RETRY_COUNT, e.getMessage());
+            handleTtsFailure(task, e.getMessage());
+        }
     }
 
     /**
-     * 执行TTS任务（带超时和重试）
+     * 执行流式TTS任务
+     * 收到首帧即标记句子就绪，音频边合成边编码边播放；超时只针对首帧，首帧前失败按普通失败重试。
      */
-    private void executeTtsTask(TtsTask task) {
-        CompletableFuture<String> future = CompletableFuture.supplyAsync(() -> {
+    private void executeStreamTtsTask(TtsTask task, TtsService ttsService) {
+        // 短语缓存命中时按文件播放，使用Opus帧缓存，不再解码和编码
+        String cached = ttsService.cachedAudio(task.emoSentence.getTtsSentence());
+        if (cached != null) {
+            task.sentence.setTtsGenerationTime(0);
+            handleTtsSuccess(task, cached);
+            return;
+        }
+
+        StreamingAudio stream = audioService.newStreamingAudio();
+        long ttsStartTime = System.currentTimeMillis();
+        activeStreams.computeIfAbsent(task.sessionId, k -> ConcurrentHashMap.newKeySet()).add(stream);
+
+        // 放弃合成时中断合成线程，写入也会抛出取消异常，服务商据此停止合成
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        CompletableFuture<Void> synthesis = CompletableFuture.runAsync(() -> {
+            worker.set(Thread.currentThread());
             try {
-                long ttsStartTime = System.currentTimeMillis();
-                String audioPath = ttsFactory.getTtsService(task.ttsConfig, task.voiceName)
-                        .textToSpeech(task.emoSentence.getTtsSentence());
-                long ttsDuration = System.currentTimeMillis() - ttsStartTime;
-
-                // 记录TTS生成时间
-                task.sentence.setTtsGenerationTime(ttsDuration / 1000.0);
-                return audioPath;
+                if (!stream.aborted().isDone()) {
+                    ttsService.streamTextToSpeech(task.emoSentence.getTtsSentence(), stream::write);
+                }
             } catch (Exception e) {
                 throw new CompletionException(e);
+            } finally {
+                worker.set(null);
             }
         }, Thread::startVirtualThread);
+        stream.aborted().thenRun(() -> {
+            Thread thread = worker.get();
+            if (thread != null) {
+                thread.interrupt();
+            }
+        });
+        synthesis.whenComplete((v, error) -> {
+            activeStreams.computeIfPresent(task.sessionId, (k, streams) -> {
+                streams.remove(stream);
+                return streams.isEmpty() ? null : streams;
+            });
+            if (error == null) {
+                stream.complete();
+            } else {
+                stream.fail(error.getCause() != null ? error.getCause() : error);
+            }
+        });
 
+        long startNanos = System.nanoTime();
+        CompletableFuture<String> hedge = null;
         try {
             // 耗时操作需及时更新最后活动时间，避免误判为会话终止
             sessionManager.updateLastActivity(task.getSessionId());
 
-            // 设置超时
-            String audioPath = future.get(TTS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-
-            // 成功生成音频
-            handleTtsSuccess(task, audioPath);
+            // 等待首帧或合成结束，超过对冲阈值仍没有首帧时同时请求备用服务
+            hedge = awaitFirstFrame(task, stream, synthesis);
+            if (stream.hasAudio()) {
+                ttsHedger.recordLatency(task.ttsConfig, startNanos);
+                if (hedge != null) {
+                    ttsHedger.discardLoser(hedge, null);
+                }
+            } else if (hedge != null && hedge.isDone() && !hedge.isCompletedExceptionally() && hedge.join() != null) {
+                // 备用服务先返回，放弃主服务商的流
+                stream.abort();
+                ttsHedger.recordLatency(task.ttsConfig, startNanos);
+                ttsHedger.recordFallbackWin();
+                task.sentence.setTtsGenerationTime((System.currentTimeMillis() - ttsStartTime) / 1000.0);
+                handleTtsSuccess(task, hedge.join());
+                return;
+            } else {
+                stream.abort();
+                // 合成出错时抛出原始异常，否则视为没有返回音频
+                synthesis.getNow(null);
+                handleTtsFailure(task, "未返回音频");
+                return;
+            }
         } catch (TimeoutException e) {
-            // logger.warn("TTS生成超时 - 序号: {}, 重试次数: {}/{}, 内容: \"{}\"",
-            //         task.sentence.getSeq(), task.retryCount, MAX_RETRY_COUNT, task.sentence.getText());
+            stream.abort();
+            if (hedge != null) {
+                ttsHedger.discardLoser(hedge, null);
+            }
             handleTtsFailure(task, "超时");
+            return;
         } catch (Exception e) {
-            // logger.error("TTS生成失败 - 序号: {}, 重试次数: {}/{}, 错误: {}",
-            //         task.sentence.getSeq(), task.retryCount, MAX_RETRY_COUNT, e.getMessage());
+            stream.abort();
+            if (hedge != null) {
+                ttsHedger.discardLoser(hedge, null);
+            }
             handleTtsFailure(task, e.getMessage());
+            return;
+        }
+
+        // 记录首帧延迟作为TTS生成时间
+        task.sentence.setTtsGenerationTime((System.currentTimeMillis() - ttsStartTime) / 1000.0);
+        task.sentence.setStream(stream);
+
+        // 历史文件在合成结束后异步写入，合并音频前需要等待
+        Long assistantTimeMillis = task.sentence.getAssistantTimeMillis();
+        if (assistantTimeMillis != null) {
+            int seq = task.sentence.getSeq();
+            Sentence sentence = task.sentence;
+            CompletableFuture<String> write = stream.saved().thenApply(path -> {
+                synchronized (sentence) {
+                    if (path != null && !sentence.isDiscarded()) {
+                        dialogueAudioPaths.computeIfAbsent(assistantTimeMillis, k -> new ConcurrentHashMap<>())
+                                .put(seq, path);
+                    }
+                }
+                return path;
+            });
+            pendingAudioWrites.computeIfAbsent(assistantTimeMillis, k -> new CopyOnWriteArrayList<>()).add(write);
+        }
+
+        handleTtsSuccess(task, null);
+
+        // 合成结束前一直占用调度许可，避免流式合成超出服务商并发限制；放弃合成时立即归还
+        try {
+            CompletableFuture.anyOf(synthesis.handle((v, error) -> null), stream.aborted())
+                    .get(TTS_TIMEOUT_MS * 3, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            logger.warn("流式合成未在限定时间内结束 - 序号: {}", task.sentence.getSeq());
         }
     }
 
+    /**
+     * 等待流式合成的首帧或合成结束
+     * 需要对冲时，超过阈值仍没有首帧就把同一句发给备用服务，之后等到首帧、备用服务成功或两边都结束
+     *
+     * @return 备用服务的合成结果，没有对冲时为null
+     */
+    private CompletableFuture<String> awaitFirstFrame(TtsTask task, StreamingAudio stream,
+            CompletableFuture<Void> synthesis) throws Exception {
+        CompletableFuture<Object> firstAudio = CompletableFuture.anyOf(stream.firstFrame(), synthesis);
+        long startTime = System.currentTimeMillis();
+        TtsService fallback = ttsHedger.shouldHedge(task.isFirst) ? ttsHedger.fallbackService(task.ttsConfig) : null;
+        if (fallback == null) {
+            firstAudio.get(TTS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return null;
+        }
+
+        long delayMs = Math.min(ttsHedger.hedgeDelayMs(task.ttsConfig), TTS_TIMEOUT_MS);
+        try {
+            firstAudio.get(delayMs, TimeUnit.MILLISECONDS);
+            return null;
+        } catch (TimeoutException e) {
+            logger.info("TTS对冲 - 流式合成超过 {}ms 没有首帧，转发备用服务 - 序号: {}", delayMs, task.sentence.getSeq());
+        }
+
+        CompletableFuture<String> hedge = ttsHedger.hedge(fallback, task.emoSentence.getTtsSentence());
+        CompletableFuture<Void> settled = new CompletableFuture<>();
+        stream.firstFrame().whenComplete((v, error) -> {
+            if (stream.hasAudio() || hedge.isDone()) {
+                settled.complete(null);
+            }
+        });
+        hedge.whenComplete((path, error) -> {
+            if ((error == null && path != null) || stream.firstFrame().isDone()) {
+                settled.complete(null);
+            }
+        });
+        long remaining = TTS_TIMEOUT_MS - (System.currentTimeMillis() - startTime);
+        try {
+            settled.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            ttsHedger.discardLoser(hedge, null);
+            throw e;
+        }
+        return hedge;
+    }
+
     /**
      * 处理TTS成功
      */
     private void handleTtsSuccess(TtsTask task, String audioPath) {
+        // 推测的前缀已被放弃
+        if (task.sentence.isDiscarded()) {
+            if (task.sentence.getStream() != null) {
+                task.sentence.getStream().abort();
+            }
+            return;
+        }
+
         // 记录心情
         task.sentence.setMoods(task.emoSentence.getMoods());
 
@@ -693,13 +1196,19 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                 df.format(task.sentence.getTtsGenerationTime()),
                 task.sentence.getText());
 
-        // 标记音频准备就绪
-        task.sentence.setAudio(audioPath);
+        // 标记音频准备就绪，流式句子在收到首帧时已就绪
+        if (task.sentence.getStream() == null) {
+            task.sentence.setAudio(audioPath);
+        }
 
         // 如果有对话ID，将音频路径添加到对应的映射中
         if (task.sentence.getAssistantTimeMillis() != null && audioPath != null) {
-            dialogueAudioPaths.computeIfAbsent(task.sentence.getAssistantTimeMillis(), k -> new ConcurrentHashMap<>())
-                    .put(task.sentence.getSeq(), audioPath);
+            synchronized (task.sentence) {
+                if (!task.sentence.isDiscarded()) {
+                    dialogueAudioPaths.computeIfAbsent(task.sentence.getAssistantTimeMillis(), k -> new ConcurrentHashMap<>())
+                            .put(task.sentence.getSeq(), audioPath);
+                }
+            }
         }
 
         // 如果是首句，需要标记首句处理完成
@@ -722,6 +1231,10 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
      * 处理TTS失败
      */
     private void handleTtsFailure(TtsTask task, String reason) {
+        // 推测的前缀已被放弃，不再重试
+        if (task.sentence.isDiscarded()) {
+            return;
+        }
         task.retryCount++;
     
         // 耗时操作需及时更新最后活动时间，避免服务端误判为会话终止
@@ -824,85 +1337,61 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
 
     /**
      * 处理音频队列
-     * 在流式处理完成后或非首句音频生成完成后调用
+     * 在流式处理完成后或非首句音频生成完成后调用。可以从任意线程并发调用，
+     * 出队由句子缓冲串行化，句子严格按序号追加到连续播放队列。
      */
     private void processQueue(ChatSession session, String sessionId) {
-        // 获取锁，确保线程安全
-        ReentrantLock lock = locks.get(sessionId);
-        if (lock == null) {
+        // 获取句子缓冲
+        ReorderBuffer<Sentence> buffer = sentenceBuffers.get(sessionId);
+        if (buffer == null) {
             return;
         }
 
-        // 尝试获取锁，避免多线程同时处理
-        if (!lock.tryLock()) {
+        // 检查首句是否已经流式处理完成
+        AtomicBoolean firstDone = firstSentDone.get(sessionId);
+        if (firstDone == null || !firstDone.get()) {
+            // 首句尚未处理完成，等待
             return;
         }
 
-        try {
-            // 获取句子队列
-            CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-            if (queue == null || queue.isEmpty()) {
-                return;
-            }
-
-            // 检查首句是否已经流式处理完成
-            AtomicBoolean firstDone = firstSentDone.get(sessionId);
-            if (firstDone == null || !firstDone.get()) {
-                // 首句尚未处理完成，等待
-                return;
-            }
-
-            // 检查当前是否有句子正在播放
-            boolean isCurrentlyPlaying = audioService.isPlaying(sessionId);
-
-            // 如果当前正在播放，不处理下一个句子
-            if (isCurrentlyPlaying) {
+        // 按序号把已就绪（或超时）的句子依次追加到连续播放队列，下一句在当前句播完前就已排队
+        buffer.drain(sentence -> sentence.isReady() || sentence.isTimeout() || sentence.isDiscarded(), nextSentence -> {
+            // 放弃的推测句子只占位，不播放
+            if (nextSentence.isDiscarded()) {
                 return;
             }
+            try {
+                // 如果句子超时但未准备好，标记为准备好但没有音频
+                if (nextSentence.isTimeout() && !nextSentence.isReady()) {
+                    nextSentence.setAudio(null);
+                }
 
-            // 找出最小序号
-            int minSeq = queue.stream()
-                    .mapToInt(Sentence::getSeq)
-                    .min()
-                    .orElse(Integer.MAX_VALUE);
-
-            // 找出该序号的句子
-            Sentence nextSentence = queue.stream()
-                    .filter(s -> s.getSeq() == minSeq)
-                    .findFirst()
-                    .orElse(null);
-
-            if (nextSentence != null) {
-                // 检查句子是否准备好或超时
-                if (nextSentence.isReady() || nextSentence.isTimeout()) {
-                    // 如果句子超时但未准备好，标记为准备好但没有音频
-                    if (nextSentence.isTimeout() && !nextSentence.isReady()) {
-                        nextSentence.setAudio(null);
-                    }
+                // 发送到客户端
+                audioService.sendAudioMessage(
+                        session,
+                        nextSentence,
+                        false, // 不是开始消息
+                        nextSentence.isLast() // 如果是最后一句，则是结束消息
+                ).thenRunAsync(() -> {
+                    // 在播放完成后再处理一次，兜底处理期间超时的句子；不占用帧发送线程
+                    processQueue(session, sessionId);
+                }, Thread::startVirtualThread);
 
-                    // 从队列中移除已处理的句子
-                    queue.remove(nextSentence);
-
-                    // 发送到客户端
-                    audioService.sendAudioMessage(
-                            session,
-                            nextSentence,
-                            false, // 不是开始消息
-                            nextSentence.isLast() // 如果是最后一句，则是结束消息
-                    ).thenRun(() -> {
-                        // 在播放完成后，递归调用处理下一个句子
-                        processQueue(session, sessionId);
-                    });
-                }
-                //logger.info("是否最后一个句子{}, 对话ID: {}",nextSentence.isLast, nextSentence.assistantTimeMillis);
                 // 如果是最后一个句子，合并并存储助手的完整音频
                 if (nextSentence.isLast() && nextSentence.getAssistantTimeMillis() != null) {
-                    saveAssistantResponse(session);
+                    List<CompletableFuture<String>> writes = pendingAudioWrites.remove(nextSentence.getAssistantTimeMillis());
+                    if (writes == null || writes.isEmpty()) {
+                        saveAssistantResponse(session);
+                    } else {
+                        // 等流式合成的音频文件写完再合并
+                        CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]))
+                                .whenComplete((v, error) -> saveAssistantResponse(session));
+                    }
                 }
+            } catch (Exception e) {
+                logger.error("句子出队播放失败 - 序号: {}, 错误: {}", nextSentence.getSeq(), e.getMessage(), e);
             }
-        } finally {
-            lock.unlock();
-        }
+        });
     }
 
     /**
@@ -920,13 +1409,7 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             handleText(session, text, timeMillis -> {
                 // 使用句子切分处理流式响应
                 chatService.chatStreamBySentence(session, text, false,
-                        (sentence, isFirst, isLast) -> {
-                            handleSentence(
-                                    session,
-                                    sentence,
-                                    isFirst,
-                                    isLast);
-                        });
+                        sentenceHandler(session), prefixHandler(session));
             });
         } catch (Exception e) {
             logger.error("处理唤醒词失败: {}", e.getMessage(), e);
@@ -975,13 +1458,7 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                     logger.info("处理聊天文字输入: \"{}\"", inputText);
                     // 使用句子切分处理流式响应
                     chatService.chatStreamBySentence(session, inputText, true,
-                            (sentence, isFirst, isLast) -> {
-                                handleSentence(
-                                        session,
-                                        sentence,
-                                        isFirst,
-                                        isLast);
-                            });
+                            sentenceHandler(session), prefixHandler(session));
                 }
             } catch (Exception e) {
                 logger.error("处理唤醒词失败: {}", e.getMessage(), e);
@@ -1007,11 +1484,9 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                     huiBenService.stopHuiBen(sessionId);
                     return;
                 }
-                // 清空句子队列
-                CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-                if (queue != null) {
-                    queue.clear();
-                }
+                // 清空句子缓冲
+                discardSpeculation(sessionId);
+                clearSentences(sessionId);
 
                 // 重置首句处理状态
                 AtomicBoolean firstDone = firstSentDone.get(sessionId);
@@ -1034,16 +1509,24 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
         seqCounters.remove(sessionId);
         sttStartTimes.remove(sessionId);
         llmStartTimes.remove(sessionId);
-        sentenceQueue.remove(sessionId);
+        sentenceBuffers.remove(sessionId);
         firstSentDone.remove(sessionId);
-        locks.remove(sessionId);
-
-        // 新增：清理并发控制相关资源
-        sessionSemaphores.remove(sessionId);
-        PriorityBlockingQueue<TtsTask> taskQueue = sessionTaskQueues.remove(sessionId);
-        if (taskQueue != null) {
-            taskQueue.clear();
+        speculations.remove(sessionId);
+        utteranceTexts.remove(sessionId);
+        chatService.clearPrewarm(sessionId);
+        dialogueTurns.remove(sessionId);
+        SentenceBatcher batcher = sentenceBatchers.remove(sessionId);
+        if (batcher != null) {
+            batcher.cancel();
         }
+        Disposable stream = llmStreams.remove(sessionId);
+        if (stream != null) {
+            stream.dispose();
+        }
+
+        // 丢弃尚未执行的TTS任务，中断正在进行的流式合成
+        ttsScheduler.cancelSession(sessionId);
+        abortStreams(sessionId);
 
         // 清理AudioService中的资源
         audioService.cleanupSession(sessionId);
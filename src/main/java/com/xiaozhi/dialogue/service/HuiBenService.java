@@ -3,7 +3,9 @@ package com.xiaozhi.dialogue.service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.communication.common.SessionManager;
+import com.xiaozhi.dialogue.playout.FramePacer;
 import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.utils.OpusFrameCache;
 import com.xiaozhi.utils.OpusProcessor;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -45,16 +47,17 @@ public class HuiBenService {
     @Autowired
     private OpusProcessor opusProcessor;
 
+    @Autowired
+    private OpusFrameCache opusFrameCache;
+
     @Autowired
     private SessionManager sessionManager;
 
     @Autowired
     private AudioService audioService;
 
-    // 使用虚拟线程执行器处理定时任务
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
-            Runtime.getRuntime().availableProcessors(),
-            Thread.ofVirtual().name("huiBen-scheduler-", 0).factory());
+    @Autowired
+    private FramePacer framePacer;
 
     // 存储每个会话的当前文本信息
     private final Map<String, List<TextLine>> sessionTexts = new ConcurrentHashMap<>();
@@ -65,9 +68,6 @@ public class HuiBenService {
     // 存储每个会话的音频文件路径，用于播放完成后删除
     private final Map<String, String> sessionAudioFiles = new ConcurrentHashMap<>();
 
-    // 存储每个会话的调度任务
-    private final Map<String, ScheduledFuture<?>> scheduledTasks = new ConcurrentHashMap<>();
-
     /**
      * 文本行数据结构 - 使用JDK 16+ Record类型
      */
@@ -163,15 +163,15 @@ public class HuiBenService {
                 return;
             }
 
-            // 将音频文件转换为PCM格式
-            byte[] audioData = AudioUtils.readAsPcm(audioPath);
-            if (audioData == null || audioData.length == 0) {
-                logger.warn("音频数据为空");
-                return;
-            }
-
-            // 将PCM转换为Opus帧
-            List<byte[]> frames = opusProcessor.pcmToOpus(sessionId, audioData, false);
+            // 将音频文件转换为Opus帧，按文件内容缓存转码结果
+            List<byte[]> frames = opusFrameCache.getOrLoad(audioFilePath.toFile(), () -> {
+                byte[] audioData = AudioUtils.readAsPcm(audioPath);
+                if (audioData == null || audioData.length == 0) {
+                    logger.warn("音频数据为空");
+                    return List.of();
+                }
+                return opusProcessor.pcmToOpus(sessionId, audioData, false);
+            });
             if (frames == null || frames.isEmpty()) {
                 logger.warn("Opus帧转换失败或为空");
                 return;
@@ -191,57 +191,28 @@ public class HuiBenService {
                 }
             }
 
-            // 创建帧发送任务，使用原子引用替代数组
-            AtomicLong frameIndexRef = new AtomicLong(0);
-            Runnable frameTask = () -> {
-                try {
-                    if (scheduledTasks.get(sessionId) == null) {
-                        logger.error("{}任务已经终止", sessionId);
-
-                        return;
-                    }
-                    int currentIndex = (int) frameIndexRef.get();
-                    if (currentIndex >= frames.size()) {
-                        // 所有帧已发送，取消任务
-                        audioService.cancelScheduledTask(sessionId);
-                        return;
-                    }
-
-                    // 更新活跃时间
-                    sessionManager.updateLastActivity(sessionId);
-
-                    // 更新当前播放时间
-                    currPlayTime.set(currentIndex * OPUS_FRAME_INTERVAL_MS);
-
-                    // 先检查是否有对应这一帧的文本需要发送
-                    String textContent = textFrameMap.get(currentIndex);
-                    if (textContent != null) {
-                        audioService.sendSentenceStart(session, textContent);
-                    }
-
-                    // 发送当前帧
-                    byte[] frame = frames.get(currentIndex);
-                    audioService.sendOpusFrame(session, frame);
-
-                    // 增加帧索引
-                    frameIndexRef.incrementAndGet();
-
-                } catch (Exception e) {
-                    // 发生错误，取消调度任务
-                    logger.error("发送音频帧时发生错误", e);
-                    audioService.cancelScheduledTask(sessionId);
+            // 由全局节拍器按帧间隔发送，帧序号即播放位置
+            framePacer.start(playoutKey(sessionId), System.nanoTime(), 0, frameIndex -> {
+                int currentIndex = (int) frameIndex;
+
+                // 更新活跃时间
+                sessionManager.updateLastActivity(sessionId);
+
+                // 更新当前播放时间
+                currPlayTime.set(currentIndex * OPUS_FRAME_INTERVAL_MS);
+
+                // 先检查是否有对应这一帧的文本需要发送
+                String textContent = textFrameMap.get(currentIndex);
+                if (textContent != null) {
+                    audioService.sendSentenceStart(session, textContent);
                 }
-            };
 
-            // 启动定时任务，每隔OPUS_FRAME_INTERVAL_MS毫秒执行一次
-            ScheduledFuture<?> task = scheduler.scheduleAtFixedRate(
-                    frameTask,
-                    0,
-                    OPUS_FRAME_INTERVAL_MS,
-                    TimeUnit.MILLISECONDS);
+                // 发送当前帧
+                audioService.sendOpusFrame(session, frames.get(currentIndex));
 
-            // 存储任务引用，以便稍后取消
-            scheduledTasks.put(sessionId, task);
+                // 所有帧已发送后结束
+                return currentIndex + 1 < frames.size();
+            });
         } catch (Exception e) {
             logger.error("处理音频时发生错误 - SessionId: {}", sessionId, e);
             try {
@@ -340,6 +311,13 @@ public class HuiBenService {
         }
     }
 
+    /**
+     * 节拍器中的播放任务键，与对话语音的播放任务互不影响
+     */
+    private static String playoutKey(String sessionId) {
+        return "huiben-" + sessionId;
+    }
+
     /**
      * 停止播放绘本
      * 
@@ -348,10 +326,8 @@ public class HuiBenService {
     public void stopHuiBen(String sessionId) {
         Thread.startVirtualThread(() -> {
             try {
-                ScheduledFuture<?> task = scheduledTasks.remove(sessionId);
-                if (task != null) {
-                    task.cancel(true); // 取消任务
-                }
+                // 取消播放任务
+                framePacer.cancel(playoutKey(sessionId));
 
                 // 清理音频文件
                 cleanupAudioFile(sessionId);
@@ -7,6 +7,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -111,6 +112,15 @@ public class MessageService {
     }
 
 
+    public void sendBinaryMessage(ChatSession chatSession, ByteBuffer opusFrame) {
+        try {
+            chatSession.sendBinaryMessage(opusFrame);
+        } catch (Exception e) {
+            logger.error("发送消息时发生异常 - SessionId: {}, Error: {}", chatSession.getSessionId(), e.getMessage());
+            throw new RuntimeException("发送音频消息失败, 消息内容", e);
+        }
+    }
+
     public void sendBinaryMessage(ChatSession chatSession, byte[] opusFrame){
         try {
             chatSession.sendBinaryMessage(opusFrame);
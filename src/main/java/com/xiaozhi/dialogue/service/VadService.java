@@ -1,38 +1,53 @@
 package com.xiaozhi.dialogue.service;
 
 import com.xiaozhi.communication.common.SessionManager;
+import com.xiaozhi.dialogue.vad.FloatRingBuffer;
+import com.xiaozhi.dialogue.vad.SessionMailbox;
+import com.xiaozhi.dialogue.vad.VadConfig;
+import com.xiaozhi.dialogue.vad.VadModel;
+import com.xiaozhi.dialogue.vad.VadModelState;
+import com.xiaozhi.dialogue.vad.impl.BatchedVadModel;
 import com.xiaozhi.dialogue.vad.impl.SileroVadModel;
 import com.xiaozhi.entity.SysDevice;
-import com.xiaozhi.entity.SysRole;
+import com.xiaozhi.event.RoleUpdatedEvent;
 import com.xiaozhi.service.SysRoleService;
 import com.xiaozhi.utils.OpusProcessor;
+import com.xiaozhi.utils.OpusSession;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * 语音活动检测服务
+ * 每个会话的帧通过SessionMailbox串行处理，VAD阈值使用会话初始化时编译好的VadConfig快照
  */
 @Service
-public class VadService {
+public class VadService implements ApplicationListener<RoleUpdatedEvent> {
     private static final Logger logger = LoggerFactory.getLogger(VadService.class);
     
     // 会话状态
     private final ConcurrentHashMap<String, VadState> states = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
     
     @Value("${vad.prebuffer.ms:200}")
     private int preBufferMs;
+
+    // 提前结束识别：静音超过尾部时长即结束识别流，完整的静音超时仍用于确认说话人是否说完
+    @Value("${vad.early-end.enabled:false}")
+    private boolean earlyEndEnabled;
+
+    @Value("${vad.early-end.tail-ms:300}")
+    private int earlyEndTailMs;
     
     // 每10帧输出一次VAD状态
     private static final int LOG_FRAME_INTERVAL = 10;
@@ -47,7 +62,13 @@ public class VadService {
     private OpusProcessor opusProcessor;
 
     @Autowired
-    private SileroVadModel vadModel;
+    private SileroVadModel sileroVadModel;
+
+    @Autowired
+    private BatchedVadModel batchedVadModel;
+
+    // 实际使用的VAD模型，开启批量推理时使用BatchedVadModel
+    private VadModel vadModel;
     
     @Autowired
     private SysRoleService roleService;
@@ -55,56 +76,116 @@ public class VadService {
     @Autowired
     private SessionManager sessionManager;
 
+    @PostConstruct
+    public void init() {
+        vadModel = batchedVadModel.isEnabled() ? batchedVadModel : sileroVadModel;
+    }
+
     @PreDestroy
     public void cleanup() {
         logger.info("VAD服务资源已释放");
         states.clear();
-        locks.clear();
+    }
+
+    @Override
+    public void onApplicationEvent(RoleUpdatedEvent event) {
+        // 角色配置变更后，刷新使用该角色的会话的VAD配置快照
+        Integer roleId = event.getRoleId();
+        VadConfig config = null;
+        for (VadState state : states.values()) {
+            if (roleId != null && roleId.equals(state.config.roleId())) {
+                if (config == null) {
+                    config = buildConfig(roleId);
+                }
+                state.config = config;
+            }
+        }
     }
 
     /**
      * 简化的会话状态类
      */
     private class VadState {
+        // 串行处理本会话任务的邮箱
+        private final SessionMailbox mailbox = new SessionMailbox();
+
+        // VAD配置快照
+        private volatile VadConfig config = VadConfig.DEFAULT;
+
+        // 会话已释放
+        private volatile boolean closed = false;
+
         // 语音状态
-        private boolean speaking = false;
+        private volatile boolean speaking = false;
+        // 已提前结束识别，等待静音超时确认
+        private boolean paused = false;
         private long speechTime = 0;
         private long silenceTime = 0;
 
         // 音频分析
         private float avgEnergy = 0;
-        private final List<Float> probs = new ArrayList<>();
+        private final FloatRingBuffer probs = new FloatRingBuffer(10);
         
         // 原始VAD概率列表
-        private final List<Float> originalProbs = new ArrayList<>();
+        private final FloatRingBuffer originalProbs = new FloatRingBuffer(10);
+        // 最近一次原始概率，供其他线程无锁读取
+        private volatile float lastOriginalProb = 0.0f;
         
         // 帧计数器（用于每10帧输出一次）
-        private int frameCounter = 0;
+        private volatile int frameCounter = 0;
 
-        // 预缓冲
-        private final LinkedList<byte[]> preBuffer = new LinkedList<>();
+        // 预缓冲，固定大小的环形字节缓冲，只保留最近maxPreBufferSize字节
+        private final byte[] preBuffer;
+        private int preBufferStart = 0;
         private int preBufferSize = 0;
         private final int maxPreBufferSize;
+        // 解码结果转成PCM字节的复用缓冲区，需要保留的帧再复制出来
+        private byte[] pcmScratch = new byte[VAD_SAMPLE_SIZE * 8];
 
         // 音频数据
-        private final List<byte[]> pcmData = new ArrayList<>();
-        private final List<byte[]> opusData = new ArrayList<>();
+        private final ConcurrentLinkedQueue<byte[]> pcmData = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<byte[]> opusData = new ConcurrentLinkedQueue<>();
 
         // 短帧累积
         private final ByteArrayOutputStream pcmAccumulator = new ByteArrayOutputStream();
         private long lastAccumTime = 0;
 
-        public VadState() {
+        // 会话独立的模型推理状态
+        private final VadModelState modelState = vadModel.createState();
+
+        // 复用的样本缓冲区，避免每帧分配
+        private float[] sampleBuffer = new float[VAD_SAMPLE_SIZE * 4];
+        private final float[] window = new float[VAD_SAMPLE_SIZE];
+
+        private final String sessionId;
+        // 会话的Opus句柄，解码时直接使用其中的解码器；句柄被关闭后重新获取
+        private OpusSession opusSession;
+
+        public VadState(String sessionId) {
+            this.sessionId = sessionId;
+            this.opusSession = opusProcessor.getSession(sessionId);
             this.maxPreBufferSize = preBufferMs * 32; // 16kHz, 16bit, mono = 32 bytes/ms
+            this.preBuffer = new byte[maxPreBufferSize];
             this.lastAccumTime = System.currentTimeMillis();
         }
 
+        /**
+         * 获取会话的Opus句柄，句柄已被OpusProcessor清理时重新获取，不再使用已归还的解码器
+         */
+        public OpusSession getOpusSession() {
+            if (opusSession.isClosed()) {
+                opusSession = opusProcessor.getSession(sessionId);
+            }
+            return opusSession;
+        }
+
         public boolean isSpeaking() {
             return speaking;
         }
 
         public void setSpeaking(boolean speaking) {
             this.speaking = speaking;
+            this.paused = false;
             if (speaking) {
                 speechTime = System.currentTimeMillis();
                 silenceTime = 0;
@@ -137,31 +218,26 @@ public class VadService {
 
         public void addProb(float prob) {
             probs.add(prob);
-            if (probs.size() > 10) {
-                probs.remove(0);
-            }
         }
         
         // 添加原始VAD概率
         public void addOriginalProb(float prob) {
             originalProbs.add(prob);
-            if (originalProbs.size() > 10) {
-                originalProbs.remove(0);
-            }
+            lastOriginalProb = prob;
             
             // 增加帧计数器
             frameCounter++;
         }
         
         public float getLastOriginalProb() {
-            return originalProbs.isEmpty() ? 0.0f : originalProbs.get(originalProbs.size() - 1);
+            return lastOriginalProb;
         }
 
         public float getLastProb() {
-            return probs.isEmpty() ? 0.0f : probs.get(probs.size() - 1);
+            return probs.last(0.0f);
         }
 
-        public List<Float> getProbs() {
+        public FloatRingBuffer getProbs() {
             return probs;
         }
         
@@ -169,44 +245,78 @@ public class VadService {
             return frameCounter;
         }
 
-        // 预缓冲区管理
-        public void addToPreBuffer(byte[] data) {
-            if (speaking) {
-                return;
+        public VadModelState getModelState() {
+            return modelState;
+        }
+
+        /**
+         * 获取至少能容纳sampleCount个样本的复用缓冲区
+         */
+        public float[] getSampleBuffer(int sampleCount) {
+            if (sampleBuffer.length < sampleCount) {
+                sampleBuffer = new float[sampleCount];
             }
+            return sampleBuffer;
+        }
 
-            preBuffer.add(data.clone());
-            preBufferSize += data.length;
+        public float[] getWindow() {
+            return window;
+        }
+
+        /**
+         * 获取至少能容纳length字节的复用PCM缓冲区
+         */
+        public byte[] getPcmScratch(int length) {
+            if (pcmScratch.length < length) {
+                pcmScratch = new byte[length];
+            }
+            return pcmScratch;
+        }
 
-            while (preBufferSize > maxPreBufferSize && !preBuffer.isEmpty()) {
-                byte[] removed = preBuffer.removeFirst();
-                preBufferSize -= removed.length;
+        // 预缓冲区管理，数据复制进环形缓冲，调用方可以复用data
+        public void addToPreBuffer(byte[] data, int length) {
+            int capacity = preBuffer.length;
+            if (speaking || capacity == 0) {
+                return;
+            }
+            // 超过容量时只保留最后capacity字节
+            int offset = Math.max(0, length - capacity);
+            int count = length - offset;
+            int end = (preBufferStart + preBufferSize) % capacity;
+            int first = Math.min(count, capacity - end);
+            System.arraycopy(data, offset, preBuffer, end, first);
+            System.arraycopy(data, offset + first, preBuffer, 0, count - first);
+
+            int overflow = preBufferSize + count - capacity;
+            if (overflow > 0) {
+                // 丢弃最旧的数据
+                preBufferStart = (preBufferStart + overflow) % capacity;
+                preBufferSize = capacity;
+            } else {
+                preBufferSize += count;
             }
         }
 
         public byte[] drainPreBuffer() {
-            if (preBuffer.isEmpty()) {
+            if (preBufferSize == 0) {
                 return new byte[0];
             }
 
             byte[] result = new byte[preBufferSize];
-            int offset = 0;
-
-            for (byte[] chunk : preBuffer) {
-                System.arraycopy(chunk, 0, result, offset, chunk.length);
-                offset += chunk.length;
-            }
+            int first = Math.min(preBufferSize, preBuffer.length - preBufferStart);
+            System.arraycopy(preBuffer, preBufferStart, result, 0, first);
+            System.arraycopy(preBuffer, 0, result, first, preBufferSize - first);
 
-            preBuffer.clear();
+            preBufferStart = 0;
             preBufferSize = 0;
             return result;
         }
 
         // 累积缓冲区管理
-        public void accumulate(byte[] pcm) {
-            if (pcm != null && pcm.length > 0) {
+        public void accumulate(byte[] pcm, int length) {
+            if (pcm != null && length > 0) {
                 try {
-                    pcmAccumulator.write(pcm);
+                    pcmAccumulator.write(pcm, 0, length);
                     lastAccumTime = System.currentTimeMillis();
                 } catch (Exception e) {
                     logger.error("累积PCM数据失败", e);
@@ -228,16 +338,16 @@ public class VadService {
             return System.currentTimeMillis() - lastAccumTime > 300;
         }
 
-        // 音频数据管理
+        // 音频数据管理，保存的数组之后不再修改，无需复制
         public void addPcm(byte[] pcm) {
             if (pcm != null && pcm.length > 0) {
-                pcmData.add(pcm.clone());
+                pcmData.add(pcm);
             }
         }
 
         public void addOpus(byte[] opus) {
             if (opus != null && opus.length > 0) {
-                opusData.add(opus.clone());
+                opusData.add(opus);
             }
         }
 
@@ -245,24 +355,49 @@ public class VadService {
             return new ArrayList<>(pcmData);
         }
 
+        /**
+         * 最近收集的语音数据，不超过maxBytes
+         */
+        public byte[] getRecentPcm(int maxBytes) {
+            Deque<byte[]> recent = new ArrayDeque<>();
+            int size = 0;
+            for (byte[] frame : pcmData) {
+                recent.addLast(frame);
+                size += frame.length;
+                while (recent.size() > 1 && size - recent.peekFirst().length >= maxBytes) {
+                    size -= recent.removeFirst().length;
+                }
+            }
+            byte[] result = new byte[size];
+            int offset = 0;
+            for (byte[] frame : recent) {
+                System.arraycopy(frame, 0, result, offset, frame.length);
+                offset += frame.length;
+            }
+            return result;
+        }
+
         public List<byte[]> getOpusData() {
             return new ArrayList<>(opusData);
         }
 
         public void reset() {
             speaking = false;
+            paused = false;
             speechTime = 0;
             silenceTime = 0;
             avgEnergy = 0;
             probs.clear();
             originalProbs.clear(); // 重置原始概率列表
+            lastOriginalProb = 0.0f;
             frameCounter = 0;      // 重置帧计数器
-            preBuffer.clear();
+            preBufferStart = 0;
             preBufferSize = 0;
             pcmData.clear();
             opusData.clear();
             pcmAccumulator.reset();
             lastAccumTime = System.currentTimeMillis();
+            modelState.reset();
         }
     }
 
@@ -270,225 +405,262 @@ public class VadService {
      * 初始化会话
      */
     public void initSession(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
+        SysDevice device = sessionManager.getDeviceConfig(sessionId);
+        VadConfig config = buildConfig(device != null ? device.getRoleId() : null);
+
+        VadState state = states.get(sessionId);
+        if (state == null) {
+            VadState created = new VadState(sessionId);
+            state = states.putIfAbsent(sessionId, created);
             if (state == null) {
-                state = new VadState();
-                states.put(sessionId, state);
-            } else {
-                state.reset();
+                state = created;
             }
-            
-            logger.info("VAD会话已初始化: {}", sessionId);
+        } else {
+            VadState existing = state;
+            existing.mailbox.execute(existing::reset);
         }
+        state.config = config;
+
+        logger.info("VAD会话已初始化: {}", sessionId);
     }
 
     /**
      * 检查会话是否已初始化
      */
     public boolean isSessionInitialized(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            return states.containsKey(sessionId);
+        return states.containsKey(sessionId);
+    }
+
+    /**
+     * 根据角色构建VAD配置快照
+     */
+    private VadConfig buildConfig(Integer roleId) {
+        if (roleId == null) {
+            return VadConfig.DEFAULT;
         }
+        return VadConfig.of(roleService.selectRoleById(roleId));
     }
 
     /**
-     * 获取会话锁
+     * 获取会话的配置快照，设备切换了角色时重新构建
      */
-    private Object getLock(String sessionId) {
-        return locks.computeIfAbsent(sessionId, k -> new Object());
+    private VadConfig resolveConfig(String sessionId, VadState state) {
+        VadConfig config = state.config;
+        SysDevice device = sessionManager.getDeviceConfig(sessionId);
+        Integer roleId = device != null ? device.getRoleId() : null;
+        if (!Objects.equals(roleId, config.roleId())) {
+            config = buildConfig(roleId);
+            state.config = config;
+        }
+        return config;
     }
 
     /**
      * 处理音频数据
      */
     public VadResult processAudio(String sessionId, byte[] opusData) {
-
-        if (!isSessionInitialized(sessionId)) {
+        VadState state = states.get(sessionId);
+        if (state == null) {
             return null;
         }
 
-        Object lock = getLock(sessionId);
+        VadConfig config = resolveConfig(sessionId, state);
 
-        // 获取设备配置
-        SysDevice device = sessionManager.getDeviceConfig(sessionId);
-        // 添加空值检查，使用默认值
-        float speechThreshold = 0.4f;
-        float silenceThreshold = 0.2f;
-        float energyThreshold = 0.001f;
-        int silenceTimeoutMs = 1200;
+        // 同一会话的帧通过邮箱串行处理，无需加锁
+        return state.mailbox.call(() -> processFrame(sessionId, state, config, opusData));
+    }
 
-        if (device != null && device.getRoleId() != null) {
-            SysRole role = roleService.selectRoleById(device.getRoleId());
-            speechThreshold = Optional.ofNullable(role.getVadSpeechTh()).orElse(speechThreshold);
-            silenceThreshold = Optional.ofNullable(role.getVadSilenceTh()).orElse(silenceThreshold);
-            energyThreshold = Optional.ofNullable(role.getVadEnergyTh()).orElse(energyThreshold);
-            silenceTimeoutMs = Optional.ofNullable(role.getVadSilenceMs()).orElse(silenceTimeoutMs);
+    /**
+     * 处理单帧音频，只在会话邮箱中执行
+     */
+    private VadResult processFrame(String sessionId, VadState state, VadConfig config, byte[] opusData) {
+        if (state.closed) {
+            return new VadResult(VadStatus.NO_SPEECH, null);
         }
 
-        synchronized (lock) {
+        float speechThreshold = config.speechThreshold();
+        float silenceThreshold = config.silenceThreshold();
+        float energyThreshold = config.energyThreshold();
+        int silenceTimeoutMs = config.silenceTimeoutMs();
+
+        try {
+            // 保存原始Opus数据
+            state.addOpus(opusData);
+
+            // 解码Opus数据到会话复用的缓冲区
+            OpusSession opusSession = state.getOpusSession();
+            short[] pcmBuffer = opusSession.getPcmBuffer();
+            int sampleCount;
             try {
-                // 获取会话状态
-                VadState state = states.computeIfAbsent(sessionId, k -> new VadState());
+                sampleCount = opusProcessor.decode(opusSession, opusData, pcmBuffer, 0);
+                if (sampleCount == 0) {
+                    return new VadResult(VadStatus.NO_SPEECH, null);
+                }
+            } catch (Exception e) {
+                logger.error("Opus解码失败: {}", e.getMessage());
+                return new VadResult(VadStatus.ERROR, null);
+            }
+
+            // 分析音频，直接由解码结果转换，不经过字节数组
+            float[] samples = state.getSampleBuffer(sampleCount);
+            shortsToFloats(pcmBuffer, sampleCount, samples);
+            // 先转换到复用缓冲区，静音帧只进入预缓冲，不分配新数组
+            int pcmLength = sampleCount * 2;
+            byte[] pcmScratch = state.getPcmScratch(pcmLength);
+            shortsToBytes(pcmBuffer, sampleCount, pcmScratch);
+            byte[] pcmData = null;
+            float energy = calcEnergy(samples, sampleCount);
+            state.updateEnergy(energy);
+            
+            // 获取VAD概率并乘以10（部分设备收音效果不好，这是一个奇怪但是很有效的解决方法。。。）
+            float speechProb = detectSpeech(state, samples, sampleCount) * 10;
+            
+            // 限制概率范围在[0,1]
+            speechProb = Math.min(1.0f, speechProb);
+            
+            // 添加到原始概率列表
+            state.addOriginalProb(speechProb);
+            
+            // 添加到预缓冲区
+            state.addToPreBuffer(pcmScratch, pcmLength);
 
-                // 保存原始Opus数据
-                state.addOpus(opusData);
+            // 处理短帧数据
+            if (pcmLength < MIN_PCM_LENGTH && !state.isSpeaking()) {
+                state.accumulate(pcmScratch, pcmLength);
 
-                // 解码Opus数据
-                byte[] pcmData;
-                try {
-                    pcmData = opusProcessor.opusToPcm(sessionId, opusData);
-                    if (pcmData == null || pcmData.length == 0) {
-                        return new VadResult(VadStatus.NO_SPEECH, null);
-                    }
-                } catch (Exception e) {
-                    logger.error("Opus解码失败: {}", e.getMessage());
-                    return new VadResult(VadStatus.ERROR, null);
+                // 检查是否需要继续累积
+                if (state.getAccumSize() < MIN_PCM_LENGTH && !state.isAccumTimedOut()) {
+                    return new VadResult(VadStatus.NO_SPEECH, null);
                 }
 
-                // 分析音频
-                float[] samples = bytesToFloats(pcmData);
-                float energy = calcEnergy(samples);
-                state.updateEnergy(energy);
-                
-                // 获取VAD概率并乘以10（部分设备收音效果不好，这是一个奇怪但是很有效的解决方法。。。）
-                float speechProb = detectSpeech(samples) * 10;
+                // 处理累积的数据
+                pcmData = state.drainAccumulator();
+                if (pcmData.length == 0) {
+                    return new VadResult(VadStatus.NO_SPEECH, null);
+                }
                 
-                // 限制概率范围在[0,1]
+                // 重新分析累积后的音频
+                samples = state.getSampleBuffer(pcmData.length / 2);
+                sampleCount = bytesToFloats(pcmData, samples);
+                energy = calcEnergy(samples, sampleCount);
+                speechProb = detectSpeech(state, samples, sampleCount) * 10;
                 speechProb = Math.min(1.0f, speechProb);
+            }
+
+            // 每10帧输出一次VAD概率
+            /* if (state.getFrameCounter() % LOG_FRAME_INTERVAL == 0) {
+                 // 预先格式化浮点数
+                 String probStr = String.format("%.4f", speechProb);
+                 String energyStr = String.format("%.6f", energy);
+                 String thresholdStr = String.format("%.4f", speechThreshold);
+
+                 logger.info("VAD状态 - SessionId: {}, 帧: {}, 概率: {}, 能量: {}, 阈值: {}",
+                         sessionId, state.getFrameCounter(), probStr, energyStr, thresholdStr);
+            } */
+
+            // 判断语音状态
+            boolean hasEnergy = energy > state.getAvgEnergy() * 1.5 && energy > energyThreshold;
+            boolean isSpeech = speechProb > speechThreshold && hasEnergy;
+            boolean isSilence = speechProb < silenceThreshold;
+            state.updateSilence(isSilence);
+
+            // 语音片段需要保留的帧才复制出独立的数组
+            if (pcmData == null && (state.isSpeaking() || isSpeech)) {
+                pcmData = Arrays.copyOf(pcmScratch, pcmLength);
+            }
+
+            // 处理状态转换
+            if (!state.isSpeaking() && isSpeech) {
+                // 语音开始
+                state.pcmData.clear();
+                state.setSpeaking(true);
                 
-                // 添加到原始概率列表
-                state.addOriginalProb(speechProb);
-                
-                // 添加到预缓冲区
-                state.addToPreBuffer(pcmData);
-
-                // 处理短帧数据
-                if (pcmData.length < MIN_PCM_LENGTH && !state.isSpeaking()) {
-                    state.accumulate(pcmData);
-
-                    // 检查是否需要继续累积
-                    if (state.getAccumSize() < MIN_PCM_LENGTH && !state.isAccumTimedOut()) {
-                        return new VadResult(VadStatus.NO_SPEECH, null);
-                    }
-
-                    // 处理累积的数据
-                    pcmData = state.drainAccumulator();
-                    if (pcmData.length == 0) {
-                        return new VadResult(VadStatus.NO_SPEECH, null);
-                    }
-                    
-                    // 重新分析累积后的音频
-                    samples = bytesToFloats(pcmData);
-                    energy = calcEnergy(samples);
-                    speechProb = detectSpeech(samples) * 10;
-                    speechProb = Math.min(1.0f, speechProb);
+                // 预先格式化浮点数
+                String probStr = String.format("%.4f", speechProb);
+                String energyStr = String.format("%.6f", energy);
+                String thresholdStr = String.format("%.4f", speechThreshold);
+
+                logger.info("检测到语音开始 - SessionId: {}, 概率: {}, 能量: {}, 阈值: {}", 
+                        sessionId, probStr, energyStr, thresholdStr);
+
+                // 获取预缓冲数据
+                byte[] preBufferData = state.drainPreBuffer();
+                byte[] result;
+
+                if (preBufferData.length > 0) {
+                    // 预缓冲数据已经包含当前帧，直接使用
+                    result = preBufferData;
+                    state.addPcm(result);
+                } else {
+                    // 没有预缓冲数据，使用当前帧
+                    result = pcmData;
+                    state.addPcm(pcmData);
                 }
 
-                // 每10帧输出一次VAD概率
-                /* if (state.getFrameCounter() % LOG_FRAME_INTERVAL == 0) {
-                     // 预先格式化浮点数
-                     String probStr = String.format("%.4f", speechProb);
-                     String energyStr = String.format("%.6f", energy);
-                     String thresholdStr = String.format("%.4f", speechThreshold);
-
-                     logger.info("VAD状态 - SessionId: {}, 帧: {}, 概率: {}, 能量: {}, 阈值: {}",
-                             sessionId, state.getFrameCounter(), probStr, energyStr, thresholdStr);
-                } */
-
-                // 判断语音状态
-                boolean hasEnergy = energy > state.getAvgEnergy() * 1.5 && energy > energyThreshold;
-                boolean isSpeech = speechProb > speechThreshold && hasEnergy;
-                boolean isSilence = speechProb < silenceThreshold;
-                state.updateSilence(isSilence);
-
-                // 处理状态转换
-                if (!state.isSpeaking() && isSpeech) {
-                    // 语音开始
-                    state.pcmData.clear();
-                    state.setSpeaking(true);
-                    
-                    // 预先格式化浮点数
-                    String probStr = String.format("%.4f", speechProb);
-                    String energyStr = String.format("%.6f", energy);
-                    String thresholdStr = String.format("%.4f", speechThreshold);
-
-                    logger.info("检测到语音开始 - SessionId: {}, 概率: {}, 能量: {}, 阈值: {}", 
-                            sessionId, probStr, energyStr, thresholdStr);
-
-                    // 获取预缓冲数据
-                    byte[] preBufferData = state.drainPreBuffer();
-                    byte[] result;
-
-                    if (preBufferData.length > 0) {
-                        // 预缓冲数据已经包含当前帧，直接使用
-                        result = preBufferData;
-                        state.addPcm(result);
-                    } else {
-                        // 没有预缓冲数据，使用当前帧
-                        result = pcmData;
-                        state.addPcm(pcmData);
-                    }
-
-                    return new VadResult(VadStatus.SPEECH_START, result);
-                } else if (state.isSpeaking() && isSilence) {
-                    // 检查静音时长
-                    int silenceDuration = state.getSilenceDuration();
-                    if (silenceDuration > silenceTimeoutMs) {
-                        // 语音结束
-                        state.setSpeaking(false);
-                        logger.info("语音结束: {}, 静音: {}ms", sessionId, silenceDuration);
-                        return new VadResult(VadStatus.SPEECH_END, pcmData);
-                    } else {
-                        // 继续收集
-                        state.addPcm(pcmData);
-                        return new VadResult(VadStatus.SPEECH_CONTINUE, pcmData);
-                    }
-                } else if (state.isSpeaking()) {
-                    // 语音继续
+                return new VadResult(VadStatus.SPEECH_START, result);
+            } else if (state.isSpeaking() && isSilence) {
+                // 检查静音时长
+                int silenceDuration = state.getSilenceDuration();
+                if (silenceDuration > silenceTimeoutMs) {
+                    // 语音结束
+                    state.setSpeaking(false);
+                    logger.info("语音结束: {}, 静音: {}ms", sessionId, silenceDuration);
+                    return new VadResult(VadStatus.SPEECH_END, pcmData);
+                } else if (earlyEndEnabled && !state.paused && silenceDuration > earlyEndTailMs) {
+                    // 静音已超过尾部时长，先结束识别流，说话人若在静音超时内继续说话再补充识别
+                    state.paused = true;
                     state.addPcm(pcmData);
-                    return new VadResult(VadStatus.SPEECH_CONTINUE, pcmData);
+                    logger.info("语音停顿，提前结束识别: {}, 静音: {}ms", sessionId, silenceDuration);
+                    return new VadResult(VadStatus.SPEECH_PAUSE, pcmData);
                 } else {
-                    // 无语音
-                    return new VadResult(VadStatus.NO_SPEECH, null);
+                    // 继续收集
+                    state.addPcm(pcmData);
+                    return new VadResult(VadStatus.SPEECH_CONTINUE, pcmData);
                 }
-            } catch (Exception e) {
-                logger.error("处理音频失败: {}, 错误: {}", sessionId, e.getMessage(), e);
-                return new VadResult(VadStatus.ERROR, null);
+            } else if (state.isSpeaking()) {
+                // 语音继续
+                state.addPcm(pcmData);
+                if (state.paused && isSpeech) {
+                    // 提前结束识别后又继续说话，带上停顿中的音频重新识别
+                    state.paused = false;
+                    logger.info("停顿后继续说话: {}", sessionId);
+                    return new VadResult(VadStatus.SPEECH_RESUME, state.getRecentPcm(state.maxPreBufferSize));
+                }
+                return new VadResult(VadStatus.SPEECH_CONTINUE, pcmData);
+            } else {
+                // 无语音
+                return new VadResult(VadStatus.NO_SPEECH, null);
             }
+        } catch (Exception e) {
+            logger.error("处理音频失败: {}, 错误: {}", sessionId, e.getMessage(), e);
+            return new VadResult(VadStatus.ERROR, null);
         }
     }
 
     /**
      * 执行语音检测
      */
-    private float detectSpeech(float[] samples) {
-        if (vadModel == null || samples == null || samples.length == 0) {
+    private float detectSpeech(VadState state, float[] samples, int sampleCount) {
+        if (vadModel == null || samples == null || sampleCount == 0) {
             logger.warn("VAD模型为空或样本为空");
             return 0.0f;
         }
 
+        VadModelState modelState = state.getModelState();
+        float[] window = state.getWindow();
         try {
-            // 处理样本大小
-            if (samples.length == VAD_SAMPLE_SIZE) {
-                return vadModel.getSpeechProbability(samples);
-            }
-
-            // 样本不足，需要填充
-            if (samples.length < VAD_SAMPLE_SIZE) {
-                float[] padded = new float[VAD_SAMPLE_SIZE];
-                System.arraycopy(samples, 0, padded, 0, samples.length);
-                return vadModel.getSpeechProbability(padded);
+            // 样本不足或刚好一个窗口，不足部分填充静音
+            if (sampleCount <= VAD_SAMPLE_SIZE) {
+                System.arraycopy(samples, 0, window, 0, sampleCount);
+                Arrays.fill(window, sampleCount, VAD_SAMPLE_SIZE, 0.0f);
+                return vadModel.getSpeechProbability(window, modelState);
             }
 
             // 样本过长，分段处理
             float maxProb = 0.0f;
-            for (int offset = 0; offset <= samples.length - VAD_SAMPLE_SIZE; offset += VAD_SAMPLE_SIZE / 2) {
-                float[] chunk = new float[VAD_SAMPLE_SIZE];
-                System.arraycopy(samples, offset, chunk, 0, VAD_SAMPLE_SIZE);
-                float prob = vadModel.getSpeechProbability(chunk);
+            for (int offset = 0; offset <= sampleCount - VAD_SAMPLE_SIZE; offset += VAD_SAMPLE_SIZE / 2) {
+                System.arraycopy(samples, offset, window, 0, VAD_SAMPLE_SIZE);
+                float prob = vadModel.getSpeechProbability(window, modelState);
                 maxProb = Math.max(maxProb, prob);
             }
             return maxProb;
@@ -499,102 +671,106 @@ public class VadService {
     }
 
     /**
-     * 字节数组转浮点数组
+     * 16位样本转浮点数组，写入调用方提供的缓冲区
      */
-    private float[] bytesToFloats(byte[] pcmData) {
-        int sampleCount = pcmData.length / 2;
-        float[] samples = new float[sampleCount];
+    private void shortsToFloats(short[] pcm, int sampleCount, float[] samples) {
+        for (int i = 0; i < sampleCount; i++) {
+            samples[i] = pcm[i] / 32768.0f; // 归一化到[-1,1]
+        }
+    }
 
-        ByteBuffer buffer = ByteBuffer.wrap(pcmData).order(ByteOrder.LITTLE_ENDIAN);
+    /**
+     * 16位样本转小端PCM字节，写入调用方提供的缓冲区
+     */
+    private void shortsToBytes(short[] pcm, int sampleCount, byte[] bytes) {
         for (int i = 0; i < sampleCount; i++) {
-            short sample = buffer.getShort();
-            samples[i] = sample / 32768.0f; // 归一化到[-1,1]
+            short sample = pcm[i];
+            bytes[i * 2] = (byte) sample;
+            bytes[i * 2 + 1] = (byte) (sample >> 8);
         }
+    }
 
-        return samples;
+    /**
+     * 小端PCM字节数组转浮点数组，写入调用方提供的缓冲区
+     *
+     * @return 样本数
+     */
+    private int bytesToFloats(byte[] pcmData, float[] samples) {
+        int sampleCount = pcmData.length / 2;
+        for (int i = 0; i < sampleCount; i++) {
+            short sample = (short) ((pcmData[i * 2] & 0xFF) | (pcmData[i * 2 + 1] << 8));
+            samples[i] = sample / 32768.0f; // 归一化到[-1,1]
+        }
+        return sampleCount;
     }
 
     /**
      * 计算音频能量
      */
-    private float calcEnergy(float[] samples) {
+    private float calcEnergy(float[] samples, int sampleCount) {
         float sum = 0;
-        for (float sample : samples) {
-            sum += Math.abs(sample);
+        for (int i = 0; i < sampleCount; i++) {
+            sum += Math.abs(samples[i]);
         }
-        return sum / samples.length;
+        return sum / sampleCount;
     }
 
     /**
      * 重置会话
      */
     public void resetSession(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            if (state != null) {
+        VadState state = states.remove(sessionId);
+        if (state != null) {
+            // 排在已提交的帧之后执行，避免与正在处理的帧并发
+            state.mailbox.execute(() -> {
+                state.closed = true;
                 state.reset();
-            }
-            states.remove(sessionId);
-            locks.remove(sessionId);
-            
-            logger.info("VAD会话已重置: {}", sessionId);
+                // 释放模型推理占用的本地张量
+                state.getModelState().close();
+            });
         }
+
+        logger.info("VAD会话已重置: {}", sessionId);
     }
 
     /**
      * 检查是否正在说话
      */
     public boolean isSpeaking(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            return state != null && state.isSpeaking();
-        }
+        VadState state = states.get(sessionId);
+        return state != null && state.isSpeaking();
     }
 
     /**
      * 获取当前语音概率
      */
     public float getSpeechProbability(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            return state != null ? state.getLastOriginalProb() : 0.0f;
-        }
+        VadState state = states.get(sessionId);
+        return state != null ? state.getLastOriginalProb() : 0.0f;
     }
 
     /**
      * 获取音频数据
      */
     public List<byte[]> getPcmData(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            return state != null ? state.getPcmData() : new ArrayList<>();
-        }
+        VadState state = states.get(sessionId);
+        return state != null ? state.getPcmData() : new ArrayList<>();
     }
 
     /**
      * 获取Opus数据
      */
     public List<byte[]> getOpusData(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            return state != null ? state.getOpusData() : new ArrayList<>();
-        }
+        VadState state = states.get(sessionId);
+        return state != null ? state.getOpusData() : new ArrayList<>();
     }
 
     /**
      * 获取当前帧计数
      */
     public int getFrameCounter(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
-            VadState state = states.get(sessionId);
-            return state != null ? state.getFrameCounter() : 0;
-        }
+        VadState state = states.get(sessionId);
+        return state != null ? state.getFrameCounter() : 0;
     }
 
     /**
@@ -604,6 +780,8 @@ public class VadService {
         NO_SPEECH, // 无语音
         SPEECH_START, // 语音开始
         SPEECH_CONTINUE, // 语音继续
+        SPEECH_PAUSE, // 语音停顿，已提前结束识别
+        SPEECH_RESUME, // 停顿后继续说话
         SPEECH_END, // 语音结束
         ERROR // 处理错误
     }
@@ -629,7 +807,8 @@ public class VadService {
         }
 
         public boolean isSpeechActive() {
-            return status == VadStatus.SPEECH_START || status == VadStatus.SPEECH_CONTINUE;
+            return status == VadStatus.SPEECH_START || status == VadStatus.SPEECH_CONTINUE
+                    || status == VadStatus.SPEECH_RESUME;
         }
 
         public boolean isSpeechEnd() {
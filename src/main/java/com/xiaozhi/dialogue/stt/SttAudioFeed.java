@@ -0,0 +1,142 @@
+package com.xiaozhi.dialogue.stt;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * STT音频推送适配器
+ * 订阅会话的音频Sink，收到音频即转发给服务商的发送方法，不再经过阻塞队列和轮询线程。
+ * 发送在共享调度线程上串行执行，不占用设备连接的接收线程，也不为每句话常驻一个线程；
+ * 下游发送慢时只向Sink请求预取数量的数据，其余留在Sink的缓冲中。
+ * 可配置合并窗口，把窗口内的小音频帧合并成一次发送，减少服务商的请求帧数；窗口为0时逐帧发送。
+ * 音频流结束且全部数据发送完成后，{@link Feed#drained()} 完成，服务商据此发送结束信号。
+ */
+public final class SttAudioFeed {
+    private static final Logger logger = LoggerFactory.getLogger(SttAudioFeed.class);
+
+    // 发送线程每次向Sink预取的音频帧数
+    private static final int PREFETCH = 32;
+    // 合并窗口内最多合并的帧数
+    private static final int MAX_COALESCE_FRAMES = 16;
+
+    // 默认合并窗口，由STT服务工厂按配置设置
+    private static volatile Duration defaultCoalesceWindow = Duration.ZERO;
+
+    private SttAudioFeed() {
+    }
+
+    /**
+     * 服务商的音频发送方法
+     */
+    @FunctionalInterface
+    public interface ChunkSender {
+        void send(byte[] chunk) throws Exception;
+    }
+
+    /**
+     * 一句话的音频推送
+     */
+    public static final class Feed {
+        private final CompletableFuture<Void> drained = new CompletableFuture<>();
+        private volatile Disposable subscription;
+
+        /**
+         * 音频流结束且全部发送完成时正常完成，发送失败时异常完成，取消后不再完成
+         */
+        public CompletableFuture<Void> drained() {
+            return drained;
+        }
+
+        /**
+         * 停止转发，识别超时或提前结束时调用
+         */
+        public void cancel() {
+            drained.cancel(false);
+            Disposable current = subscription;
+            if (current != null) {
+                current.dispose();
+            }
+        }
+    }
+
+    /**
+     * 设置默认合并窗口
+     */
+    public static void setDefaultCoalesceWindow(Duration window) {
+        defaultCoalesceWindow = window == null || window.isNegative() ? Duration.ZERO : window;
+    }
+
+    /**
+     * 使用默认合并窗口转发音频
+     */
+    public static Feed forward(Sinks.Many<byte[]> audioSink, ChunkSender sender) {
+        return forward(audioSink, defaultCoalesceWindow, sender);
+    }
+
+    /**
+     * 转发音频到服务商
+     *
+     * @param audioSink      会话的音频流
+     * @param coalesceWindow 合并窗口，为0时逐帧发送
+     * @param sender         服务商的发送方法
+     */
+    public static Feed forward(Sinks.Many<byte[]> audioSink, Duration coalesceWindow, ChunkSender sender) {
+        Feed feed = new Feed();
+        Flux<byte[]> audio = audioSink.asFlux()
+                .onErrorResume(error -> {
+                    // 与原先的处理一致：音频流出错按结束处理，已收到的音频照常识别
+                    logger.error("音频流处理错误", error);
+                    return Flux.empty();
+                });
+        if (coalesceWindow != null && !coalesceWindow.isZero() && !coalesceWindow.isNegative()) {
+            audio = audio.bufferTimeout(MAX_COALESCE_FRAMES, coalesceWindow)
+                    .filter(frames -> !frames.isEmpty())
+                    .map(SttAudioFeed::concat)
+                    // 合并后的批次在发送端积压时暂存，避免定时发出的批次因没有请求而报错
+                    .onBackpressureBuffer();
+        }
+        feed.subscription = audio
+                .publishOn(Schedulers.boundedElastic(), PREFETCH)
+                .subscribe(
+                        chunk -> {
+                            if (feed.drained.isDone()) {
+                                return;
+                            }
+                            try {
+                                sender.send(chunk);
+                            } catch (Exception e) {
+                                logger.error("发送音频数据时发生错误", e);
+                                feed.drained.completeExceptionally(e);
+                                feed.cancel();
+                            }
+                        },
+                        error -> feed.drained.completeExceptionally(error),
+                        () -> feed.drained.complete(null));
+        return feed;
+    }
+
+    private static byte[] concat(List<byte[]> frames) {
+        if (frames.size() == 1) {
+            return frames.get(0);
+        }
+        int length = 0;
+        for (byte[] frame : frames) {
+            length += frame.length;
+        }
+        byte[] merged = new byte[length];
+        int offset = 0;
+        for (byte[] frame : frames) {
+            System.arraycopy(frame, 0, merged, offset, frame.length);
+            offset += frame.length;
+        }
+        return merged;
+    }
+}
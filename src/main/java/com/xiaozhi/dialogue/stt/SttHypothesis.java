@@ -0,0 +1,18 @@
+package com.xiaozhi.dialogue.stt;
+
+/**
+ * 流式识别的一条识别结果
+ *
+ * @param text    当前整句的识别文本
+ * @param isFinal 是否为最终结果，中间结果之后可能还会变化
+ */
+public record SttHypothesis(String text, boolean isFinal) {
+
+    public static SttHypothesis partial(String text) {
+        return new SttHypothesis(text, false);
+    }
+
+    public static SttHypothesis complete(String text) {
+        return new SttHypothesis(text, true);
+    }
+}
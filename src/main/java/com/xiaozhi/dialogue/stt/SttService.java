@@ -1,7 +1,10 @@
 package com.xiaozhi.dialogue.stt;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Sinks;
 
+import java.util.function.Consumer;
+
 /**
  * STT服务接口
  */
@@ -28,6 +31,43 @@ public interface SttService {
    */
   String streamRecognition(Sinks.Many<byte[]> audioSink);
 
+  /**
+   * 流式处理音频数据，识别过程中回调中间结果
+   * 默认实现不提供中间结果
+   *
+   * @param audioSink       音频数据流
+   * @param partialConsumer 中间结果回调，参数为当前整句的识别文本，可以为null
+   * @return 识别的文本结果
+   */
+  default String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialConsumer) {
+    return streamRecognition(audioSink);
+  }
+
+  /**
+   * 流式处理音频数据，以Flux发出中间结果和最终结果
+   * 订阅后在虚拟线程中识别，最终结果是最后一个元素，识别为空时没有最终结果
+   *
+   * @param audioSink 音频数据流
+   * @return 识别结果流
+   */
+  default Flux<SttHypothesis> streamHypotheses(Sinks.Many<byte[]> audioSink) {
+    return Flux.create(emitter -> Thread.startVirtualThread(() -> {
+      try {
+        String text = streamRecognition(audioSink, partial -> {
+          if (partial != null && !partial.isEmpty()) {
+            emitter.next(SttHypothesis.partial(partial));
+          }
+        });
+        if (text != null && !text.isEmpty()) {
+          emitter.next(SttHypothesis.complete(text));
+        }
+        emitter.complete();
+      } catch (Exception e) {
+        emitter.error(e);
+      }
+    }));
+  }
+
   /**
    * 检查服务是否支持流式处理
    * 
@@ -1,5 +1,6 @@
 package com.xiaozhi.dialogue.stt.factory;
 
+import com.xiaozhi.dialogue.stt.SttAudioFeed;
 import com.xiaozhi.dialogue.stt.SttService;
 import com.xiaozhi.dialogue.stt.providers.*;
 import com.xiaozhi.entity.SysConfig;
@@ -7,10 +8,12 @@ import com.xiaozhi.entity.SysConfig;
 import jakarta.annotation.Nonnull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
 
+import java.time.Duration;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -25,9 +28,49 @@ public class SttServiceFactory {
     // 默认服务提供商名称 - 改为FunASR以避免内存问题
     private static final String DEFAULT_PROVIDER = "funasr";
 
+    // 默认服务的缓存键，与getSttService(null)查找时使用的"provider:configId"一致
+    private static final String DEFAULT_CACHE_KEY = DEFAULT_PROVIDER + ":-1";
+
     // 默认FunASR服务URL (可通过环境变量覆盖)
     private static final String DEFAULT_FUNASR_URL = System.getenv().getOrDefault("FUNASR_API_URL", "ws://localhost:10095/");
 
+    // FunASR预连接数，0表示每句话新建连接
+    @Value("${stt.funasr.pool.size:2}")
+    private int funasrPoolSize;
+
+    // FunASR空闲连接的最长保留时间，超过后关闭重建
+    @Value("${stt.funasr.pool.max-idle-ms:300000}")
+    private long funasrPoolMaxIdleMs;
+
+    // FunASR连接心跳检测间隔（秒）
+    @Value("${stt.funasr.pool.health-check-seconds:30}")
+    private int funasrPoolHealthCheckSeconds;
+
+    // 流式识别时合并音频帧的窗口（毫秒），0表示收到即发送
+    @Value("${stt.feed.coalesce-ms:0}")
+    private long feedCoalesceMs;
+
+    // 本地Vosk识别，默认关闭以节省内存；开启后所有Vosk配置共用一个模型
+    @Value("${stt.vosk.enabled:false}")
+    private boolean voskEnabled;
+
+    @Value("${stt.vosk.model-path:models/vosk-model}")
+    private String voskModelPath;
+
+    // 识别器数量上限，决定本地识别的并发和内存上限
+    @Value("${stt.vosk.pool.size:2}")
+    private int voskPoolSize;
+
+    // 识别器全部占用时等待的最长时间，超时转用远程服务
+    @Value("${stt.vosk.pool.acquire-timeout-ms:200}")
+    private long voskAcquireTimeoutMs;
+
+    // 未配置STT的角色也使用本地识别，不依赖任何云端服务
+    @Value("${stt.vosk.as-default:false}")
+    private boolean voskAsDefault;
+
+    private volatile VoskSttService voskService;
+
     // 标记默认服务是否初始化成功
     private boolean defaultServiceInitialized = false;
 
@@ -39,6 +82,7 @@ public class SttServiceFactory {
      */
     @PostConstruct
     public void initializeDefaultSttService() {
+        SttAudioFeed.setDefaultCoalesceWindow(Duration.ofMillis(feedCoalesceMs));
         logger.info("正在初始化默认语音识别服务(FunASR)...");
         try {
             // 创建默认FunASR配置
@@ -49,7 +93,7 @@ public class SttServiceFactory {
             
             // 初始化FunASR服务
             SttService defaultService = createApiService(defaultConfig);
-            serviceCache.put(DEFAULT_PROVIDER, defaultService);
+            serviceCache.put(DEFAULT_CACHE_KEY, defaultService);
             defaultServiceInitialized = true;
             
             logger.info("默认语音识别服务(FunASR)初始化成功，服务地址: {}", DEFAULT_FUNASR_URL);
@@ -70,6 +114,13 @@ public class SttServiceFactory {
      * 根据配置获取STT服务
      */
     public SttService getSttService(SysConfig config) {
+        if (config == null && voskEnabled && voskAsDefault) {
+            try {
+                return getVoskService();
+            } catch (Exception e) {
+                logger.warn("本地Vosk识别不可用，使用默认服务: {}", e.getMessage());
+            }
+        }
         if (config == null) {
             config = new SysConfig()
                 .setProvider(DEFAULT_PROVIDER)
@@ -104,9 +155,12 @@ public class SttServiceFactory {
         return switch (config.getProvider()) {
             case "tencent" -> new TencentSttService(config);
             case "aliyun" -> new AliyunSttService(config);
-            case "funasr" -> new FunASRSttService(config);
+            case "funasr" -> newFunASRSttService(config);
             case "xfyun" -> new XfyunSttService(config);
             case "vosk" -> {
+                if (voskEnabled) {
+                    yield getVoskService();
+                }
                 // 仅在明确指定时才尝试初始化Vosk
                 logger.warn("Vosk模型已禁用以节省内存，建议使用FunASR或其他云服务");
                 if (fallbackProvider != null && serviceCache.containsKey(fallbackProvider)) {
@@ -116,16 +170,58 @@ public class SttServiceFactory {
             }
             default -> {
                 // 默认使用FunASR
-                yield new FunASRSttService(config);
+                yield newFunASRSttService(config);
             }
         };
     }
 
+    /**
+     * 共用的本地Vosk服务，首次使用时加载模型
+     */
+    private VoskSttService getVoskService() {
+        VoskSttService service = voskService;
+        if (service != null) {
+            return service;
+        }
+        synchronized (this) {
+            if (voskService == null) {
+                VoskSttService created = new VoskSttService(voskModelPath, voskPoolSize, voskAcquireTimeoutMs,
+                        this::voskFallbackService);
+                try {
+                    created.initialize();
+                } catch (Exception e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+                voskService = created;
+            }
+            return voskService;
+        }
+    }
+
+    /**
+     * 本地识别器全部占用时的备用服务：已创建的远程服务，没有时使用默认FunASR
+     */
+    private SttService voskFallbackService() {
+        SttService service = fallbackProvider != null ? serviceCache.get(fallbackProvider) : null;
+        if (service == null || service instanceof VoskSttService) {
+            service = serviceCache.get(DEFAULT_CACHE_KEY);
+        }
+        return service instanceof VoskSttService ? null : service;
+    }
+
+    private FunASRSttService newFunASRSttService(SysConfig config) {
+        return new FunASRSttService(config, funasrPoolSize, funasrPoolMaxIdleMs, funasrPoolHealthCheckSeconds);
+    }
+
     public void removeCache(SysConfig config) {
         // 对于API服务，使用"provider:configId"作为缓存键，确保每个配置使用独立的服务实例
         Integer configId = config.getConfigId();
         String provider = config.getProvider();
         String cacheKey = provider + ":" + (configId != null ? configId : "default");
-        serviceCache.remove(cacheKey);
+        SttService removed = serviceCache.remove(cacheKey);
+        // 关闭旧配置的预连接
+        if (removed instanceof FunASRSttService funASRSttService) {
+            funASRSttService.shutdown();
+        }
     }
 }
\ No newline at end of file
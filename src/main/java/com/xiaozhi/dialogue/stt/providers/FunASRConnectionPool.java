@@ -0,0 +1,269 @@
+package com.xiaozhi.dialogue.stt.providers;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FunASR WebSocket连接池
+ * 预先建立若干条连接，识别时直接取用，省掉每句话的TCP/WebSocket握手；一句话识别完成（收到is_final）后连接归还复用，
+ * FunASR服务端在is_speaking=false之后会重置识别状态，下一句重新发送开始消息即可。
+ * 连接通过WebSocket心跳检测存活，断开的连接自动剔除；空闲超过上限的连接关闭重建，后台补足到池大小。
+ * 首次取用连接时才开始预连接，没有使用FunASR的部署不会去连接服务地址；预连接失败后按指数退避重试。
+ */
+class FunASRConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(FunASRConnectionPool.class);
+
+    // 所有连接池共用的后台维护线程
+    private static final ScheduledExecutorService MAINTAINER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "funasr-pool");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final long MAINTAIN_INTERVAL_MS = 10000;
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+    // 预连接失败后的重试间隔，每次失败翻倍
+    private static final long MIN_RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 60000;
+
+    /**
+     * 当前使用连接的一句话识别
+     */
+    interface Listener {
+        void onMessage(String message);
+
+        /**
+         * 连接断开或出错
+         */
+        void onClosed(String reason);
+    }
+
+    /**
+     * 池中的一条连接
+     */
+    final class Connection extends WebSocketClient {
+        private volatile Listener listener;
+        private volatile long idleSince = System.currentTimeMillis();
+        // 是否成功建立过连接，连接失败也会回调onClose
+        private volatile boolean opened = false;
+
+        private Connection() {
+            super(URI.create(apiUrl));
+            setConnectionLostTimeout(healthCheckSeconds);
+        }
+
+        void bind(Listener listener) {
+            this.listener = listener;
+        }
+
+        void unbind() {
+            this.listener = null;
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+            opened = true;
+            logger.debug("FunASR WebSocket连接已打开");
+        }
+
+        @Override
+        public void onMessage(String message) {
+            Listener current = listener;
+            if (current != null) {
+                current.onMessage(message);
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            idle.remove(this);
+            Listener current = listener;
+            if (current != null) {
+                current.onClosed(reason);
+            }
+            // 从未连上的连接由建立连接的一方处理，不触发补充
+            if (opened) {
+                logger.info("FunASR WS关闭，原因：{}", reason);
+                if (!closed) {
+                    scheduleRefill();
+                }
+            }
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            if (opened) {
+                logger.error("FunASR WS错误", ex);
+            } else {
+                logger.warn("FunASR WS连接失败: {}", ex.getMessage());
+            }
+            Listener current = listener;
+            if (current != null) {
+                current.onClosed(ex.getMessage());
+            }
+        }
+    }
+
+    private final String apiUrl;
+    private final int size;
+    private final long maxIdleMs;
+    private final int healthCheckSeconds;
+
+    private final LinkedBlockingDeque<Connection> idle = new LinkedBlockingDeque<>();
+    // 正在后台建立的连接数
+    private final AtomicInteger connecting = new AtomicInteger();
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile ScheduledFuture<?> maintenance;
+    private volatile boolean closed = false;
+    // 预连接失败后，在此时间之前不再重试
+    private volatile long retryAt = 0;
+    private long retryDelayMs = MIN_RETRY_DELAY_MS;
+
+    /**
+     * @param size               保持的空闲连接数，0表示不预连接，每句话新建连接
+     * @param maxIdleMs          空闲连接的最长保留时间，超过后关闭重建
+     * @param healthCheckSeconds 心跳检测间隔，超时未响应的连接被关闭
+     */
+    FunASRConnectionPool(String apiUrl, int size, long maxIdleMs, int healthCheckSeconds) {
+        this.apiUrl = apiUrl;
+        this.size = Math.max(0, size);
+        this.maxIdleMs = maxIdleMs;
+        this.healthCheckSeconds = healthCheckSeconds;
+    }
+
+    /**
+     * 取一条可用连接，池中没有时当场建立
+     */
+    Connection acquire() throws InterruptedException {
+        start();
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            if (connection.isOpen() && !isExpired(connection)) {
+                scheduleRefill();
+                return connection;
+            }
+            connection.close();
+        }
+        scheduleRefill();
+        connection = new Connection();
+        if (!connection.connectBlocking(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            connection.close();
+            throw new IllegalStateException("连接FunASR服务失败: " + apiUrl);
+        }
+        return connection;
+    }
+
+    /**
+     * 归还连接，不可复用（识别未正常结束）或池已满时关闭
+     */
+    void release(Connection connection, boolean reusable) {
+        connection.unbind();
+        if (reusable && !closed && connection.isOpen() && idle.size() < size) {
+            connection.idleSince = System.currentTimeMillis();
+            idle.offerFirst(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    /**
+     * 关闭连接池和所有空闲连接
+     */
+    void close() {
+        closed = true;
+        ScheduledFuture<?> current = maintenance;
+        if (current != null) {
+            current.cancel(false);
+        }
+        Connection connection;
+        while ((connection = idle.pollFirst()) != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 首次取用时启动后台维护
+     */
+    private void start() {
+        if (size > 0 && !closed && started.compareAndSet(false, true)) {
+            maintenance = MAINTAINER.scheduleWithFixedDelay(this::maintain, MAINTAIN_INTERVAL_MS,
+                    MAINTAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            if (closed) {
+                maintenance.cancel(false);
+            }
+        }
+    }
+
+    private boolean isExpired(Connection connection) {
+        return maxIdleMs > 0 && System.currentTimeMillis() - connection.idleSince > maxIdleMs;
+    }
+
+    /**
+     * 剔除断开和空闲过久的连接，补足到池大小
+     */
+    private void maintain() {
+        if (closed) {
+            return;
+        }
+        idle.removeIf(connection -> {
+            if (!connection.isOpen() || isExpired(connection)) {
+                connection.close();
+                return true;
+            }
+            return false;
+        });
+        refill();
+    }
+
+    private void scheduleRefill() {
+        if (size > 0 && !closed && started.get() && System.currentTimeMillis() >= retryAt
+                && refillScheduled.compareAndSet(false, true)) {
+            MAINTAINER.execute(() -> {
+                refillScheduled.set(false);
+                refill();
+            });
+        }
+    }
+
+    private void refill() {
+        while (!closed && System.currentTimeMillis() >= retryAt && idle.size() + connecting.get() < size) {
+            connecting.incrementAndGet();
+            try {
+                Connection connection = new Connection();
+                if (connection.connectBlocking(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    connection.idleSince = System.currentTimeMillis();
+                    idle.offerLast(connection);
+                    retryDelayMs = MIN_RETRY_DELAY_MS;
+                } else {
+                    connection.close();
+                    backoff(null);
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                backoff(e.getMessage());
+                return;
+            } finally {
+                connecting.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 预连接失败，推迟下次重试，维护任务到时再补充
+     */
+    private void backoff(String error) {
+        retryAt = System.currentTimeMillis() + retryDelayMs;
+        logger.warn("FunASR预连接失败，{}ms后重试: {}{}", retryDelayMs, apiUrl, error != null ? ", 错误: " + error : "");
+        retryDelayMs = Math.min(MAX_RETRY_DELAY_MS, retryDelayMs * 2);
+    }
+}
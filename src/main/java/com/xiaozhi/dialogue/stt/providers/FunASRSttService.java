@@ -2,23 +2,21 @@ package com.xiaozhi.dialogue.stt.providers;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.xiaozhi.dialogue.stt.SttAudioFeed;
 import com.xiaozhi.dialogue.stt.SttService;
 import com.xiaozhi.entity.SysConfig;
 
 import org.apache.commons.lang3.StringUtils;
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.handshake.ServerHandshake;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Sinks;
 
-import java.net.URI;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 /**
  * FunASR STT服务实现
@@ -36,13 +34,24 @@ public class FunASRSttService implements SttService {
 
     private static final String SPEAKING_START = "{\"mode\":\"online\",\"wav_name\":\"voice.wav\",\"is_speaking\":true,\"wav_format\":\"pcm\",\"chunk_size\":[5,10,5],\"itn\":true}";
     private static final String SPEAKING_END = "{\"is_speaking\": false}";
-    private static final int QUEUE_TIMEOUT_MS = 100; // 队列等待超时时间
+    private static final long DRAIN_TIMEOUT_MS = 100; // 识别完成后等待音频发完的时间
     private static final long RECOGNITION_TIMEOUT_MS = 30000; // 识别超时时间（30秒）
 
     private final String apiUrl;
+    private final FunASRConnectionPool pool;
 
     public FunASRSttService(SysConfig config) {
+        this(config, 0, 0, 0);
+    }
+
+    /**
+     * @param poolSize           预连接数，0表示每句话新建连接
+     * @param maxIdleMs          空闲连接的最长保留时间
+     * @param healthCheckSeconds 连接心跳检测间隔
+     */
+    public FunASRSttService(SysConfig config, int poolSize, long maxIdleMs, int healthCheckSeconds) {
         this.apiUrl = config.getApiUrl();
+        this.pool = new FunASRConnectionPool(apiUrl, poolSize, maxIdleMs, healthCheckSeconds);
     }
 
     @Override
@@ -63,57 +72,26 @@ public class FunASRSttService implements SttService {
 
     @Override
     public String streamRecognition(Sinks.Many<byte[]> audioSink) {
-        // 使用阻塞队列存储音频数据
-        BlockingQueue<byte[]> audioQueue = new LinkedBlockingQueue<>();
-        AtomicBoolean isCompleted = new AtomicBoolean(false);
+        return streamRecognition(audioSink, null);
+    }
+
+    @Override
+    public String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialConsumer) {
         AtomicReference<String> finalResult = new AtomicReference<>("");
+        // 在线模式的中间结果是逐段增量，累积成当前整句
+        StringBuilder partialText = new StringBuilder();
+        AtomicBoolean recognized = new AtomicBoolean(false);
         CountDownLatch recognitionLatch = new CountDownLatch(1);
-        
-        // 订阅Sink并将数据放入队列
-        audioSink.asFlux().subscribe(
-            data -> audioQueue.offer(data),
-            error -> {
-                logger.error("音频流处理错误", error);
-                isCompleted.set(true);
-            },
-            () -> isCompleted.set(true)
-        );
-        
-        // 创建WebSocket客户端
-        WebSocketClient webSocketClient = new WebSocketClient(URI.create(apiUrl)) {
-            @Override
-            public void onOpen(ServerHandshake handshake) {
-                logger.debug("FunASR WebSocket连接已打开");
-                send(SPEAKING_START);
-                
-                // 启动虚拟线程发送音频数据
-                Thread.startVirtualThread(() -> {
-                    try {
-                        while (!isCompleted.get() || !audioQueue.isEmpty()) {
-                            byte[] audioChunk = null;
-                            try {
-                                audioChunk = audioQueue.poll(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                            } catch (InterruptedException e) {
-                                logger.warn("音频数据队列等待被中断", e);
-                                Thread.currentThread().interrupt(); // 重新设置中断标志
-                                break;
-                            }
-                            
-                            if (audioChunk != null && isOpen()) {
-                                send(audioChunk);
-                            }
-                        }
-                        
-                        // 发送结束信号
-                        if (isOpen()) {
-                            send(SPEAKING_END);
-                        }
-                    } catch (Exception e) {
-                        logger.error("发送音频数据时发生错误", e);
-                    }
-                });
-            }
 
+        // 从连接池取预先建立的连接，音频Sink在首个订阅者出现前会缓存数据，这期间的音频不会丢失
+        FunASRConnectionPool.Connection connection;
+        try {
+            connection = pool.acquire();
+        } catch (Exception e) {
+            logger.error("FunASR识别过程中发生错误", e);
+            return finalResult.get();
+        }
+        connection.bind(new FunASRConnectionPool.Listener() {
             @Override
             public void onMessage(String message) {
                 try {
@@ -121,7 +99,11 @@ public class FunASRSttService implements SttService {
                     if (jsonObject.getBoolean("is_final")) {
                         String text = jsonObject.getString("text");
                         finalResult.set(text);
+                        recognized.set(true);
                         recognitionLatch.countDown(); // 识别完成，释放锁
+                    } else if (partialConsumer != null && StringUtils.isNotEmpty(jsonObject.getString("text"))) {
+                        partialText.append(jsonObject.getString("text"));
+                        partialConsumer.accept(partialText.toString());
                     }
                 } catch (Exception e) {
                     logger.error("解析FunASR响应失败", e);
@@ -129,39 +111,74 @@ public class FunASRSttService implements SttService {
             }
 
             @Override
-            public void onClose(int code, String reason, boolean remote) {
-                logger.info("FunASR WS关闭，原因：{}", reason);
+            public void onClosed(String reason) {
                 // 确保锁被释放
                 recognitionLatch.countDown();
             }
+        });
 
-            @Override
-            public void onError(Exception ex) {
-                logger.error("FunASR WS错误", ex);
-                // 确保锁被释放
-                recognitionLatch.countDown();
+        try {
+            connection.send(SPEAKING_START);
+        } catch (Exception e) {
+            logger.error("FunASR识别过程中发生错误", e);
+            pool.release(connection, false);
+            return finalResult.get();
+        }
+
+        // 音频直接转发到连接，全部发完后发送结束信号
+        SttAudioFeed.Feed feed = SttAudioFeed.forward(audioSink, chunk -> {
+            if (connection.isOpen()) {
+                connection.send(chunk);
+            }
+        });
+        CompletableFuture<Void> ended = feed.drained().thenRun(() -> {
+            try {
+                if (connection.isOpen()) {
+                    connection.send(SPEAKING_END);
+                }
+            } catch (Exception e) {
+                logger.error("发送结束信号时发生错误", e);
             }
-        };
+        });
 
         try {
-            // 连接WebSocket
-            webSocketClient.connect();
-            
             // 等待识别完成或超时
-            boolean recognized = recognitionLatch.await(RECOGNITION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-            
-            if (!recognized) {
+            if (!recognitionLatch.await(RECOGNITION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
                 logger.warn("FunASR识别超时");
             }
         } catch (Exception e) {
             logger.error("FunASR识别过程中发生错误", e);
         } finally {
-            // 关闭WebSocket连接
-            if (webSocketClient.isOpen()) {
-                webSocketClient.close();
+            // 正常识别完成且音频已发完的连接归还复用，否则关闭，避免残留的音频串到下一句
+            boolean reusable = recognized.get() && awaitEnded(ended);
+            if (!reusable) {
+                feed.cancel();
             }
+            pool.release(connection, reusable);
         }
         
         return finalResult.get();
     }
-}
\ No newline at end of file
+
+    /**
+     * 等待音频和结束信号发送完毕，识别已完成时剩余的音频应当很快发完
+     */
+    private static boolean awaitEnded(CompletableFuture<Void> ended) {
+        try {
+            ended.get(DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 关闭连接池，配置变更或服务移除时调用
+     */
+    public void shutdown() {
+        pool.close();
+    }
+}
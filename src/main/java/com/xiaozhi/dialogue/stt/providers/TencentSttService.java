@@ -9,6 +9,7 @@ import com.tencent.asrv2.SpeechRecognizerRequest;
 import com.tencent.asrv2.SpeechRecognizerResponse;
 import com.tencent.core.ws.Credential;
 import com.tencent.core.ws.SpeechClient;
+import com.xiaozhi.dialogue.stt.SttAudioFeed;
 import com.xiaozhi.dialogue.stt.SttService;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.utils.AudioUtils;
@@ -31,13 +32,12 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Base64;
 import java.util.UUID;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class TencentSttService implements SttService {
     private static final Logger logger = LoggerFactory.getLogger(TencentSttService.class);
@@ -46,7 +46,6 @@ public class TencentSttService implements SttService {
     private static final String API_VERSION = "2019-06-14";
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
     private static final String FORMAT = "pcm"; // 支持的音频格式：pcm, wav, mp3
-    private static final int QUEUE_TIMEOUT_MS = 100; // 队列等待超时时间
     private static final long RECOGNITION_TIMEOUT_MS = 30000; // 识别超时时间（30秒）
 
     // 使用腾讯云SDK的默认URL
@@ -134,27 +133,19 @@ public class TencentSttService implements SttService {
 
     @Override
     public String streamRecognition(Sinks.Many<byte[]> audioSink) {
+        return streamRecognition(audioSink, null);
+    }
+
+    @Override
+    public String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialConsumer) {
         // 检查配置是否已设置
         if (secretId == null || secretKey == null || appId == null) {
             logger.error("腾讯云语音识别配置未设置，无法进行识别");
             return null;
         }
 
-        // 使用阻塞队列存储音频数据
-        BlockingQueue<byte[]> audioQueue = new LinkedBlockingQueue<>();
-        AtomicBoolean isCompleted = new AtomicBoolean(false);
         AtomicReference<String> finalResult = new AtomicReference<>("");
         CountDownLatch recognitionLatch = new CountDownLatch(1);
-        
-        // 订阅Sink并将数据放入队列
-        audioSink.asFlux().subscribe(
-            data -> audioQueue.offer(data),
-            error -> {
-                logger.error("音频流处理错误", error);
-                isCompleted.set(true);
-            },
-            () -> isCompleted.set(true)
-        );
 
         // 生成唯一的语音ID
         String voiceId = UUID.randomUUID().toString();
@@ -194,6 +185,9 @@ public class TencentSttService implements SttService {
                                 textBuilder.setLength(0);
                                 textBuilder.append(text);
                             }
+                            if (partialConsumer != null) {
+                                partialConsumer.accept(text);
+                            }
                         }
                     }
                 }
@@ -268,39 +262,21 @@ public class TencentSttService implements SttService {
             // 标记是否已经发送了停止信号
             AtomicBoolean stopSent = new AtomicBoolean(false);
 
-            // 启动虚拟线程发送音频数据
-            Thread.startVirtualThread(() -> {
-                try {
-                    while (!isCompleted.get() || !audioQueue.isEmpty()) {
-                        byte[] audioChunk = null;
-                        try {
-                            audioChunk = audioQueue.poll(QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-                        } catch (InterruptedException e) {
-                            logger.warn("音频数据队列等待被中断", e);
-                            Thread.currentThread().interrupt(); // 重新设置中断标志
-                            break;
-                        }
-                        
-                        if (audioChunk != null && activeRecognizers.containsKey(voiceId)) {
-                            try {
-                                recognizer.write(audioChunk);
-                            } catch (Exception e) {
-                                logger.error("发送音频数据时发生错误 - VoiceId: {}", voiceId, e);
-                                break;
-                            }
-                        }
-                    }
-                    
-                    // 发送停止信号
-                    if (activeRecognizers.containsKey(voiceId) && !stopSent.getAndSet(true)) {
-                        try {
-                            recognizer.stop();
-                        } catch (Exception e) {
-                            logger.error("停止识别器时发生错误 - VoiceId: {}", voiceId, e);
-                        }
+            // 音频直接转发给识别器，全部发完后发送停止信号
+            SttAudioFeed.Feed feed = SttAudioFeed.forward(audioSink, chunk -> {
+                if (activeRecognizers.containsKey(voiceId)) {
+                    recognizer.write(chunk);
+                }
+            });
+            feed.drained().whenComplete((v, error) -> {
+                // 发送失败也发送停止信号，让服务端尽快返回已识别的结果；超时取消时由下面的清理负责
+                if (!feed.drained().isCancelled() && activeRecognizers.containsKey(voiceId)
+                        && !stopSent.getAndSet(true)) {
+                    try {
+                        recognizer.stop();
+                    } catch (Exception e) {
+                        logger.error("停止识别器时发生错误 - VoiceId: {}", voiceId, e);
                     }
-                } catch (Exception e) {
-                    logger.error("处理音频流时发生错误 - VoiceId: {}", voiceId, e);
                 }
             });
 
@@ -309,6 +285,7 @@ public class TencentSttService implements SttService {
             
             if (!recognized) {
                 logger.warn("腾讯云识别超时 - VoiceId: {}", voiceId);
+                feed.cancel();
                 // 超时后清理资源
                 if (activeRecognizers.containsKey(voiceId)) {
                     try {
@@ -0,0 +1,105 @@
+package com.xiaozhi.dialogue.stt.providers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vosk.Model;
+import org.vosk.Recognizer;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vosk识别器池
+ * 所有识别器共用一个模型，识别器数量有上限，内存占用因此固定为一个模型加上限个识别器的解码状态。
+ * 识别器按需创建，一句话识别完成后重置归还复用；池满时取用方最多等待给定时间，超时由调用方转用其他服务。
+ */
+class VoskRecognizerPool {
+    private static final Logger logger = LoggerFactory.getLogger(VoskRecognizerPool.class);
+
+    private final Model model;
+    private final float sampleRate;
+    private final int size;
+    // 可同时使用的识别器数
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Recognizer> idle = new ConcurrentLinkedDeque<>();
+    private volatile boolean closed = false;
+
+    /**
+     * @param size 识别器数量上限
+     */
+    VoskRecognizerPool(Model model, float sampleRate, int size) {
+        this.model = model;
+        this.sampleRate = sampleRate;
+        this.size = Math.max(1, size);
+        this.permits = new Semaphore(this.size);
+    }
+
+    /**
+     * 取一个识别器，池满时最多等待timeoutMs
+     *
+     * @return 识别器，等待超时或池已关闭时返回null
+     */
+    Recognizer acquire(long timeoutMs) throws InterruptedException, IOException {
+        if (closed || !permits.tryAcquire(Math.max(0, timeoutMs), TimeUnit.MILLISECONDS)) {
+            return null;
+        }
+        Recognizer recognizer = idle.pollFirst();
+        if (recognizer != null) {
+            return recognizer;
+        }
+        try {
+            return new Recognizer(model, sampleRate);
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * 归还识别器，识别未正常结束或池已关闭时释放
+     */
+    void release(Recognizer recognizer, boolean reusable) {
+        try {
+            if (reusable && !closed) {
+                // 清除上一句的解码状态
+                recognizer.reset();
+                idle.offerFirst(recognizer);
+                // 与关闭并发时，刚归还的识别器也要释放
+                if (closed && idle.remove(recognizer)) {
+                    recognizer.close();
+                }
+            } else {
+                recognizer.close();
+            }
+        } catch (Exception e) {
+            logger.warn("归还Vosk识别器失败: {}", e.getMessage());
+            recognizer.close();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * 当前空闲的名额
+     */
+    int available() {
+        return permits.availablePermits();
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 关闭识别器池，使用中的识别器归还时释放
+     */
+    void close() {
+        closed = true;
+        Recognizer recognizer;
+        while ((recognizer = idle.pollFirst()) != null) {
+            recognizer.close();
+        }
+    }
+}
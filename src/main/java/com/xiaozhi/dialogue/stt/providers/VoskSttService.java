@@ -1,5 +1,6 @@
 package com.xiaozhi.dialogue.stt.providers;
 
+import com.xiaozhi.dialogue.stt.SttAudioFeed;
 import com.xiaozhi.dialogue.stt.SttService;
 import com.xiaozhi.utils.AudioUtils;
 import jakarta.annotation.PostConstruct;
@@ -13,30 +14,53 @@ import org.vosk.Recognizer;
 import reactor.core.publisher.Sinks;
 
 import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * Vosk STT服务实现
  * 使用JDK 21虚拟线程实现异步处理
+ * 一个服务实例只加载一个模型，识别器从有上限的识别器池中取用；池满时转用备用的远程识别服务，
+ * 没有备用服务时拒绝识别，内存占用不随并发增长。
  */
 public class VoskSttService implements SttService {
 
     private static final Logger logger = LoggerFactory.getLogger(VoskSttService.class);
     private static final String PROVIDER_NAME = "vosk";
-    private static final int QUEUE_TIMEOUT_MS = 5000; // 队列等待超时时间
+    private static final String DEFAULT_MODEL_PATH = Paths.get("models", "vosk-model").toString();
 
     // Vosk模型相关对象
     private Model model;
     private String voskModelPath;
     private boolean modelLoaded = false;
 
+    private final String modelPath;
+    private final int poolSize;
+    private final long acquireTimeoutMs;
+    // 识别器池满时使用的备用服务，可以为null
+    private final Supplier<SttService> fallback;
+    private VoskRecognizerPool pool;
+
+    public VoskSttService() {
+        this(DEFAULT_MODEL_PATH, 1, 0, null);
+    }
+
+    /**
+     * @param modelPath        模型目录，相对路径基于工作目录
+     * @param poolSize         识别器数量上限，即最多同时识别的句数
+     * @param acquireTimeoutMs 识别器池满时等待空闲识别器的最长时间
+     * @param fallback         池满时使用的备用服务
+     */
+    public VoskSttService(String modelPath, int poolSize, long acquireTimeoutMs, Supplier<SttService> fallback) {
+        this.modelPath = modelPath;
+        this.poolSize = poolSize;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.fallback = fallback;
+    }
+
     /**
      * 初始化Vosk模型
      *
@@ -61,10 +85,11 @@ public class VoskSttService implements SttService {
             LibVosk.setLogLevel(LogLevel.WARNINGS);
 
             // 加载模型，路径为配置的模型目录
-            voskModelPath = System.getProperty("user.dir") + File.separator + Paths.get("models", "vosk-model");
+            voskModelPath = Paths.get(System.getProperty("user.dir")).resolve(modelPath).toString();
             model = new Model(voskModelPath);
+            pool = new VoskRecognizerPool(model, AudioUtils.SAMPLE_RATE, poolSize);
             modelLoaded = true;
-            logger.info("Vosk 模型加载成功！路径: {}", voskModelPath);
+            logger.info("Vosk 模型加载成功！路径: {}, 识别器上限: {}", voskModelPath, pool.size());
         } catch (Exception e) {
             modelLoaded = false;
             logger.warn("Vosk 模型加载失败！将使用其他STT服务: {}", e.getMessage());
@@ -101,29 +126,43 @@ public class VoskSttService implements SttService {
         // 将原始音频数据转换为WAV格式并保存
         String fileName = AudioUtils.saveAsWav(audioData);
 
-        try (Recognizer recognizer = new Recognizer(model, AudioUtils.SAMPLE_RATE)) {
+        Recognizer recognizer = acquireRecognizer();
+        if (recognizer == null) {
+            SttService service = fallbackService();
+            return service != null ? service.recognition(audioData) : null;
+        }
+        boolean reusable = false;
+        try {
             ByteArrayInputStream audioStream = new ByteArrayInputStream(audioData);
 
             byte[] buffer = new byte[4096];
             int bytesRead;
+            String text = null;
 
             while ((bytesRead = audioStream.read(buffer)) != -1) {
                 if (recognizer.acceptWaveForm(buffer, bytesRead)) {
                     // 如果识别到完整的结果
                     String result = recognizer.getResult();
                     JSONObject jsonResult = new JSONObject(result);
-                    return jsonResult.getString("text").replaceAll("\\s+", "");
+                    text = jsonResult.getString("text").replaceAll("\\s+", "");
+                    break;
                 }
             }
 
-            // 返回最终的识别结果
-            String finalResult = recognizer.getFinalResult();
-            JSONObject jsonFinal = new JSONObject(finalResult);
-            return jsonFinal.getString("text").replaceAll("\\s+", "");
+            if (text == null) {
+                // 返回最终的识别结果
+                String finalResult = recognizer.getFinalResult();
+                JSONObject jsonFinal = new JSONObject(finalResult);
+                text = jsonFinal.getString("text").replaceAll("\\s+", "");
+            }
+            reusable = true;
+            return text;
 
         } catch (Exception e) {
             logger.error("处理音频时发生错误！", e);
             return null;
+        } finally {
+            pool.release(recognizer, reusable);
         }
     }
 
@@ -134,81 +173,116 @@ public class VoskSttService implements SttService {
 
     @Override
     public String streamRecognition(Sinks.Many<byte[]> audioSink) {
+        return streamRecognition(audioSink, null);
+    }
+
+    @Override
+    public String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialConsumer) {
         if (!isModelLoaded()) {
             logger.error("Vosk模型未加载，无法进行流式识别！");
             return null;
         }
 
-        // 使用阻塞队列存储音频数据
-        BlockingQueue<byte[]> audioQueue = new LinkedBlockingQueue<>();
-        AtomicBoolean isCompleted = new AtomicBoolean(false);
+        Recognizer recognizer = acquireRecognizer();
+        if (recognizer == null) {
+            // 音频Sink还没有订阅者，备用服务可以从头接收这句话的音频
+            SttService service = fallbackService();
+            return service != null ? service.streamRecognition(audioSink, partialConsumer) : null;
+        }
+
         List<String> recognizedText = new ArrayList<>();
         StringBuilder finalResult = new StringBuilder();
+        boolean reusable = false;
 
-        // 订阅Sink并将数据放入队列
-        audioSink.asFlux().subscribe(
-                data -> audioQueue.offer(data),
-                error -> {
-                    logger.error("音频流处理错误", error);
-                    isCompleted.set(true);
-                },
-                () -> isCompleted.set(true)
-        );
-
-        // 使用虚拟线程处理音频识别
         try {
-            Thread.startVirtualThread(() -> {
-                try (Recognizer recognizer = new Recognizer(model, AudioUtils.SAMPLE_RATE)) {
-                    while (!isCompleted.get() || !audioQueue.isEmpty()) {
-                        try {
-                            byte[] audioChunk = audioQueue.poll(100, TimeUnit.MILLISECONDS);
-                            if (audioChunk != null) {
-                                boolean hasResult = recognizer.acceptWaveForm(audioChunk, audioChunk.length);
-                                if (hasResult) {
-                                    // 提取部分识别结果中的文本
-                                    String result = recognizer.getResult();
-                                    JSONObject jsonResult = new JSONObject(result);
-                                    if (jsonResult.has("text") && !jsonResult.getString("text").isEmpty()) {
-                                        String text = jsonResult.getString("text").replaceAll("\\s+", "");
-                                        recognizedText.add(text);
-                                        logger.debug("Vosk识别中间结果: {}", text);
-                                    }
-                                }
-                            }
-
-                            // 如果已完成且队列为空，获取最终结果
-                            if (isCompleted.get() && audioQueue.isEmpty()) {
-                                String finalText = recognizer.getFinalResult();
-                                JSONObject jsonFinal = new JSONObject(finalText);
-                                if (jsonFinal.has("text")) {
-                                    String text = jsonFinal.getString("text").replaceAll("\\s+", "");
-                                    if (!text.isEmpty()) {
-                                        recognizedText.add(text);
-                                        logger.debug("Vosk识别最终结果: {}", text);
-                                    }
-                                }
-                                break;
-                            }
-                        } catch (InterruptedException e) {
-                            logger.warn("音频数据队列等待被中断", e);
-                            Thread.currentThread().interrupt(); // 重新设置中断标志
-                            break;
+            // 音频到达即送入识别器，发送端串行执行，识别器不会被并发访问
+            SttAudioFeed.Feed feed = SttAudioFeed.forward(audioSink, audioChunk -> {
+                boolean hasResult = recognizer.acceptWaveForm(audioChunk, audioChunk.length);
+                if (hasResult) {
+                    // 提取部分识别结果中的文本
+                    String result = recognizer.getResult();
+                    JSONObject jsonResult = new JSONObject(result);
+                    if (jsonResult.has("text") && !jsonResult.getString("text").isEmpty()) {
+                        String text = jsonResult.getString("text").replaceAll("\\s+", "");
+                        recognizedText.add(text);
+                        logger.debug("Vosk识别中间结果: {}", text);
+                        if (partialConsumer != null) {
+                            partialConsumer.accept(String.join("", recognizedText));
                         }
                     }
+                }
+            });
 
-                    // 合并所有识别结果
-                    for (String text : recognizedText) {
-                        finalResult.append(text);
-                    }
+            // 等待音频全部送入识别器
+            try {
+                feed.drained().join();
+            } catch (Exception e) {
+                logger.error("Vosk流式识别过程中发生错误", e);
+            }
 
-                } catch (Exception e) {
-                    logger.error("Vosk流式识别过程中发生错误", e);
+            // 音频流结束，获取最终结果
+            String finalText = recognizer.getFinalResult();
+            JSONObject jsonFinal = new JSONObject(finalText);
+            if (jsonFinal.has("text")) {
+                String text = jsonFinal.getString("text").replaceAll("\\s+", "");
+                if (!text.isEmpty()) {
+                    recognizedText.add(text);
+                    logger.debug("Vosk识别最终结果: {}", text);
                 }
-            }).join(); // 等待虚拟线程完成
+            }
+
+            // 合并所有识别结果
+            for (String text : recognizedText) {
+                finalResult.append(text);
+            }
+            reusable = feed.drained().isDone() && !feed.drained().isCompletedExceptionally();
         } catch (Exception e) {
-            logger.error("启动虚拟线程失败", e);
+            logger.error("Vosk流式识别过程中发生错误", e);
+        } finally {
+            pool.release(recognizer, reusable);
         }
 
         return finalResult.toString();
     }
+
+    /**
+     * 关闭识别器池并释放模型，配置变更或服务移除时调用
+     */
+    public void shutdown() {
+        modelLoaded = false;
+        if (pool != null) {
+            pool.close();
+        }
+        if (model != null) {
+            model.close();
+        }
+    }
+
+    /**
+     * 从识别器池取识别器，池满等待超时返回null
+     */
+    private Recognizer acquireRecognizer() {
+        try {
+            Recognizer recognizer = pool.acquire(acquireTimeoutMs);
+            if (recognizer == null) {
+                logger.warn("Vosk识别器已全部占用（上限 {}），本句转用备用服务", pool.size());
+            }
+            return recognizer;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            logger.error("创建Vosk识别器失败", e);
+            return null;
+        }
+    }
+
+    private SttService fallbackService() {
+        SttService service = fallback != null ? fallback.get() : null;
+        if (service == null || service == this) {
+            logger.warn("没有可用的备用STT服务，本句不识别");
+            return null;
+        }
+        return service;
+    }
 }
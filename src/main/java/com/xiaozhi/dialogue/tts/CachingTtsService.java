@@ -0,0 +1,91 @@
+package com.xiaozhi.dialogue.tts;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 带短语缓存的TTS服务
+ * 包装具体服务商的实现，命中缓存时直接返回已合成的音频，未命中时调用服务商并把结果写入缓存。
+ */
+public class CachingTtsService implements TtsService {
+
+    private final TtsService delegate;
+    private final TtsCache cache;
+    // 服务商和配置ID
+    private final String lane;
+    private final String voiceName;
+
+    public CachingTtsService(TtsService delegate, TtsCache cache, String lane, String voiceName) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.lane = lane;
+        this.voiceName = voiceName;
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+
+    @Override
+    public String audioFormat() {
+        return delegate.audioFormat();
+    }
+
+    @Override
+    public String getAudioFileName() {
+        return delegate.getAudioFileName();
+    }
+
+    @Override
+    public boolean isSupportStreamTts() {
+        return delegate.isSupportStreamTts();
+    }
+
+    @Override
+    public String cachedAudio(String text) {
+        return cache.get(cache.key(lane, voiceName, text));
+    }
+
+    @Override
+    public String textToSpeech(String text) throws Exception {
+        String key = cache.key(lane, voiceName, text);
+        String cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        String audioPath = delegate.textToSpeech(text);
+        // 合成失败返回空路径，不写入缓存
+        if (StrUtil.isNotBlank(audioPath)) {
+            cache.put(key, lane, voiceName, text, audioPath);
+        }
+        return audioPath;
+    }
+
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
+        String key = cache.key(lane, voiceName, text);
+        if (key == null) {
+            delegate.streamTextToSpeech(text, audioDataConsumer);
+            return;
+        }
+        // 边转发边保留PCM，合成正常结束才写入缓存；消费者取消后服务商可能吞掉异常正常返回，此时音频不完整
+        ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        delegate.streamTextToSpeech(text, chunk -> {
+            pcm.write(chunk, 0, chunk.length);
+            try {
+                audioDataConsumer.accept(chunk);
+            } catch (RuntimeException e) {
+                cancelled.set(true);
+                throw e;
+            }
+        });
+        if (!cancelled.get()) {
+            cache.putPcm(key, lane, voiceName, text, pcm.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.xiaozhi.dialogue.tts;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.utils.JsonUtil;
+import com.xiaozhi.utils.OpusFrameCache;
+import com.xiaozhi.utils.StatsGauges;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 短语级TTS结果缓存
+ * 问候语、错误提示、角色开场白等常用短句反复出现，按“服务商:配置ID + 音色 + 规范化文本”缓存合成结果，命中时不再请求服务商。
+ * 合成的音频文件保存在缓存目录，命中时硬链接为新的音频文件返回，对话历史合并后删除该文件不影响缓存；
+ * 播放时按文件内容命中Opus帧缓存，无需再次转码。
+ * 索引持久化在磁盘上，重启后继续使用；按TTL和总大小（最久未访问优先）淘汰。
+ * 统计信息（含命中率）注册为tts.cache.*指标。
+ */
+@Component
+public class TtsCache implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(TtsCache.class);
+
+    private static final String CACHE_DIR = AudioUtils.AUDIO_PATH + "cache/tts/";
+    private static final String INDEX_FILE = "index.json";
+    // 索引变更后延迟写盘的时间
+    private static final long FLUSH_DELAY_SECONDS = 10;
+    // 命中时返回的音频文件名前缀，播放端据此判断音频会重复出现、值得缓存Opus帧
+    private static final String COPY_PREFIX = "ttscache-";
+
+    @Value("${tts.cache.enabled:true}")
+    private boolean enabled;
+
+    // 只缓存不超过该长度的短句，长句重复率低
+    @Value("${tts.cache.max-text-length:40}")
+    private int maxTextLength;
+
+    @Value("${tts.cache.max-mb:256}")
+    private long maxMb;
+
+    @Value("${tts.cache.ttl-days:30}")
+    private long ttlDays;
+
+    /**
+     * 索引条目
+     */
+    record Entry(String key, String lane, String voice, String text, String file, long bytes,
+            long createdAt, long lastAccessAt, long hits) {
+
+        Entry touch() {
+            return new Entry(key, lane, voice, text, file, bytes, createdAt, System.currentTimeMillis(), hits + 1);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "tts-cache-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 统计信息
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stores = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(Paths.get(CACHE_DIR));
+            loadIndex();
+            logger.info("TTS缓存已启用 - 条目: {}, 已用: {}KB, 上限: {}MB, TTL: {}天",
+                    index.size(), totalBytes.get() / 1024, maxMb, ttlDays);
+        } catch (IOException e) {
+            logger.warn("初始化TTS缓存失败: {}", e.getMessage());
+            enabled = false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+        if (enabled) {
+            flushIndex();
+        }
+    }
+
+    /**
+     * 缓存键，不缓存时返回null
+     *
+     * @param lane  服务商和配置ID，如"aliyun:3"
+     * @param voice 音色
+     * @param text  合成的文本
+     */
+    public String key(String lane, String voice, String text) {
+        if (!enabled || text == null) {
+            return null;
+        }
+        String normalized = normalize(text);
+        if (normalized.isEmpty() || normalized.length() > maxTextLength) {
+            return null;
+        }
+        return OpusFrameCache.ttsKey(lane, voice, normalized);
+    }
+
+    /**
+     * 查询缓存，命中时返回新的音频文件路径（调用方可以随意删除）
+     */
+    public String get(String key) {
+        Path cached = lookup(key);
+        if (cached == null) {
+            return null;
+        }
+        String fileName = COPY_PREFIX + UUID.randomUUID().toString().replace("-", "")
+                + extensionOf(cached.getFileName().toString());
+        Path target = Paths.get(AudioUtils.AUDIO_PATH, fileName);
+        try {
+            link(cached, target);
+            return AudioUtils.AUDIO_PATH + fileName;
+        } catch (IOException e) {
+            logger.warn("复制TTS缓存文件失败: {}, 错误: {}", cached, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 音频文件是否为缓存命中时返回的副本
+     */
+    public static boolean isCachedCopy(String audioPath) {
+        return audioPath != null && Paths.get(audioPath).getFileName().toString().startsWith(COPY_PREFIX);
+    }
+
+    /**
+     * 缓存服务商合成的音频文件
+     */
+    public void put(String key, String lane, String voice, String text, String audioPath) {
+        if (key == null || audioPath == null || index.containsKey(key)) {
+            return;
+        }
+        Path source = Paths.get(audioPath);
+        try {
+            // 合成失败时服务商返回空路径，解析为工作目录，只缓存非空的普通文件
+            if (!Files.isRegularFile(source) || Files.size(source) == 0) {
+                return;
+            }
+        } catch (IOException e) {
+            return;
+        }
+        Path target = Paths.get(CACHE_DIR, key + extensionOf(source.getFileName().toString()));
+        try {
+            link(source, target);
+            register(key, lane, voice, text, target);
+        } catch (IOException e) {
+            logger.warn("写入TTS缓存失败: {}, 错误: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * 缓存流式合成的PCM（16kHz单声道16位小端）
+     */
+    public void putPcm(String key, String lane, String voice, String text, byte[] pcm) {
+        if (key == null || pcm == null || pcm.length == 0 || index.containsKey(key)) {
+            return;
+        }
+        Path target = Paths.get(CACHE_DIR, key + ".wav");
+        Path tmp = Paths.get(CACHE_DIR, key + "." + UUID.randomUUID() + ".tmp");
+        AudioUtils.saveAsWav(tmp, pcm);
+        try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            register(key, lane, voice, text, target);
+        } catch (IOException e) {
+            logger.warn("写入TTS缓存失败: {}, 错误: {}", key, e.getMessage());
+            tmp.toFile().delete();
+        }
+    }
+
+    /**
+     * 移除某个服务商配置的全部缓存，配置修改后调用
+     */
+    public void invalidate(String lane) {
+        if (!enabled) {
+            return;
+        }
+        index.values().stream()
+                .filter(entry -> entry.lane().equals(lane))
+                .forEach(this::remove);
+        scheduleFlush();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        StatsGauges.register(registry, "tts.cache", Tags.empty(), this::getStats);
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        stats.put("entries", index.size());
+        stats.put("bytes", totalBytes.get());
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.get());
+        stats.put("hitRate", total == 0 ? 0.0 : hitCount / (double) total);
+        stats.put("stores", stores.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    private Path lookup(String key) {
+        if (key == null) {
+            return null;
+        }
+        Entry entry = index.get(key);
+        if (entry != null && isExpired(entry)) {
+            remove(entry);
+            scheduleFlush();
+            entry = null;
+        }
+        Path cached = entry != null ? Paths.get(CACHE_DIR, entry.file()) : null;
+        if (cached == null || !Files.exists(cached)) {
+            if (entry != null) {
+                remove(entry);
+                scheduleFlush();
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        index.computeIfPresent(key, (k, current) -> current.touch());
+        hits.incrementAndGet();
+        scheduleFlush();
+        return cached;
+    }
+
+    private void register(String key, String lane, String voice, String text, Path file) {
+        long now = System.currentTimeMillis();
+        long bytes = file.toFile().length();
+        Entry entry = new Entry(key, lane, voice, normalize(text), file.getFileName().toString(), bytes, now, now, 0);
+        if (index.putIfAbsent(key, entry) != null) {
+            return;
+        }
+        stores.incrementAndGet();
+        if (totalBytes.addAndGet(bytes) > maxMb * 1024 * 1024) {
+            evict();
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * 按最后访问时间淘汰，直到降到上限的90%
+     */
+    private synchronized void evict() {
+        long target = maxMb * 1024 * 1024 * 9 / 10;
+        if (totalBytes.get() <= target) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>(index.values());
+        entries.sort(Comparator.comparingLong(Entry::lastAccessAt));
+        for (Entry entry : entries) {
+            if (totalBytes.get() <= target) {
+                break;
+            }
+            remove(entry);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(Entry entry) {
+        // 条目命中后会被替换为新对象，按键移除
+        if (index.remove(entry.key()) == null) {
+            return;
+        }
+        totalBytes.addAndGet(-entry.bytes());
+        try {
+            Files.deleteIfExists(Paths.get(CACHE_DIR, entry.file()));
+        } catch (IOException e) {
+            logger.warn("删除TTS缓存文件失败: {}, 错误: {}", entry.file(), e.getMessage());
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return ttlDays > 0 && System.currentTimeMillis() - entry.createdAt() > TimeUnit.DAYS.toMillis(ttlDays);
+    }
+
+    private void loadIndex() throws IOException {
+        Path indexPath = Paths.get(CACHE_DIR, INDEX_FILE);
+        if (Files.exists(indexPath)) {
+            List<Entry> entries = JsonUtil.fromJson(Files.readString(indexPath), new TypeReference<List<Entry>>() {
+            });
+            if (entries != null) {
+                for (Entry entry : entries) {
+                    File file = new File(CACHE_DIR, entry.file());
+                    if (file.exists() && !isExpired(entry)) {
+                        index.put(entry.key(), entry);
+                        totalBytes.addAndGet(entry.bytes());
+                    }
+                }
+            }
+        }
+
+        // 删除索引之外的文件（过期条目、上次未写入索引的文件）
+        Set<String> known = new HashSet<>();
+        index.values().forEach(entry -> known.add(entry.file()));
+        File[] files = new File(CACHE_DIR).listFiles((dir, name) -> !name.equals(INDEX_FILE));
+        if (files != null) {
+            for (File file : files) {
+                if (!known.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+        if (totalBytes.get() > maxMb * 1024 * 1024) {
+            evict();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                flusher.schedule(() -> {
+                    flushScheduled.set(false);
+                    flushIndex();
+                }, FLUSH_DELAY_SECONDS, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * 先写临时文件再原子替换，写到一半宕机不会损坏索引
+     */
+    private synchronized void flushIndex() {
+        Path indexPath = Paths.get(CACHE_DIR, INDEX_FILE);
+        Path tmp = Paths.get(CACHE_DIR, INDEX_FILE + ".tmp");
+        try {
+            Files.writeString(tmp, JsonUtil.toJson(new ArrayList<>(index.values())));
+            Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("写入TTS缓存索引失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 规范化文本：全半角统一、去掉首尾空白、连续空白合并
+     */
+    private static String normalize(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * 优先硬链接，文件系统不支持时复制
+     */
+    private static void link(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String extensionOf(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot >= 0 ? fileName.substring(dot) : "";
+    }
+}
@@ -0,0 +1,348 @@
+package com.xiaozhi.dialogue.tts;
+
+import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
+import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.service.SysConfigService;
+import com.xiaozhi.utils.StatsGauges;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TTS对冲请求
+ * 主服务商超过其近期P95耗时仍未返回（或直接失败）时，把同一句话发给备用服务（默认本地Edge），谁先成功用谁，
+ * 另一个请求随即取消，其生成的文件删除。主服务商的耗时按TTS配置分别统计，对冲阈值随之自适应。
+ * 默认只对首句对冲，首句的尾延迟直接决定用户听到第一声的时间，其余句子有播放缓冲兜底。
+ * 对冲会额外消耗备用服务的请求，默认关闭，需要通过tts.hedge.enabled开启。
+ * 对冲次数和备用胜出次数注册为tts.hedge.*指标，各配置的对冲阈值注册为tts.hedge.delay.ms指标。
+ */
+@Component
+public class TtsHedger implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(TtsHedger.class);
+
+    // 每个配置保留的最近耗时样本数
+    private static final int WINDOW_SIZE = 100;
+    // 样本不足时使用默认阈值
+    private static final int MIN_SAMPLES = 10;
+
+    @Value("${tts.hedge.enabled:false}")
+    private boolean enabled;
+
+    // 是否对所有句子对冲，默认只对首句
+    @Value("${tts.hedge.all-sentences:false}")
+    private boolean allSentences;
+
+    @Value("${tts.hedge.default-delay-ms:3000}")
+    private long defaultDelayMs;
+
+    @Value("${tts.hedge.min-delay-ms:800}")
+    private long minDelayMs;
+
+    @Value("${tts.hedge.max-delay-ms:5000}")
+    private long maxDelayMs;
+
+    // 备用服务的TTS配置ID，不配置时使用默认Edge
+    @Value("${tts.hedge.fallback-config-id:#{null}}")
+    private Integer fallbackConfigId;
+
+    @Value("${tts.hedge.fallback-voice:zh-CN-XiaoyiNeural}")
+    private String fallbackVoice;
+
+    @Resource
+    private TtsServiceFactory ttsFactory;
+
+    @Resource
+    private SysConfigService configService;
+
+    private final ConcurrentHashMap<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    private volatile MeterRegistry meterRegistry;
+
+    // 统计信息
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong fallbackWins = new AtomicLong();
+
+    /**
+     * 最近若干次成功合成的耗时
+     */
+    private static final class LatencyWindow {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int count = 0;
+        private int next = 0;
+
+        private synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % WINDOW_SIZE;
+            count = Math.min(count + 1, WINDOW_SIZE);
+        }
+
+        private synchronized long percentile(double p, long fallback) {
+            if (count < MIN_SAMPLES) {
+                return fallback;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[Math.min(count - 1, (int) Math.ceil(p * count) - 1)];
+        }
+    }
+
+    /**
+     * 合成一句话，需要时对冲到备用服务
+     *
+     * @param config    主服务的TTS配置，为null时表示默认Edge
+     * @param primary   主服务
+     * @param isFirst   是否首句
+     * @param timeoutMs 总超时
+     * @return 音频文件路径
+     * @throws TimeoutException 超时仍没有任何服务返回
+     */
+    public String textToSpeech(SysConfig config, TtsService primary, String text, boolean isFirst, long timeoutMs)
+            throws Exception {
+        String lane = laneOf(config);
+        long startNanos = System.nanoTime();
+        CompletableFuture<String> first = synthesize(primary, text);
+        first.thenAccept(path -> recordLatency(lane, startNanos));
+
+        TtsService fallback = shouldHedge(isFirst) ? fallbackService(lane) : null;
+        if (fallback == null) {
+            try {
+                return await(first, timeoutMs);
+            } finally {
+                first.cancel(true);
+            }
+        }
+
+        long delayMs = Math.min(hedgeDelayMs(lane), timeoutMs);
+        try {
+            return await(first, delayMs);
+        } catch (TimeoutException e) {
+            logger.info("TTS对冲 - 主服务 {} 超过 {}ms 未返回，转发备用服务", lane, delayMs);
+        } catch (Exception e) {
+            logger.info("TTS对冲 - 主服务 {} 失败，转发备用服务: {}", lane, e.getMessage());
+        }
+        CompletableFuture<String> second = hedge(fallback, text);
+        try {
+            String path = await(firstSuccessful(first, second), timeoutMs - elapsedMs(startNanos));
+            if (path.equals(resultOf(second))) {
+                recordFallbackWin();
+            }
+            discardLoser(first, path);
+            discardLoser(second, path);
+            return path;
+        } finally {
+            // 主服务被取消时，已等待的时间作为耗时下限计入统计，避免阈值只反映快的请求
+            if (!first.isDone()) {
+                recordLatency(lane, startNanos);
+            }
+            first.cancel(true);
+            second.cancel(true);
+        }
+    }
+
+    /**
+     * 是否对该句对冲
+     */
+    public boolean shouldHedge(boolean isFirst) {
+        return enabled && (isFirst || allSentences);
+    }
+
+    /**
+     * 主服务的对冲阈值：近期P95耗时，限制在最小和最大值之间
+     */
+    public long hedgeDelayMs(SysConfig config) {
+        return hedgeDelayMs(laneOf(config));
+    }
+
+    /**
+     * 备用服务，与主服务相同或不可用时返回null
+     */
+    public TtsService fallbackService(SysConfig config) {
+        return fallbackService(laneOf(config));
+    }
+
+    /**
+     * 记录主服务一次合成的耗时
+     */
+    public void recordLatency(SysConfig config, long startNanos) {
+        recordLatency(laneOf(config), startNanos);
+    }
+
+    /**
+     * 向备用服务发出对冲请求
+     */
+    public CompletableFuture<String> hedge(TtsService fallback, String text) {
+        hedges.incrementAndGet();
+        return synthesize(fallback, text);
+    }
+
+    /**
+     * 记录一次备用服务胜出
+     */
+    public void recordFallbackWin() {
+        fallbackWins.incrementAndGet();
+    }
+
+    /**
+     * 在虚拟线程中合成，取消返回的Future会中断合成线程；取消后才生成的文件直接删除
+     */
+    public CompletableFuture<String> synthesize(TtsService service, String text) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Thread thread = Thread.startVirtualThread(() -> {
+            try {
+                String path = service.textToSpeech(text);
+                if (!future.complete(path)) {
+                    deleteQuietly(path);
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        });
+        future.whenComplete((path, error) -> {
+            if (future.isCancelled()) {
+                thread.interrupt();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 输掉对冲的请求：未完成的取消，已生成的文件删除
+     */
+    public void discardLoser(CompletableFuture<String> future, String winnerPath) {
+        if (!future.cancel(true)) {
+            String path = resultOf(future);
+            if (path != null && !path.equals(winnerPath)) {
+                deleteQuietly(path);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        StatsGauges.register(registry, "tts.hedge", Tags.empty(), this::getStats);
+        meterRegistry = registry;
+        latencies.keySet().forEach(lane -> registerDelayGauge(registry, lane));
+    }
+
+    private void registerDelayGauge(MeterRegistry registry, String lane) {
+        Gauge.builder("tts.hedge.delay.ms", lane, this::hedgeDelayMs)
+                .tag("lane", lane)
+                .register(registry);
+    }
+
+    /**
+     * 对冲统计信息
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hedges", hedges.get());
+        stats.put("fallbackWins", fallbackWins.get());
+        Map<String, Long> delays = new TreeMap<>();
+        latencies.keySet().forEach(lane -> delays.put(lane, hedgeDelayMs(lane)));
+        stats.put("hedgeDelayMs", delays);
+        return stats;
+    }
+
+    private long hedgeDelayMs(String lane) {
+        LatencyWindow window = latencies.get(lane);
+        long p95 = window != null ? window.percentile(0.95, defaultDelayMs) : defaultDelayMs;
+        return Math.max(minDelayMs, Math.min(maxDelayMs, p95));
+    }
+
+    private TtsService fallbackService(String lane) {
+        SysConfig config = fallbackConfigId != null ? configService.selectConfigById(fallbackConfigId) : null;
+        if (laneOf(config).equals(lane)) {
+            return null;
+        }
+        try {
+            return config != null ? ttsFactory.getTtsService(config, fallbackVoice) : ttsFactory.getDefaultTtsService();
+        } catch (Exception e) {
+            logger.warn("获取备用TTS服务失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void recordLatency(String lane, long startNanos) {
+        LatencyWindow window = latencies.get(lane);
+        if (window == null) {
+            LatencyWindow created = new LatencyWindow();
+            window = latencies.putIfAbsent(lane, created);
+            if (window == null) {
+                window = created;
+                MeterRegistry registry = meterRegistry;
+                if (registry != null) {
+                    registerDelayGauge(registry, lane);
+                }
+            }
+        }
+        window.record(elapsedMs(startNanos));
+    }
+
+    /**
+     * 与TTS调度器一致的配置标识：服务商:配置ID，默认服务为edge
+     */
+    private static String laneOf(SysConfig config) {
+        if (config == null || config.getProvider() == null) {
+            return "edge";
+        }
+        return config.getProvider() + ":" + config.getConfigId();
+    }
+
+    /**
+     * 任一请求成功即完成，全部失败时以最后一个错误完成
+     */
+    private static CompletableFuture<String> firstSuccessful(CompletableFuture<String> a, CompletableFuture<String> b) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<String> future : List.of(a, b)) {
+            future.whenComplete((path, error) -> {
+                if (error == null && path != null) {
+                    result.complete(path);
+                } else if (failures.incrementAndGet() == 2) {
+                    result.completeExceptionally(error != null ? error : new IOException("未返回音频"));
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * 已成功完成的结果，未完成或失败时返回null
+     */
+    private static String resultOf(CompletableFuture<String> future) {
+        return future.isDone() && !future.isCompletedExceptionally() ? future.join() : null;
+    }
+
+    private static String await(CompletableFuture<String> future, long timeoutMs) throws Exception {
+        try {
+            return future.get(Math.max(0, timeoutMs), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static void deleteQuietly(String path) {
+        if (path != null && !new File(path).delete()) {
+            logger.debug("删除对冲落选的音频文件失败: {}", path);
+        }
+    }
+}
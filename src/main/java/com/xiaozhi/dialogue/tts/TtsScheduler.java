@@ -0,0 +1,320 @@
+package com.xiaozhi.dialogue.tts;
+
+import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.StatsGauges;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 全局TTS请求调度器
+ * 按TTS配置（服务商 + 配置ID）分通道，每个通道有并发上限和令牌桶限速，所有会话共享，避免突发请求超出服务商的QPS限制。
+ * 通道内每个会话是一个流，流之间按开始时间公平排队（SFQ）：请求的代价按文本长度计，
+ * 长文本多的会话不会挤占其他会话；首句请求跨会话优先，保证负载高时首包时延不劣化。
+ * 同一会话内按提交的序号出队，并受会话并发上限约束。
+ *
+ * 服务商的限制可以通过配置覆盖，例如：
+ * tts.scheduler.provider.aliyun.max-concurrent=3
+ * tts.scheduler.provider.aliyun.qps=3
+ *
+ * 各通道的调度统计注册为tts.scheduler.*指标，以lane标签区分通道。
+ */
+@Component
+public class TtsScheduler implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(TtsScheduler.class);
+
+    // 未配置TTS时使用的默认服务
+    private static final String DEFAULT_PROVIDER = "edge";
+    // 已知服务商的默认并发上限，cosyvoice默认并发只有3个
+    private static final Map<String, Integer> PROVIDER_CONCURRENCY = Map.of("aliyun", 3);
+
+    @Value("${tts.scheduler.max-concurrent:10}")
+    private int defaultMaxConcurrent;
+
+    @Value("${tts.scheduler.qps:10}")
+    private double defaultQps;
+
+    @Value("${tts.max.concurrent.per.session:3}")
+    private int maxConcurrentPerSession;
+
+    @Autowired
+    private Environment environment;
+
+    private final ConcurrentHashMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    // 指标注册表，绑定前创建的通道在绑定时补注册
+    private volatile MeterRegistry meterRegistry;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "tts-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 一次TTS请求
+     */
+    private static final class Job {
+        private final String sessionId;
+        private final boolean urgent;
+        private final long order;
+        private final double cost;
+        private final Runnable task;
+        private final long submitNanos = System.nanoTime();
+
+        private Job(String sessionId, boolean urgent, long order, double cost, Runnable task) {
+            this.sessionId = sessionId;
+            this.urgent = urgent;
+            this.order = order;
+            this.cost = cost;
+            this.task = task;
+        }
+    }
+
+    /**
+     * 一个会话在通道中的流
+     */
+    private static final class Flow {
+        // 紧急请求在前，其余按序号
+        private final PriorityQueue<Job> jobs = new PriorityQueue<>(
+                Comparator.comparing((Job job) -> !job.urgent).thenComparingLong(job -> job.order));
+        private double lastFinish = 0;
+        private int inFlight = 0;
+    }
+
+    /**
+     * 一个TTS配置的调度通道
+     */
+    private final class Lane {
+        private final String key;
+        private final int maxConcurrent;
+        private final double qps;
+        private final double burst;
+
+        private final Map<String, Flow> flows = new LinkedHashMap<>();
+        private double tokens;
+        private long refillNanos = System.nanoTime();
+        private double virtualTime = 0;
+        private int inFlight = 0;
+        private int queued = 0;
+        private boolean wakeScheduled = false;
+
+        // 统计信息
+        private long dispatched = 0;
+        private long throttled = 0;
+        private long totalWaitNanos = 0;
+        private long maxWaitNanos = 0;
+
+        private Lane(String key, int maxConcurrent, double qps) {
+            this.key = key;
+            this.maxConcurrent = Math.max(1, maxConcurrent);
+            this.qps = qps;
+            this.burst = Math.max(1, qps);
+            this.tokens = burst;
+        }
+
+        private synchronized void enqueue(Job job) {
+            flows.computeIfAbsent(job.sessionId, k -> new Flow()).jobs.offer(job);
+            queued++;
+            dispatch();
+        }
+
+        private synchronized void dispatch() {
+            while (inFlight < maxConcurrent) {
+                Flow flow = pickFlow();
+                if (flow == null) {
+                    return;
+                }
+                if (!takeToken()) {
+                    return;
+                }
+
+                Job job = flow.jobs.poll();
+                double start = Math.max(virtualTime, flow.lastFinish);
+                flow.lastFinish = start + job.cost;
+                virtualTime = start;
+                flow.inFlight++;
+                inFlight++;
+                queued--;
+
+                long waitNanos = System.nanoTime() - job.submitNanos;
+                dispatched++;
+                totalWaitNanos += waitNanos;
+                maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+
+                Thread.startVirtualThread(() -> run(flow, job));
+            }
+        }
+
+        /**
+         * 选出下一个服务的流：有紧急请求的流优先，其次开始时间最小的流，跳过已达会话并发上限的流
+         */
+        private Flow pickFlow() {
+            Flow best = null;
+            boolean bestUrgent = false;
+            double bestStart = 0;
+            for (Flow flow : flows.values()) {
+                Job head = flow.jobs.peek();
+                if (head == null || flow.inFlight >= maxConcurrentPerSession) {
+                    continue;
+                }
+                double start = Math.max(virtualTime, flow.lastFinish);
+                if (best == null
+                        || (head.urgent && !bestUrgent)
+                        || (head.urgent == bestUrgent && start < bestStart)) {
+                    best = flow;
+                    bestUrgent = head.urgent;
+                    bestStart = start;
+                }
+            }
+            return best;
+        }
+
+        private boolean takeToken() {
+            if (qps <= 0) {
+                return true;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refillNanos) / 1_000_000_000.0 * qps);
+            refillNanos = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            // 令牌不足，等到下一个令牌生成时再调度
+            throttled++;
+            if (!wakeScheduled) {
+                wakeScheduled = true;
+                long waitNanos = (long) Math.ceil((1 - tokens) / qps * 1_000_000_000L);
+                timer.schedule(() -> {
+                    synchronized (this) {
+                        wakeScheduled = false;
+                        dispatch();
+                    }
+                }, waitNanos, TimeUnit.NANOSECONDS);
+            }
+            return false;
+        }
+
+        private void run(Flow flow, Job job) {
+            try {
+                job.task.run();
+            } catch (Exception e) {
+                logger.error("TTS任务执行异常 - 通道: {}, SessionId: {}", key, job.sessionId, e);
+            } finally {
+                synchronized (this) {
+                    flow.inFlight--;
+                    inFlight--;
+                    if (flow.inFlight == 0 && flow.jobs.isEmpty()) {
+                        flows.remove(job.sessionId, flow);
+                    }
+                    dispatch();
+                }
+            }
+        }
+
+        private synchronized void cancelSession(String sessionId) {
+            Flow flow = flows.get(sessionId);
+            if (flow == null) {
+                return;
+            }
+            queued -= flow.jobs.size();
+            flow.jobs.clear();
+            if (flow.inFlight == 0) {
+                flows.remove(sessionId);
+            }
+        }
+
+        private synchronized Map<String, Object> getStats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("maxConcurrent", maxConcurrent);
+            stats.put("qps", qps);
+            stats.put("inFlight", inFlight);
+            stats.put("queued", queued);
+            stats.put("sessions", flows.size());
+            stats.put("dispatched", dispatched);
+            stats.put("throttled", throttled);
+            stats.put("avgWaitMs", dispatched == 0 ? 0.0 : totalWaitNanos / (double) dispatched / 1_000_000);
+            stats.put("maxWaitMs", maxWaitNanos / 1_000_000.0);
+            return stats;
+        }
+    }
+
+    /**
+     * 提交TTS请求，获得执行许可后在虚拟线程中运行，任务返回即释放许可
+     *
+     * @param config    TTS配置，为null时使用默认服务
+     * @param sessionId 会话ID，同一会话的请求构成一个公平排队的流
+     * @param urgent    是否跨会话优先（如首句）
+     * @param order     会话内的出队顺序，小的先出
+     * @param text      合成的文本，用于估算代价
+     * @param task      执行合成的任务，应阻塞到合成结束
+     */
+    public void submit(SysConfig config, String sessionId, boolean urgent, long order, String text, Runnable task) {
+        // 代价按文本长度计，约50字为一个单位，至少为1
+        double cost = 1 + (text == null ? 0 : text.length() / 50.0);
+        laneOf(config).enqueue(new Job(sessionId, urgent, order, cost, task));
+    }
+
+    /**
+     * 丢弃会话尚未执行的请求
+     */
+    public void cancelSession(String sessionId) {
+        lanes.values().forEach(lane -> lane.cancelSession(sessionId));
+    }
+
+    /**
+     * 各通道的调度统计
+     */
+    public Map<String, Map<String, Object>> getStats() {
+        Map<String, Map<String, Object>> stats = new TreeMap<>();
+        lanes.forEach((key, lane) -> stats.put(key, lane.getStats()));
+        return stats;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        meterRegistry = registry;
+        lanes.values().forEach(lane -> registerMeters(registry, lane));
+    }
+
+    private void registerMeters(MeterRegistry registry, Lane lane) {
+        StatsGauges.register(registry, "tts.scheduler", Tags.of("lane", lane.key), lane::getStats);
+    }
+
+    private Lane laneOf(SysConfig config) {
+        String provider = config != null && config.getProvider() != null ? config.getProvider() : DEFAULT_PROVIDER;
+        String key = config != null ? provider + ":" + config.getConfigId() : provider;
+        Lane lane = lanes.get(key);
+        if (lane != null) {
+            return lane;
+        }
+        Lane created = lanes.computeIfAbsent(key, k -> {
+            int maxConcurrent = environment.getProperty("tts.scheduler.provider." + provider + ".max-concurrent",
+                    Integer.class, PROVIDER_CONCURRENCY.getOrDefault(provider, defaultMaxConcurrent));
+            double qps = environment.getProperty("tts.scheduler.provider." + provider + ".qps",
+                    Double.class, defaultQps);
+            logger.info("创建TTS调度通道 - {}, 并发上限: {}, QPS: {}", k, maxConcurrent, qps);
+            return new Lane(k, maxConcurrent, qps);
+        });
+        // 重复注册同名同标签的指标会返回已有的指标
+        MeterRegistry registry = meterRegistry;
+        if (registry != null) {
+            registerMeters(registry, created);
+        }
+        return created;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+}
@@ -30,12 +30,20 @@ public interface TtsService {
   }
 
   /**
-   * 
+   * 是否支持流式合成，支持时优先使用 streamTextToSpeech 边合成边播放
    */
   default boolean isSupportStreamTts() {
     return false;
   }
 
+  /**
+   * 查询已合成过的音频，命中时返回音频文件路径，否则返回null
+   * 命中的文件按普通音频播放，可直接使用Opus帧缓存，流式合成前先查询以免重新解码和编码
+   */
+  default String cachedAudio(String text) {
+    return null;
+  }
+
   /**
    * 将文本转换为语音（带自定义语音）
    * 
@@ -48,7 +56,8 @@ public interface TtsService {
    * 流式将文本转换为语音
    * 
    * @param text              要转换为语音的文本
-   * @param audioDataConsumer 音频数据消费者，接收PCM格式的音频数据块
+   * @param audioDataConsumer 音频数据消费者，接收PCM格式的音频数据块（16kHz、单声道、16位小端）；
+   *                          播放端放弃合成后抛出CancellationException，实现应随之停止合成
    * @throws Exception 转换过程中可能发生的异常
    */
   default void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
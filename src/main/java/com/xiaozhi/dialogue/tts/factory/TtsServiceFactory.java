@@ -1,9 +1,12 @@
 package com.xiaozhi.dialogue.tts.factory;
 
+import com.xiaozhi.dialogue.tts.CachingTtsService;
+import com.xiaozhi.dialogue.tts.TtsCache;
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.dialogue.tts.providers.*;
 import com.xiaozhi.entity.SysConfig;
 
+import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -21,6 +24,9 @@ public class TtsServiceFactory {
     // 缓存已初始化的服务：键为"provider:configId:voiceName"格式，确保音色变化时创建新实例
     private final Map<String, TtsService> serviceCache = new ConcurrentHashMap<>();
 
+    @Resource
+    private TtsCache ttsCache;
+
     // 语音生成文件保存地址
     private static final String OUTPUT_PATH = "audio/";
 
@@ -47,6 +53,12 @@ public class TtsServiceFactory {
         return provider + ":" + configId + ":" + voiceName;
     }
 
+    // 短语缓存的分区：provider:configId，配置修改时整体失效
+    private String cacheLane(SysConfig config) {
+        Integer configId = config.getConfigId() != null ? config.getConfigId() : -1;
+        return config.getProvider() + ":" + configId;
+    }
+
     /**
      * 根据配置获取TTS服务
      */
@@ -63,7 +75,9 @@ public class TtsServiceFactory {
             return serviceCache.get(cacheKey);
         }
 
-        var service = createApiService(config, voiceName);
+        // 包装短语缓存，常用短句不再重复请求服务商
+        var service = new CachingTtsService(createApiService(config, voiceName), ttsCache,
+                cacheLane(config), voiceName);
         serviceCache.put(cacheKey, service);
         return service;
     }
@@ -111,6 +125,8 @@ public class TtsServiceFactory {
             // 检查provider和configId是否匹配
             return keyProvider.equals(provider) && keyConfigId.equals(String.valueOf(configId));
         });
-        
+
+        // 配置修改后音色或参数可能已变，丢弃已缓存的合成结果
+        ttsCache.invalidate(cacheLane(config));
     }
 }
\ No newline at end of file
@@ -22,11 +22,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 public class AliyunTtsService implements TtsService {
     private static final Logger logger = LoggerFactory.getLogger(AliyunTtsService.class);
@@ -75,6 +77,47 @@ public class AliyunTtsService implements TtsService {
         }
     }
 
+    /**
+     * cosyvoice模型支持流式合成，sambert和qwen-tts仍走文件方式
+     */
+    @Override
+    public boolean isSupportStreamTts() {
+        return !voiceName.contains("sambert") && getVoiceByName(voiceName) == null;
+    }
+
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
+        // 直接请求16kHz单声道PCM，与设备播放格式一致，无需解码和重采样
+        com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisParam param =
+                com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisParam.builder()
+                        .apiKey(apiKey)
+                        .model("cosyvoice-v2")
+                        .voice(voiceName)
+                        .format(com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisAudioFormat.PCM_16000HZ_MONO_16BIT)
+                        .build();
+        try {
+            com.alibaba.dashscope.audio.ttsv2.SpeechSynthesizer synthesizer =
+                    new com.alibaba.dashscope.audio.ttsv2.SpeechSynthesizer(param, null);
+            synthesizer.callAsFlowable(text).blockingForEach(result -> {
+                ByteBuffer frame = result.getAudioFrame();
+                if (frame != null && frame.hasRemaining()) {
+                    byte[] chunk = new byte[frame.remaining()];
+                    frame.get(chunk);
+                    audioDataConsumer.accept(chunk);
+                }
+            });
+        } catch (CancellationException e) {
+            // 播放端放弃合成，流已随异常取消
+            throw e;
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException("流式语音合成已取消");
+            }
+            logger.error("语音合成aliyun -使用{}模型流式语音合成失败：", voiceName, e);
+            throw new Exception("流式语音合成失败", e);
+        }
+    }
+
     private String ttsQwen(String text) {
         int attempts = 0;
         while (attempts < MAX_RETRY_ATTEMPTS) {
@@ -4,8 +4,12 @@ import io.github.whitemagic2014.tts.TTS;
 import io.github.whitemagic2014.tts.TTSVoice;
 import io.github.whitemagic2014.tts.bean.Voice;
 
+import java.io.BufferedInputStream;
+import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -40,8 +44,36 @@ public class EdgeTtsService implements TtsService {
         return "mp3";
     }
 
+    /**
+     * Edge只能合成到MP3文件，流式合成时把MP3直接解码为PCM推给播放端，不再写WAV中转
+     */
+    @Override
+    public boolean isSupportStreamTts() {
+        return true;
+    }
+
     @Override
     public String textToSpeech(String text) throws Exception {
+        // MP3由播放端在进程内解码，无需先转成WAV
+        return outputPath + synthesize(text);
+    }
+
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
+        Path mp3 = Paths.get(outputPath + synthesize(text));
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(mp3))) {
+            AudioUtils.decodeToPcm(in, audioDataConsumer);
+        } finally {
+            Files.deleteIfExists(mp3);
+        }
+    }
+
+    /**
+     * 合成MP3文件
+     *
+     * @return 输出目录下的文件名
+     */
+    private String synthesize(String text) {
         // 获取中文语音
         Voice voiceObj = TTSVoice.provides().stream()
                 .filter(v -> v.getShortName().equals(voiceName))
@@ -49,27 +81,13 @@ public class EdgeTtsService implements TtsService {
 
         TTS ttsEngine = new TTS(voiceObj, text);
         // 执行TTS转换获取音频文件
-        String audioFilePath = ttsEngine.findHeadHook()
+        return ttsEngine.findHeadHook()
                 .storage(outputPath)
                 .fileName(getAudioFileName().split("\\.")[0])
                 .isRateLimited(true)
                 .overwrite(false)
                 .formatMp3()
                 .trans();
-
-        String fullPath = outputPath + audioFilePath;
-
-        // 1. 将MP3转换为PCM (已经设置为16kHz采样率和单声道)
-        byte[] pcmData = AudioUtils.mp3ToPcm(fullPath);
-
-        // 2. 将PCM转换回WAV (使用AudioUtils中的设置：16kHz, 单声道, 160kbps)
-        String resampledFileName = AudioUtils.saveAsWav(pcmData);
-
-        // 3. 删除原始文件
-        Files.deleteIfExists(Paths.get(fullPath));
-
-        // 4. 返回重采样后的文件路径
-        return AudioUtils.AUDIO_PATH + resampledFileName;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,59 @@
+package com.xiaozhi.dialogue.vad;
+
+/**
+ * 定长float环形缓冲区 - 用于保存最近N个语音概率，避免List<Float>装箱和移除头部的拷贝
+ * 非线程安全，由所属会话串行访问
+ */
+public class FloatRingBuffer {
+    private final float[] data;
+    private int head = 0;
+    private int size = 0;
+
+    public FloatRingBuffer(int capacity) {
+        this.data = new float[capacity];
+    }
+
+    /**
+     * 添加元素，满时覆盖最旧的元素
+     */
+    public void add(float value) {
+        data[head] = value;
+        head = (head + 1) % data.length;
+        if (size < data.length) {
+            size++;
+        }
+    }
+
+    /**
+     * 获取最新的元素，为空时返回默认值
+     */
+    public float last(float defaultValue) {
+        if (size == 0) {
+            return defaultValue;
+        }
+        return data[(head - 1 + data.length) % data.length];
+    }
+
+    /**
+     * 按时间顺序获取第index个元素，0为最旧
+     */
+    public float get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+        return data[(head - size + index + data.length) % data.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,55 @@
+package com.xiaozhi.dialogue.vad;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 会话邮箱 - 保证同一会话的任务按提交顺序串行执行，且不使用监视器锁
+ * 提交任务的线程如果发现邮箱空闲，就直接在当前线程依次执行队列中的任务；
+ * 否则只入队，由正在执行的线程继续处理。同一会话的音频帧通常由同一线程顺序到达，因此几乎总是无竞争地直接执行。
+ */
+public class SessionMailbox {
+    private static final Logger logger = LoggerFactory.getLogger(SessionMailbox.class);
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * 提交任务，按提交顺序串行执行
+     */
+    public void execute(Runnable task) {
+        tasks.offer(task);
+        if (pending.getAndIncrement() != 0) {
+            // 已有线程在处理，由它负责执行
+            return;
+        }
+        do {
+            Runnable next = tasks.poll();
+            try {
+                next.run();
+            } catch (Exception e) {
+                logger.error("会话任务执行失败", e);
+            }
+        } while (pending.decrementAndGet() != 0);
+    }
+
+    /**
+     * 提交任务并等待其结果
+     */
+    public <T> T call(Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                future.complete(task.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future.join();
+    }
+}
@@ -0,0 +1,32 @@
+package com.xiaozhi.dialogue.vad;
+
+import com.xiaozhi.entity.SysRole;
+
+/**
+ * 会话VAD配置快照 - 在会话初始化或角色变更时构建一次，处理音频帧时直接读取
+ *
+ * @param roleId           生成快照时的角色ID，用于检测设备切换角色
+ * @param speechThreshold  语音阈值
+ * @param silenceThreshold 静音阈值
+ * @param energyThreshold  能量阈值
+ * @param silenceTimeoutMs 静音超时（毫秒）
+ */
+public record VadConfig(Integer roleId, float speechThreshold, float silenceThreshold, float energyThreshold,
+        int silenceTimeoutMs) {
+
+    public static final VadConfig DEFAULT = new VadConfig(null, 0.4f, 0.2f, 0.001f, 1200);
+
+    /**
+     * 由角色配置构建快照，未配置的项使用默认值
+     */
+    public static VadConfig of(SysRole role) {
+        if (role == null) {
+            return DEFAULT;
+        }
+        return new VadConfig(role.getRoleId(),
+                role.getVadSpeechTh() != null ? role.getVadSpeechTh() : DEFAULT.speechThreshold,
+                role.getVadSilenceTh() != null ? role.getVadSilenceTh() : DEFAULT.silenceThreshold,
+                role.getVadEnergyTh() != null ? role.getVadEnergyTh() : DEFAULT.energyThreshold,
+                role.getVadSilenceMs() != null ? role.getVadSilenceMs() : DEFAULT.silenceTimeoutMs);
+    }
+}
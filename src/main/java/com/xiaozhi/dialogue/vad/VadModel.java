@@ -17,6 +17,22 @@ public interface VadModel {
      */
     float getSpeechProbability(float[] samples);
 
+    /**
+     * 创建会话级推理状态
+     *
+     * @return 新的推理状态
+     */
+    VadModelState createState();
+
+    /**
+     * 使用会话自身的推理状态获取语音概率，可被多个会话并发调用
+     *
+     * @param samples 音频样本数据
+     * @param state   会话推理状态，推理后原地更新
+     * @return 语音概率 (0.0-1.0)
+     */
+    float getSpeechProbability(float[] samples, VadModelState state);
+
     /**
      * 重置模型状态
      */
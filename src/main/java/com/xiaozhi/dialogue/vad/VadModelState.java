@@ -0,0 +1,51 @@
+package com.xiaozhi.dialogue.vad;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * VAD模型推理状态 - 每个会话独立持有一份，避免RNN状态在会话间串扰
+ * 状态保存在堆外direct buffer中，可直接作为ONNX张量的底层内存，推理时无需复制
+ * 同一会话的推理由调用方保证串行，因此本类不做同步
+ */
+public class VadModelState implements AutoCloseable {
+    // Silero RNN隐藏状态 [2][1][128]
+    public static final int STATE_SIZE = 2 * 128;
+
+    private final FloatBuffer state = allocateDirect(STATE_SIZE);
+
+    public VadModelState() {
+        reset();
+    }
+
+    /**
+     * 分配本地字节序的direct float buffer
+     */
+    public static FloatBuffer allocateDirect(int floats) {
+        return ByteBuffer.allocateDirect(floats * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * RNN隐藏状态，布局为 [2][1][128]
+     */
+    public FloatBuffer getState() {
+        return state;
+    }
+
+    /**
+     * 重置推理状态
+     */
+    public void reset() {
+        for (int i = 0; i < STATE_SIZE; i++) {
+            state.put(i, 0f);
+        }
+    }
+
+    /**
+     * 释放模型相关的本地资源
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,222 @@
+package com.xiaozhi.dialogue.vad.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.xiaozhi.dialogue.vad.VadModel;
+import com.xiaozhi.dialogue.vad.VadModelState;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 跨会话批量VAD推理
+ * 在很短的等待窗口内收集多个会话的512样本窗口，堆叠后交给SileroVadModel一次推理，
+ * 减少每帧一次OrtSession.run的调度和张量分配开销。
+ * 调用方等待超时后请求作废并移出队列；作废请求留下的推理还在进行时，同一会话的下一个窗口可能同时排队，
+ * 因此一批中每个会话状态最多一个请求，其余顺延到下一批，保证会话内按顺序推理。
+ */
+@Component
+public class BatchedVadModel implements VadModel {
+    private static final Logger logger = LoggerFactory.getLogger(BatchedVadModel.class);
+
+    @Value("${vad.batch.enabled:false}")
+    private boolean enabled;
+
+    @Value("${vad.batch.max-size:64}")
+    private int maxBatchSize;
+
+    @Value("${vad.batch.max-wait-ms:5}")
+    private long maxWaitMs;
+
+    // 调用方等待结果的上限，超时按无语音处理
+    @Value("${vad.batch.timeout-ms:500}")
+    private long timeoutMs;
+
+    @Autowired
+    private SileroVadModel sileroVadModel;
+
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private volatile boolean running = false;
+    private Thread dispatcher;
+
+    /**
+     * 待推理请求
+     */
+    private record Request(float[] samples, VadModelState state, CompletableFuture<Float> result) {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    @Override
+    public void initialize() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        dispatcher = Thread.ofPlatform().name("vad-batch").daemon(true).start(this::dispatchLoop);
+        logger.info("批量VAD推理已启用 - 最大批量: {}, 最大等待: {}ms", maxBatchSize, maxWaitMs);
+    }
+
+    @Override
+    public float getSpeechProbability(float[] samples) {
+        return sileroVadModel.getSpeechProbability(samples);
+    }
+
+    @Override
+    public VadModelState createState() {
+        return sileroVadModel.createState();
+    }
+
+    @Override
+    public float getSpeechProbability(float[] samples, VadModelState state) {
+        if (!running) {
+            return sileroVadModel.getSpeechProbability(samples, state);
+        }
+        // 调用方会复用样本数组，超时返回后推理可能还在读取，因此复制一份
+        Request request = new Request(samples.clone(), state, new CompletableFuture<>());
+        queue.offer(request);
+        try {
+            return request.result().get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("批量VAD推理超时: {}ms", timeoutMs);
+            cancel(request);
+            return 0.0f;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(request);
+            return 0.0f;
+        } catch (Exception e) {
+            logger.error("批量VAD推理失败", e);
+            return 0.0f;
+        }
+    }
+
+    /**
+     * 作废请求：调用方不再等待结果，尚未被取走的请求移出队列
+     */
+    private void cancel(Request request) {
+        request.result().cancel(false);
+        queue.remove(request);
+    }
+
+    /**
+     * 调度循环：取到第一个请求后，在等待窗口内尽量凑满一批再推理
+     */
+    private void dispatchLoop() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        Set<VadModelState> batchStates = Collections.newSetFromMap(new IdentityHashMap<>());
+        // 与批内会话重复而顺延的请求，下一批优先处理
+        ArrayDeque<Request> deferred = new ArrayDeque<>();
+        List<Request> drained = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                int carried = deferred.size();
+                for (int i = 0; i < carried && batch.size() < maxBatchSize; i++) {
+                    addToBatch(deferred.poll(), batch, batchStates, deferred);
+                }
+                if (batch.isEmpty()) {
+                    addToBatch(queue.take(), batch, batchStates, deferred);
+                }
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(drained, maxBatchSize - batch.size());
+                    if (drained.isEmpty()) {
+                        long remaining = deadline - System.nanoTime();
+                        Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        drained.add(next);
+                    }
+                    for (Request request : drained) {
+                        addToBatch(request, batch, batchStates, deferred);
+                    }
+                    drained.clear();
+                }
+                if (!batch.isEmpty()) {
+                    runBatch(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                logger.error("批量VAD调度异常", e);
+                batch.forEach(r -> r.result().complete(0.0f));
+            } finally {
+                batch.clear();
+                batchStates.clear();
+                drained.clear();
+            }
+        }
+        deferred.forEach(r -> r.result().complete(0.0f));
+    }
+
+    /**
+     * 加入当前批次：跳过已作废的请求，同一会话状态已在批内时顺延
+     */
+    private void addToBatch(Request request, List<Request> batch, Set<VadModelState> batchStates,
+            ArrayDeque<Request> deferred) {
+        if (request.result().isDone()) {
+            return;
+        }
+        if (batchStates.add(request.state())) {
+            batch.add(request);
+        } else {
+            deferred.add(request);
+        }
+    }
+
+    private void runBatch(List<Request> batch) {
+        int size = batch.size();
+        float[][] samples = new float[size][];
+        VadModelState[] states = new VadModelState[size];
+        for (int i = 0; i < size; i++) {
+            samples[i] = batch.get(i).samples();
+            states[i] = batch.get(i).state();
+        }
+        try {
+            float[] probs = sileroVadModel.getSpeechProbabilities(samples, states);
+            for (int i = 0; i < size; i++) {
+                batch.get(i).result().complete(probs[i]);
+            }
+        } catch (Exception e) {
+            logger.error("批量VAD推理失败 - 批量: {}", size, e);
+            batch.forEach(r -> r.result().complete(0.0f));
+        }
+    }
+
+    @Override
+    public void reset() {
+        sileroVadModel.reset();
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+        }
+        Request pending;
+        while ((pending = queue.poll()) != null) {
+            pending.result().complete(0.0f);
+        }
+    }
+}
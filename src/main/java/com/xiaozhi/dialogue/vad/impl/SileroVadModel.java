@@ -11,15 +11,21 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.xiaozhi.dialogue.vad.VadModel;
+import com.xiaozhi.dialogue.vad.VadModelState;
 import com.xiaozhi.utils.AudioUtils;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Silero VAD模型实现
+ * OrtSession本身是线程安全的，所有会话共享同一个会话实例；RNN状态由各会话的VadModelState独立持有。
+ * 单会话推理路径复用会话自己的direct buffer张量（含预绑定的输出张量），每帧不产生新的张量和数组。
  */
 @Component
 public class SileroVadModel implements VadModel {
@@ -30,9 +36,60 @@ public class SileroVadModel implements VadModel {
 
     private OrtEnvironment env;
     private OrtSession session;
-    private float[][][] state;
-    private float[][] context;
+    // 采样率张量只读，所有推理共享
+    private OnnxTensor srTensor;
+    private String probOutputName;
+    private String stateOutputName;
+    // 兼容无会话调用的默认状态
+    private SileroVadState defaultState;
     private final int windowSize = 512; // 16kHz的窗口大小
+    // 批量推理复用的输入和状态缓冲，按出现过的最大批量分配
+    private FloatBuffer batchInput;
+    private FloatBuffer batchState;
+    private int batchCapacity = 0;
+
+    /**
+     * Silero会话状态：在VadModelState的基础上持有预先创建的输入/输出张量
+     */
+    private static class SileroVadState extends VadModelState {
+        private final FloatBuffer input = allocateDirect(512);
+        private final FloatBuffer stateOut = allocateDirect(STATE_SIZE);
+        private final FloatBuffer output = allocateDirect(1);
+        private OnnxTensor inputTensor;
+        private OnnxTensor stateTensor;
+        private OnnxTensor stateOutTensor;
+        private OnnxTensor outputTensor;
+        private Map<String, OnnxTensor> inputs;
+        private Map<String, OnnxTensor> outputs;
+
+        /**
+         * 首次推理时创建张量，张量直接引用direct buffer内存
+         */
+        void ensureTensors(OrtEnvironment env, OnnxTensor srTensor, String probOutputName, String stateOutputName)
+                throws OrtException {
+            if (inputs != null) {
+                return;
+            }
+            inputTensor = OnnxTensor.createTensor(env, input, new long[] { 1, 512 });
+            stateTensor = OnnxTensor.createTensor(env, getState(), new long[] { 2, 1, 128 });
+            stateOutTensor = OnnxTensor.createTensor(env, stateOut, new long[] { 2, 1, 128 });
+            outputTensor = OnnxTensor.createTensor(env, output, new long[] { 1, 1 });
+            inputs = Map.of("input", inputTensor, "sr", srTensor, "state", stateTensor);
+            outputs = Map.of(probOutputName, outputTensor, stateOutputName, stateOutTensor);
+        }
+
+        @Override
+        public void close() {
+            if (inputTensor != null) {
+                inputTensor.close();
+                stateTensor.close();
+                stateOutTensor.close();
+                outputTensor.close();
+                inputs = null;
+                outputs = null;
+            }
+        }
+    }
 
     @PostConstruct
     @Override
@@ -48,9 +105,13 @@ public class SileroVadModel implements VadModel {
 
             // 创建会话
             session = env.createSession(modelPath, opts);
+            srTensor = OnnxTensor.createTensor(env, new long[] { AudioUtils.SAMPLE_RATE });
+            List<String> outputNames = new ArrayList<>(session.getOutputNames());
+            probOutputName = outputNames.get(0);
+            stateOutputName = outputNames.get(1);
 
             // 初始化状态
-            reset();
+            defaultState = new SileroVadState();
 
             logger.info("Silero VAD模型初始化成功");
         } catch (UnsatisfiedLinkError e) {
@@ -65,43 +126,39 @@ public class SileroVadModel implements VadModel {
 
     @Override
     public float getSpeechProbability(float[] samples) {
+        synchronized (defaultState) {
+            return getSpeechProbability(samples, defaultState);
+        }
+    }
+
+    @Override
+    public VadModelState createState() {
+        return new SileroVadState();
+    }
+
+    @Override
+    public float getSpeechProbability(float[] samples, VadModelState modelState) {
         try {
             if (samples.length != windowSize) {
                 throw new IllegalArgumentException("样本数量必须是" + windowSize);
             }
 
-            // 准备输入数据
-            float[][] x = new float[][] { samples };
-
-            // 创建输入张量
-            OnnxTensor inputTensor = OnnxTensor.createTensor(env, x);
-            OnnxTensor stateTensor = OnnxTensor.createTensor(env, state);
-            OnnxTensor srTensor = OnnxTensor.createTensor(env, new long[] { AudioUtils.SAMPLE_RATE });
-
-            // 准备输入映射
-            Map<String, OnnxTensor> inputs = new HashMap<>();
-            inputs.put("input", inputTensor);
-            inputs.put("sr", srTensor);
-            inputs.put("state", stateTensor);
-
-            try {
-                // 运行模型
-                OrtSession.Result result = session.run(inputs);
+            SileroVadState state = (SileroVadState) modelState;
+            state.ensureTensors(env, srTensor, probOutputName, stateOutputName);
 
-                // 获取输出
-                float[][] output = (float[][]) result.get(0).getValue();
-                state = (float[][][]) result.get(1).getValue();
+            // 写入输入数据（绝对位置写入，不改变buffer的position）
+            state.input.put(0, samples, 0, windowSize);
 
-                // 更新上下文
-                context = x;
+            // 运行模型，输出直接写入预绑定的张量
+            try (OrtSession.Result result = session.run(state.inputs, state.outputs)) {
+                // 新状态拷回输入状态，下次推理使用
+                FloatBuffer current = state.getState();
+                for (int i = 0; i < VadModelState.STATE_SIZE; i++) {
+                    current.put(i, state.stateOut.get(i));
+                }
 
                 // 返回语音概率
-                return output[0][0];
-            } finally {
-                // 释放资源
-                inputTensor.close();
-                stateTensor.close();
-                srTensor.close();
+                return state.output.get(0);
             }
         } catch (OrtException e) {
             logger.error("VAD模型推理失败", e);
@@ -109,16 +166,81 @@ public class SileroVadModel implements VadModel {
         }
     }
 
+    /**
+     * 批量推理：将多个会话的窗口堆叠为 [N,512] 输入，状态堆叠为 [2,N,128]，一次run完成
+     *
+     * @param samples 各会话的样本窗口，每个长度必须为512
+     * @param states  各会话的推理状态，与samples一一对应，推理后原地更新
+     *                输入缓冲在调用间复用，调用串行执行
+     * @return 各会话的语音概率
+     */
+    public synchronized float[] getSpeechProbabilities(float[][] samples, VadModelState[] states) throws OrtException {
+        int batch = samples.length;
+        if (batch > batchCapacity) {
+            batchInput = VadModelState.allocateDirect(batch * windowSize);
+            batchState = VadModelState.allocateDirect(batch * VadModelState.STATE_SIZE);
+            batchCapacity = batch;
+        }
+        // 取本批大小的视图，张量直接引用复用的direct buffer，不再每批分配本地内存
+        FloatBuffer input = batchInput.slice(0, batch * windowSize);
+        FloatBuffer stacked = batchState.slice(0, batch * VadModelState.STATE_SIZE);
+        for (int i = 0; i < batch; i++) {
+            if (samples[i].length != windowSize) {
+                throw new IllegalArgumentException("样本数量必须是" + windowSize);
+            }
+            input.put(i * windowSize, samples[i], 0, windowSize);
+            FloatBuffer s = states[i].getState();
+            for (int j = 0; j < 128; j++) {
+                stacked.put(i * 128 + j, s.get(j));
+                stacked.put((batch + i) * 128 + j, s.get(128 + j));
+            }
+        }
+
+        OnnxTensor inputTensor = OnnxTensor.createTensor(env, input, new long[] { batch, windowSize });
+        OnnxTensor stateTensor = OnnxTensor.createTensor(env, stacked, new long[] { 2, batch, 128 });
+
+        Map<String, OnnxTensor> inputs = new HashMap<>();
+        inputs.put("input", inputTensor);
+        inputs.put("sr", srTensor);
+        inputs.put("state", stateTensor);
+
+        try (OrtSession.Result result = session.run(inputs)) {
+            FloatBuffer output = ((OnnxTensor) result.get(0)).getFloatBuffer();
+            FloatBuffer newState = ((OnnxTensor) result.get(1)).getFloatBuffer();
+
+            float[] probs = new float[batch];
+            for (int i = 0; i < batch; i++) {
+                probs[i] = output.get(i);
+                FloatBuffer s = states[i].getState();
+                for (int j = 0; j < 128; j++) {
+                    s.put(j, newState.get(i * 128 + j));
+                    s.put(128 + j, newState.get((batch + i) * 128 + j));
+                }
+            }
+            return probs;
+        } finally {
+            inputTensor.close();
+            stateTensor.close();
+        }
+    }
+
     @Override
     public void reset() {
-        state = new float[2][1][128];
-        context = new float[0][];
+        synchronized (defaultState) {
+            defaultState.reset();
+        }
     }
 
     @PreDestroy
     @Override
     public void close() {
         try {
+            if (defaultState != null) {
+                defaultState.close();
+            }
+            if (srTensor != null) {
+                srTensor.close();
+            }
             if (session != null) {
                 session.close();
             }
@@ -127,4 +249,4 @@ public class SileroVadModel implements VadModel {
             logger.error("关闭VAD模型失败", e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,21 @@
+package com.xiaozhi.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 角色配置更新事件
+ */
+public class RoleUpdatedEvent extends ApplicationEvent {
+
+    private final Integer roleId;
+
+    public RoleUpdatedEvent(Object source, Integer roleId) {
+        super(source);
+        this.roleId = roleId;
+    }
+
+    public Integer getRoleId() {
+        return roleId;
+    }
+
+}
@@ -1,19 +1,24 @@
 package com.xiaozhi.utils;
 
+import org.bytedeco.ffmpeg.global.avcodec;
 import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.FrameRecorder;
 import org.slf4j.Logger;
 
-import java.io.DataOutputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 public class AudioUtils {
     public static final String AUDIO_PATH = "audio/";
@@ -36,71 +41,35 @@ public class AudioUtils {
         String fileName = uuid + ".mp3";
         String filePath = AUDIO_PATH + fileName;
 
-        // 创建临时PCM文件
-        String tempPcmPath = AUDIO_PATH + uuid + ".pcm";
-
         try {
             // 确保音频目录存在
             Files.createDirectories(Paths.get(AUDIO_PATH));
 
-            // 先将PCM数据写入临时文件
-            try (FileOutputStream fos = new FileOutputStream(tempPcmPath)) {
-                fos.write(audio);
-            }
-
-            // 构建ffmpeg命令：将PCM转换为MP3
-            String[] command = {
-                    "ffmpeg",
-                    "-f", "s16le", // 输入格式：16位有符号小端序PCM
-                    "-ar", String.valueOf(SAMPLE_RATE), // 采样率
-                    "-ac", String.valueOf(CHANNELS), // 声道数
-                    "-i", tempPcmPath, // 输入文件
-                    "-b:a", String.valueOf(BITRATE), // 比特率
-                    "-f", "mp3", // 输出格式
-                    "-q:a", "0", // 最高质量
-                    filePath // 输出文件
-            };
-
-            // 执行命令
-            Process process = Runtime.getRuntime().exec(command);
-
-            // 读取错误输出以便调试
-            StringBuilder errorOutput = new StringBuilder();
-            try (InputStream errorStream = process.getErrorStream()) {
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = errorStream.read(buffer)) != -1) {
-                    errorOutput.append(new String(buffer, 0, bytesRead));
-                }
-            }
-
-            // 等待进程完成
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                logger.error("ffmpeg转换失败，退出代码: {}，错误信息: {}", exitCode, errorOutput.toString());
-                return null;
+            // 进程内编码，不再启动ffmpeg进程和写临时PCM文件
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(filePath, CHANNELS)) {
+                recorder.setFormat("mp3");
+                recorder.setAudioCodec(avcodec.AV_CODEC_ID_MP3);
+                recorder.setSampleRate(SAMPLE_RATE);
+                recorder.setAudioBitrate(BITRATE);
+                recorder.setAudioQuality(0); // 最高质量
+                recorder.start();
+
+                ShortBuffer samples = ByteBuffer.wrap(audio, 0, audio.length & ~1)
+                        .order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+                recorder.recordSamples(SAMPLE_RATE, CHANNELS, samples);
+                recorder.stop();
             }
 
             // 检查输出文件是否存在
             if (!Files.exists(Paths.get(filePath))) {
-                logger.error("ffmpeg转换后的MP3文件不存在");
+                logger.error("转换后的MP3文件不存在");
                 return null;
             }
 
             return fileName;
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             logger.error("保存MP3文件时发生错误", e);
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-            }
             return null;
-        } finally {
-            // 删除临时PCM文件
-            try {
-                Files.deleteIfExists(Paths.get(tempPcmPath));
-            } catch (IOException e) {
-                logger.warn("删除临时PCM文件失败", e);
-            }
         }
     }
 
@@ -309,51 +278,56 @@ public class AudioUtils {
      * @return PCM数据字节数组
      */
     public static byte[] mp3ToPcm(String mp3Path) throws IOException {
-        try {
-            // 创建临时PCM文件
-            String tempPcmPath = AUDIO_PATH + UUID.randomUUID().toString().replace("-", "") + ".pcm";
-
-            // 构建ffmpeg命令：将MP3转换为16kHz, 单声道, 16位PCM
-            String[] command = {
-                    "ffmpeg",
-                    "-i", mp3Path,
-                    "-ar", String.valueOf(SAMPLE_RATE),
-                    "-ac", String.valueOf(CHANNELS),
-                    "-f", "s16le", // 16位有符号小端序PCM
-                    tempPcmPath
-            };
-
-            // 执行命令
-            Process process = Runtime.getRuntime().exec(command);
-
-            // 读取错误输出以便调试
-            try (InputStream errorStream = process.getErrorStream()) {
-                byte[] buffer = new byte[1024];
-                while (errorStream.read(buffer) != -1) {
-                    // 可以选择记录错误输出
-                    // logger.debug(new String(buffer));
-                }
-            }
-
-            // 等待进程完成
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                throw new IOException("ffmpeg转换失败，退出代码: " + exitCode);
-            }
-
-            // 读取生成的PCM文件
-            byte[] pcmData = Files.readAllBytes(Paths.get(tempPcmPath));
+        try (InputStream in = new BufferedInputStream(new FileInputStream(mp3Path))) {
+            return decodeToPcm(in);
+        } catch (IOException e) {
+            logger.error("转换MP3失败: {}", mp3Path, e);
+            throw new IOException("转换MP3失败: " + e.getMessage(), e);
+        }
+    }
 
-            // 删除临时文件
-            Files.delete(Paths.get(tempPcmPath));
+    /**
+     * 解码任意FFmpeg支持的音频流为16kHz、单声道、16位小端PCM
+     *
+     * @param in 音频字节流，例如MP3或WAV
+     * @return PCM数据字节数组
+     */
+    public static byte[] decodeToPcm(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        decodeToPcm(in, chunk -> out.write(chunk, 0, chunk.length));
+        return out.toByteArray();
+    }
 
-            return pcmData;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new IOException("ffmpeg处理被中断", e);
-        } catch (Exception e) {
-            logger.error("使用ffmpeg转换MP3失败", e);
-            throw new IOException("使用ffmpeg转换MP3失败: " + e.getMessage(), e);
+    /**
+     * 流式解码音频为16kHz、单声道、16位小端PCM，每解码出一块立即回调
+     * 在进程内通过FFmpeg完成解码和重采样，不创建子进程和临时文件
+     *
+     * @param in   音频字节流，例如MP3或WAV
+     * @param sink 接收PCM数据块
+     */
+    public static void decodeToPcm(InputStream in, Consumer<byte[]> sink) throws IOException {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(in)) {
+            // 设置输出参数后由FFmpeg内部完成重采样和声道混合
+            grabber.setSampleRate(SAMPLE_RATE);
+            grabber.setAudioChannels(CHANNELS);
+            grabber.setSampleFormat(SAMPLE_FORMAT);
+            grabber.start();
+
+            Frame frame;
+            while ((frame = grabber.grabSamples()) != null) {
+                if (frame.samples == null || frame.samples.length == 0) {
+                    continue;
+                }
+                ShortBuffer samples = (ShortBuffer) frame.samples[0];
+                int count = samples.remaining();
+                if (count == 0) {
+                    continue;
+                }
+                byte[] chunk = new byte[count * 2];
+                ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(samples.duplicate());
+                sink.accept(chunk);
+            }
+            grabber.stop();
         }
     }
 
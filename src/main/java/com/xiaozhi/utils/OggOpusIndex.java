@@ -0,0 +1,238 @@
+package com.xiaozhi.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ogg/Opus页索引
+ * 对内存映射的文件（或内存中的数据）只扫描一遍Ogg页，记录每个Opus包的偏移和长度，
+ * 之后按下标返回包的只读ByteBuffer视图，不复制数据，也不把整个文件读入堆内存。
+ * 跨页的包较少见，只有这类包会在建索引时拼接成独立的数组。
+ * OpusHead/OpusTags头部包不计入帧。
+ */
+public class OggOpusIndex {
+    private static final int PAGE_HEADER_SIZE = 27;
+
+    private final ByteBuffer data;
+    private final int[] offsets;
+    private final int[] lengths;
+    // 跨页拼接的包，下标 -> 数据
+    private final Map<Integer, byte[]> joined;
+    private final long fileSize;
+    private final long lastModified;
+
+    private OggOpusIndex(ByteBuffer data, int[] offsets, int[] lengths, Map<Integer, byte[]> joined,
+            long fileSize, long lastModified) {
+        this.data = data;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.joined = joined;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * 内存映射文件并建立索引
+     */
+    public static OggOpusIndex open(File file) throws IOException {
+        long lastModified = file.lastModified();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("文件过大，无法映射: " + file.getPath());
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return build(mapped, size, lastModified);
+        }
+    }
+
+    /**
+     * 对内存中的Ogg数据建立索引
+     */
+    public static OggOpusIndex of(byte[] oggData) {
+        return build(ByteBuffer.wrap(oggData), oggData.length, 0);
+    }
+
+    /**
+     * 检查数据是否以Ogg页开头
+     */
+    public static boolean isOgg(ByteBuffer buf) {
+        return buf.remaining() >= 4 && isCapture(buf, buf.position());
+    }
+
+    private static OggOpusIndex build(ByteBuffer data, long fileSize, long lastModified) {
+        ByteBuffer buf = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int limit = buf.limit();
+
+        int[] offsets = new int[64];
+        int[] lengths = new int[64];
+        int count = 0;
+        Map<Integer, byte[]> joined = new HashMap<>();
+
+        // 跨页包的已读部分
+        List<int[]> pending = new ArrayList<>();
+        int pendingLength = 0;
+
+        int pos = 0;
+        while (pos + PAGE_HEADER_SIZE <= limit) {
+            if (!isCapture(buf, pos)) {
+                // 查找下一个页头
+                pos = findCapture(buf, pos + 1, limit);
+                if (pos < 0) {
+                    break;
+                }
+                continue;
+            }
+
+            int segCount = buf.get(pos + 26) & 0xFF;
+            int segTable = pos + PAGE_HEADER_SIZE;
+            int dataStart = segTable + segCount;
+            if (dataStart > limit) {
+                break;
+            }
+
+            int offset = dataStart;
+            int packetStart = offset;
+            int packetLength = 0;
+            for (int i = 0; i < segCount; i++) {
+                int segLen = buf.get(segTable + i) & 0xFF;
+                packetLength += segLen;
+                offset += segLen;
+                if (offset > limit) {
+                    break;
+                }
+                if (segLen == 255) {
+                    continue;
+                }
+
+                // 包结束
+                int start = packetStart;
+                int length = packetLength;
+                byte[] whole = null;
+                if (!pending.isEmpty()) {
+                    pending.add(new int[] { start, length });
+                    whole = join(buf, pending, pendingLength + length);
+                    pending.clear();
+                    pendingLength = 0;
+                }
+
+                // 跳过空包和OpusHead/OpusTags头部包
+                if ((length > 0 || whole != null) && !isHeaderPacket(buf, whole, start, length)) {
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                        lengths = Arrays.copyOf(lengths, count * 2);
+                    }
+                    offsets[count] = start;
+                    lengths[count] = whole != null ? whole.length : length;
+                    if (whole != null) {
+                        joined.put(count, whole);
+                    }
+                    count++;
+                }
+                packetStart = offset;
+                packetLength = 0;
+            }
+
+            // 页末尾的包未结束，延续到下一页
+            if (packetLength > 0 && offset <= limit) {
+                pending.add(new int[] { packetStart, packetLength });
+                pendingLength += packetLength;
+            }
+            pos = offset;
+        }
+
+        return new OggOpusIndex(data, Arrays.copyOf(offsets, count), Arrays.copyOf(lengths, count), joined,
+                fileSize, lastModified);
+    }
+
+    /**
+     * 帧数量
+     */
+    public int size() {
+        return offsets.length;
+    }
+
+    /**
+     * 第i帧的只读视图，每次调用返回独立的position/limit
+     */
+    public ByteBuffer frame(int i) {
+        byte[] whole = joined.get(i);
+        if (whole != null) {
+            return ByteBuffer.wrap(whole).asReadOnlyBuffer();
+        }
+        return data.slice(offsets[i], lengths[i]).asReadOnlyBuffer();
+    }
+
+    /**
+     * 所有帧的只读视图
+     */
+    public List<ByteBuffer> frames() {
+        List<ByteBuffer> frames = new ArrayList<>(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            frames.add(frame(i));
+        }
+        return frames;
+    }
+
+    /**
+     * 所有帧复制为独立数组
+     */
+    public List<byte[]> toByteArrays() {
+        List<byte[]> frames = new ArrayList<>(offsets.length);
+        for (int i = 0; i < offsets.length; i++) {
+            ByteBuffer frame = frame(i);
+            byte[] bytes = new byte[frame.remaining()];
+            frame.get(bytes);
+            frames.add(bytes);
+        }
+        return frames;
+    }
+
+    /**
+     * 文件大小和修改时间未变时索引仍然有效
+     */
+    public boolean isValidFor(File file) {
+        return file.length() == fileSize && file.lastModified() == lastModified;
+    }
+
+    private static boolean isCapture(ByteBuffer buf, int pos) {
+        return buf.get(pos) == 'O' && buf.get(pos + 1) == 'g' && buf.get(pos + 2) == 'g' && buf.get(pos + 3) == 'S';
+    }
+
+    private static int findCapture(ByteBuffer buf, int from, int limit) {
+        for (int i = from; i + 4 <= limit; i++) {
+            if (isCapture(buf, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isHeaderPacket(ByteBuffer buf, byte[] whole, int start, int length) {
+        if (whole != null) {
+            return whole.length >= 8 && whole[0] == 'O' && whole[1] == 'p' && whole[2] == 'u' && whole[3] == 's';
+        }
+        return length >= 8 && buf.get(start) == 'O' && buf.get(start + 1) == 'p'
+                && buf.get(start + 2) == 'u' && buf.get(start + 3) == 's';
+    }
+
+    private static byte[] join(ByteBuffer buf, List<int[]> parts, int total) {
+        byte[] whole = new byte[total];
+        int pos = 0;
+        for (int[] part : parts) {
+            buf.get(part[0], whole, pos, part[1]);
+            pos += part[1];
+        }
+        return whole;
+    }
+}
@@ -0,0 +1,130 @@
+package com.xiaozhi.utils;
+
+import io.github.jaredmdobson.concentus.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opus编解码器对象池
+ * 按采样率/声道数分组缓存空闲的编解码器，借出时重置状态，归还时超过上限则直接丢弃，
+ * 避免设备频繁重连时反复创建编解码器，同时限制空闲编解码器占用的内存。
+ */
+@Component
+public class OpusCodecPool {
+    private static final Logger logger = LoggerFactory.getLogger(OpusCodecPool.class);
+
+    // 每组参数最多缓存的空闲编解码器数量
+    @Value("${opus.pool.max-idle:64}")
+    private int maxIdle;
+
+    private final ConcurrentHashMap<CodecKey, ArrayBlockingQueue<OpusDecoder>> idleDecoders = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<CodecKey, ArrayBlockingQueue<OpusEncoder>> idleEncoders = new ConcurrentHashMap<>();
+
+    // 统计信息
+    private final AtomicLong decodersCreated = new AtomicLong();
+    private final AtomicLong encodersCreated = new AtomicLong();
+
+    /**
+     * 编解码参数
+     */
+    public record CodecKey(int sampleRate, int channels) {
+    }
+
+    /**
+     * 借出解码器，状态已重置
+     */
+    public OpusDecoder borrowDecoder(int sampleRate, int channels) {
+        OpusDecoder decoder = idleDecoders(new CodecKey(sampleRate, channels)).poll();
+        if (decoder != null) {
+            decoder.resetState();
+            return decoder;
+        }
+        try {
+            decoder = new OpusDecoder(sampleRate, channels);
+            decoder.setGain(3);
+            decodersCreated.incrementAndGet();
+            return decoder;
+        } catch (OpusException e) {
+            logger.error("创建解码器失败", e);
+            throw new RuntimeException("创建解码器失败", e);
+        }
+    }
+
+    /**
+     * 归还解码器
+     */
+    public void returnDecoder(int sampleRate, int channels, OpusDecoder decoder) {
+        if (decoder != null) {
+            idleDecoders(new CodecKey(sampleRate, channels)).offer(decoder);
+        }
+    }
+
+    /**
+     * 借出编码器，状态已重置
+     */
+    public OpusEncoder borrowEncoder(int sampleRate, int channels) {
+        OpusEncoder encoder = idleEncoders(new CodecKey(sampleRate, channels)).poll();
+        if (encoder != null) {
+            encoder.resetState();
+            return encoder;
+        }
+        try {
+            encoder = new OpusEncoder(sampleRate, channels, OpusApplication.OPUS_APPLICATION_VOIP);
+
+            // 优化设置
+            encoder.setBitrate(AudioUtils.BITRATE);
+            // 这里后续看是不是要针对音乐做一个切换
+            encoder.setSignalType(OpusSignal.OPUS_SIGNAL_VOICE);
+            encoder.setComplexity(5); // 复杂度高音质好，低速度快
+            encoder.setPacketLossPercent(0); // 降低丢包补偿，减少处理延迟
+            encoder.setForceChannels(channels);
+            encoder.setUseVBR(false); // 使用CBR模式确保稳定的比特率
+            encoder.setUseDTX(false); // 禁用DTX以确保连续的帧
+
+            encodersCreated.incrementAndGet();
+            return encoder;
+        } catch (OpusException e) {
+            logger.error("创建编码器失败: 采样率={}, 通道={}", sampleRate, channels, e);
+            throw new RuntimeException("创建编码器失败", e);
+        }
+    }
+
+    /**
+     * 归还编码器
+     */
+    public void returnEncoder(int sampleRate, int channels, OpusEncoder encoder) {
+        if (encoder != null) {
+            idleEncoders(new CodecKey(sampleRate, channels)).offer(encoder);
+        }
+    }
+
+    public long getDecodersCreated() {
+        return decodersCreated.get();
+    }
+
+    public long getEncodersCreated() {
+        return encodersCreated.get();
+    }
+
+    /**
+     * 清空空闲编解码器
+     */
+    public void clear() {
+        idleDecoders.clear();
+        idleEncoders.clear();
+    }
+
+    private ArrayBlockingQueue<OpusDecoder> idleDecoders(CodecKey key) {
+        return idleDecoders.computeIfAbsent(key, k -> new ArrayBlockingQueue<>(maxIdle));
+    }
+
+    private ArrayBlockingQueue<OpusEncoder> idleEncoders(CodecKey key) {
+        return idleEncoders.computeIfAbsent(key, k -> new ArrayBlockingQueue<>(maxIdle));
+    }
+}
@@ -0,0 +1,354 @@
+package com.xiaozhi.utils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 预编码Opus帧缓存
+ * 以内容哈希为键缓存可直接发送的Opus帧序列，分内存和磁盘两级：
+ * 内存按访问顺序LRU淘汰，磁盘按最后访问时间淘汰，两级都按总字节数限制。
+ * 重复播放的提示音、错误提示、唤醒问候和热门歌曲无需再次解码转码。
+ * 只应缓存会重复播放的音频（音乐、绘本、TTS短语缓存命中的音频），一次性的合成结果不要放入。
+ * 统计信息注册为audio.frame.cache.*指标。
+ */
+@Component
+public class OpusFrameCache implements MeterBinder {
+    private static final Logger logger = LoggerFactory.getLogger(OpusFrameCache.class);
+
+    private static final String CACHE_DIR = AudioUtils.AUDIO_PATH + "cache/opus/";
+    private static final String FILE_SUFFIX = ".frames";
+    // 文件哈希记录的数量上限
+    private static final int MAX_FILE_STAMPS = 4096;
+
+    @Value("${audio.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${audio.cache.memory-max-mb:64}")
+    private long memoryMaxMb;
+
+    @Value("${audio.cache.disk-max-mb:512}")
+    private long diskMaxMb;
+
+    // 内存层，访问顺序LRU
+    private final LinkedHashMap<String, List<byte[]>> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private long memoryBytes = 0;
+
+    // 磁盘层已用字节数
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    // 文件路径 -> 内容哈希，文件大小或修改时间变化后重新计算
+    private final ConcurrentHashMap<String, FileStamp> fileStamps = new ConcurrentHashMap<>();
+
+    // 统计信息
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * 帧加载器，缓存未命中时调用
+     */
+    @FunctionalInterface
+    public interface FrameLoader {
+        List<byte[]> load() throws IOException;
+    }
+
+    private record FileStamp(long size, long lastModified, String hash) {
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(Paths.get(CACHE_DIR));
+            // 上次写到一半留下的临时文件
+            try (Stream<Path> files = Files.list(Paths.get(CACHE_DIR))) {
+                files.filter(p -> p.getFileName().toString().endsWith(".tmp")).forEach(p -> p.toFile().delete());
+            }
+            try (Stream<Path> files = Files.list(Paths.get(CACHE_DIR))) {
+                diskBytes.set(files.mapToLong(p -> p.toFile().length()).sum());
+            }
+            logger.info("Opus帧缓存已启用 - 内存上限: {}MB, 磁盘上限: {}MB, 磁盘已用: {}KB",
+                    memoryMaxMb, diskMaxMb, diskBytes.get() / 1024);
+        } catch (IOException e) {
+            logger.warn("初始化Opus帧缓存目录失败: {}", e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 按文件内容获取Opus帧，未命中时调用加载器并写入缓存
+     */
+    public List<byte[]> getOrLoad(File file, FrameLoader loader) throws IOException {
+        if (!enabled) {
+            return loader.load();
+        }
+        return getOrLoad(fileKey(file), loader);
+    }
+
+    /**
+     * 按键获取Opus帧，未命中时调用加载器并写入缓存
+     */
+    public List<byte[]> getOrLoad(String key, FrameLoader loader) throws IOException {
+        if (!enabled) {
+            return loader.load();
+        }
+        List<byte[]> frames = get(key);
+        if (frames != null) {
+            return frames;
+        }
+        frames = loader.load();
+        put(key, frames);
+        return frames;
+    }
+
+    /**
+     * 查询缓存，依次查内存和磁盘
+     *
+     * @return 帧列表（只读），未命中返回null
+     */
+    public List<byte[]> get(String key) {
+        if (!enabled || key == null) {
+            return null;
+        }
+        synchronized (memory) {
+            List<byte[]> frames = memory.get(key);
+            if (frames != null) {
+                memoryHits.incrementAndGet();
+                return frames;
+            }
+        }
+
+        List<byte[]> frames = readDisk(key);
+        if (frames != null) {
+            diskHits.incrementAndGet();
+            putMemory(key, frames);
+            return frames;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 写入缓存
+     */
+    public void put(String key, List<byte[]> frames) {
+        if (!enabled || key == null || frames == null || frames.isEmpty()) {
+            return;
+        }
+        List<byte[]> readOnly = Collections.unmodifiableList(new ArrayList<>(frames));
+        putMemory(key, readOnly);
+        writeDisk(key, readOnly);
+    }
+
+    /**
+     * 文件内容哈希键，文件大小和修改时间未变时复用上次的哈希
+     */
+    public String fileKey(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        FileStamp stamp = fileStamps.get(path);
+        if (stamp != null && stamp.size() == size && stamp.lastModified() == lastModified) {
+            return stamp.hash();
+        }
+
+        MessageDigest digest = sha256();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) > 0) {
+                digest.update(buf, 0, read);
+            }
+        }
+        String hash = "file-" + HexFormat.of().formatHex(digest.digest());
+        if (fileStamps.size() >= MAX_FILE_STAMPS) {
+            fileStamps.clear();
+        }
+        fileStamps.put(path, new FileStamp(size, lastModified, hash));
+        return hash;
+    }
+
+    /**
+     * TTS合成结果的键，由服务商、音色和文本共同决定
+     */
+    public static String ttsKey(String provider, String voice, String text) {
+        MessageDigest digest = sha256();
+        digest.update(String.valueOf(provider).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(voice).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(String.valueOf(text).getBytes(StandardCharsets.UTF_8));
+        return "tts-" + HexFormat.of().formatHex(digest.digest());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        StatsGauges.register(registry, "audio.frame.cache", Tags.empty(), this::getStats);
+    }
+
+    /**
+     * 缓存统计信息
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        synchronized (memory) {
+            stats.put("memoryEntries", (long) memory.size());
+            stats.put("memoryBytes", memoryBytes);
+        }
+        stats.put("diskBytes", diskBytes.get());
+        stats.put("memoryHits", memoryHits.get());
+        stats.put("diskHits", diskHits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        return stats;
+    }
+
+    private void putMemory(String key, List<byte[]> frames) {
+        long maxBytes = memoryMaxMb * 1024 * 1024;
+        long size = sizeOf(frames);
+        // 单个条目超过内存上限的1/4时只放磁盘，避免一首长歌挤掉所有短提示音
+        if (size > maxBytes / 4) {
+            return;
+        }
+        synchronized (memory) {
+            List<byte[]> previous = memory.put(key, frames);
+            if (previous != null) {
+                memoryBytes -= sizeOf(previous);
+            }
+            memoryBytes += size;
+
+            Iterator<Map.Entry<String, List<byte[]>>> it = memory.entrySet().iterator();
+            while (memoryBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, List<byte[]>> eldest = it.next();
+                memoryBytes -= sizeOf(eldest.getValue());
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private List<byte[]> readDisk(String key) {
+        File file = new File(CACHE_DIR, key + FILE_SUFFIX);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            List<byte[]> frames = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] frame = new byte[in.readInt()];
+                in.readFully(frame);
+                frames.add(frame);
+            }
+            // 更新访问时间，磁盘层按最后访问时间淘汰
+            file.setLastModified(System.currentTimeMillis());
+            return Collections.unmodifiableList(frames);
+        } catch (IOException e) {
+            logger.warn("读取Opus帧缓存失败: {}, 错误: {}", file.getName(), e.getMessage());
+            deleteDiskFile(file);
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, List<byte[]> frames) {
+        Path target = Paths.get(CACHE_DIR, key + FILE_SUFFIX);
+        if (Files.exists(target)) {
+            return;
+        }
+        Path tmp = null;
+        try {
+            // 每次写入使用独立的临时文件，同一个键并发写入时互不覆盖
+            tmp = Files.createTempFile(Paths.get(CACHE_DIR), key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(frames.size());
+                for (byte[] frame : frames) {
+                    out.writeInt(frame.length);
+                    out.write(frame);
+                }
+            }
+            long written = Files.size(tmp);
+            long replaced = Files.exists(target) ? Files.size(target) : 0;
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (diskBytes.addAndGet(written - replaced) > diskMaxMb * 1024 * 1024) {
+                evictDisk();
+            }
+        } catch (IOException e) {
+            logger.warn("写入Opus帧缓存失败: {}, 错误: {}", key, e.getMessage());
+            try {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 按最后访问时间淘汰磁盘缓存，直到降到上限的90%
+     */
+    private synchronized void evictDisk() {
+        long target = diskMaxMb * 1024 * 1024 * 9 / 10;
+        if (diskBytes.get() <= target) {
+            return;
+        }
+        File[] files = new File(CACHE_DIR).listFiles((dir, name) -> name.endsWith(FILE_SUFFIX));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (diskBytes.get() <= target) {
+                break;
+            }
+            deleteDiskFile(file);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void deleteDiskFile(File file) {
+        long size = file.length();
+        if (file.delete()) {
+            diskBytes.addAndGet(-size);
+        }
+    }
+
+    private static long sizeOf(List<byte[]> frames) {
+        long size = 0;
+        for (byte[] frame : frames) {
+            size += frame.length + 16;
+        }
+        return size;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+}
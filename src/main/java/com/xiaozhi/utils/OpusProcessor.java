@@ -2,9 +2,12 @@ package com.xiaozhi.utils;
 
 import io.github.jaredmdobson.concentus.*;
 import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 
 import java.io.*;
 import java.nio.ByteBuffer;
@@ -15,17 +18,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 @Component
 public class OpusProcessor {
     private static final Logger logger = LoggerFactory.getLogger(OpusProcessor.class);
 
-    // 缓存
-    private final ConcurrentHashMap<String, OpusDecoder> decoders = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, OpusEncoder> encoders = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, short[]> overlaps = new ConcurrentHashMap<>();
-    // 残留数据状态缓存
-    private final ConcurrentHashMap<String, LeftoverState> leftoverStates = new ConcurrentHashMap<>();
+    // 编解码器池
+    @Resource
+    private OpusCodecPool codecPool;
+
+    // 会话句柄，持有会话自己的编解码器和残留数据
+    private final ConcurrentHashMap<String, OpusSession> sessions = new ConcurrentHashMap<>();
+
+    // OGG文件路径 -> 页索引
+    private final ConcurrentHashMap<String, OggOpusIndex> oggIndexes = new ConcurrentHashMap<>();
+    // 缓存的OGG索引数量上限
+    private static final int MAX_OGG_INDEXES = 256;
 
     // 常量
     private static final int FRAME_SIZE = AudioUtils.FRAME_SIZE;
@@ -34,6 +43,9 @@ public class OpusProcessor {
     public static final int OPUS_FRAME_DURATION_MS = AudioUtils.OPUS_FRAME_DURATION_MS;
     private static final int MAX_SIZE = 1275;
 
+    // 单个Opus包的最大时长
+    private static final int MAX_PACKET_DURATION_MS = 120;
+
     // 预热帧数量 - 添加几个静音帧来预热编解码器
     private static final int PRE_WARM_FRAMES = 2;
 
@@ -57,24 +69,41 @@ public class OpusProcessor {
     }
 
     /**
-     * 获取会话的残留数据状态
+     * 单个Opus包解码后的最大样本数
+     */
+    public static int maxFrameSamples(int sampleRate, int channels) {
+        return sampleRate * MAX_PACKET_DURATION_MS / 1000 * channels;
+    }
+
+    /**
+     * 获取会话句柄，调用方可以持有句柄以避免每帧按会话ID查表
      */
-    private LeftoverState getLeftoverState(String sid) {
-        return leftoverStates.computeIfAbsent(sid, k -> new LeftoverState());
+    public OpusSession getSession(String sid) {
+        OpusSession session = sessions.computeIfAbsent(sid, k -> new OpusSession(k, codecPool, SAMPLE_RATE, CHANNELS));
+        // 句柄已关闭（与清理并发）时换一个新句柄
+        while (session.isClosed()) {
+            sessions.remove(sid, session);
+            session = sessions.computeIfAbsent(sid, k -> new OpusSession(k, codecPool, SAMPLE_RATE, CHANNELS));
+        }
+        return session;
     }
 
     /**
      * 删除会话的残留数据状态
      */
     public void removeLeftoverState(String sid) {
-        leftoverStates.remove(sid);
+        OpusSession session = sessions.get(sid);
+        if (session != null) {
+            session.getLeftoverState().clear();
+        }
     }
 
     /**
      * 刷新残留数据，生成最后一帧
      */
     public List<byte[]> flushLeftover(String sid) {
-        LeftoverState state = getLeftoverState(sid);
+        OpusSession session = getSession(sid);
+        LeftoverState state = session.getLeftoverState();
         List<byte[]> frames = new ArrayList<>();
 
         if (state.leftoverCount <= 0) {
@@ -82,7 +111,7 @@ public class OpusProcessor {
         }
 
         // 获取编码器
-        OpusEncoder encoder = getEncoder(sid, SAMPLE_RATE, CHANNELS);
+        OpusEncoder encoder = session.getEncoder();
 
         // 准备缓冲区
         short[] shortBuf = new short[FRAME_SIZE];
@@ -113,25 +142,86 @@ public class OpusProcessor {
      * Opus转PCM字节数组
      */
     public byte[] opusToPcm(String sid, byte[] data) throws OpusException {
+        return opusToPcm(getSession(sid), data);
+    }
+
+    /**
+     * Opus转PCM字节数组，直接使用会话句柄中的解码器
+     */
+    public byte[] opusToPcm(OpusSession session, byte[] data) throws OpusException {
         if (data == null || data.length == 0) {
             return new byte[0];
         }
 
-        try {
-            OpusDecoder decoder = getDecoder(sid);
-            short[] buf = new short[FRAME_SIZE * 12];
-            int samples = decoder.decode(data, 0, data.length, buf, 0, buf.length, false);
-
-            byte[] pcm = new byte[samples * 2];
-            for (int i = 0; i < samples; i++) {
-                pcm[i * 2] = (byte) (buf[i] & 0xFF);
-                pcm[i * 2 + 1] = (byte) ((buf[i] >> 8) & 0xFF);
-            }
+        short[] buf = session.getPcmBuffer();
+        int samples = decode(session, data, buf, 0);
 
-            return pcm;
+        byte[] pcm = new byte[samples * 2];
+        ByteBuffer.wrap(pcm).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().put(buf, 0, samples);
+        return pcm;
+    }
+
+    /**
+     * 解码单个Opus包到调用方提供的数组
+     *
+     * @return 样本数
+     */
+    public int decode(OpusSession session, byte[] data, short[] out, int outOffset) throws OpusException {
+        return decode(session, data, out, outOffset, out.length);
+    }
+
+    /**
+     * 解码单个Opus包写入ShortBuffer，从当前位置开始写并推进position
+     *
+     * @return 样本数
+     */
+    public int decode(OpusSession session, byte[] data, ShortBuffer out) throws OpusException {
+        if (out.hasArray()) {
+            // 堆内缓冲区直接解码到底层数组
+            int offset = out.arrayOffset() + out.position();
+            int limit = out.arrayOffset() + out.limit();
+            int samples = decode(session, data, out.array(), offset, limit);
+            out.position(out.position() + samples);
+            return samples;
+        }
+
+        short[] buf = session.getPcmBuffer();
+        int samples = decode(session, data, buf, 0);
+        out.put(buf, 0, samples);
+        return samples;
+    }
+
+    /**
+     * 解码单个Opus包，以小端16位PCM写入ByteBuffer，从当前位置开始写并推进position
+     *
+     * @return 样本数
+     */
+    public int decode(OpusSession session, byte[] data, ByteBuffer out) throws OpusException {
+        short[] buf = session.getPcmBuffer();
+        int samples = decode(session, data, buf, 0);
+        ByteOrder order = out.order();
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < samples; i++) {
+            out.putShort(buf[i]);
+        }
+        out.order(order);
+        return samples;
+    }
+
+    /**
+     * 解码到数组的[outOffset, outLimit)区间，解码失败时重置解码器
+     */
+    private int decode(OpusSession session, byte[] data, short[] out, int outOffset, int outLimit)
+            throws OpusException {
+        if (data == null || data.length == 0) {
+            return 0;
+        }
+
+        try {
+            return session.getDecoder().decode(data, 0, data.length, out, outOffset, outLimit - outOffset, false);
         } catch (OpusException e) {
             logger.warn("解码失败: {}", e.getMessage());
-            resetDecoder(sid);
+            session.resetDecoder();
             throw e;
         }
     }
@@ -217,23 +307,10 @@ public class OpusProcessor {
             return new short[0];
         }
 
-        try {
-            OpusDecoder decoder = getDecoder(sid);
-            short[] buf = new short[FRAME_SIZE * 6];
-            int samples = decoder.decode(data, 0, data.length, buf, 0, buf.length, false);
-
-            if (samples < buf.length) {
-                short[] result = new short[samples];
-                System.arraycopy(buf, 0, result, 0, samples);
-                return result;
-            }
-
-            return buf;
-        } catch (OpusException e) {
-            logger.warn("解码失败: {}", e.getMessage());
-            resetDecoder(sid);
-            throw e;
-        }
+        OpusSession session = getSession(sid);
+        short[] buf = session.getPcmBuffer();
+        int samples = decode(session, data, buf, 0);
+        return Arrays.copyOf(buf, samples);
     }
 
     /**
@@ -298,99 +375,24 @@ public class OpusProcessor {
      * 解析OGG格式
      */
     private List<byte[]> parseOgg(byte[] data) {
-        List<byte[]> packets = new ArrayList<>();
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
-
-        byte[] pattern = new byte[4];
-        byte[] segments = new byte[255];
-
-        while (in.available() > 0) {
-            try {
-                // 读取OGG标识
-                if (in.read(pattern, 0, 4) < 4)
-                    break;
-
-                // 检查标识
-                if (pattern[0] != 'O' || pattern[1] != 'g' || pattern[2] != 'g' || pattern[3] != 'S') {
-                    // 查找下一个标识
-                    int b;
-                    boolean found = false;
-                    while ((b = in.read()) != -1) {
-                        if (b == 'O') {
-                            if (in.read(pattern, 0, 3) < 3)
-                                break;
-                            if (pattern[0] == 'g' && pattern[1] == 'g' && pattern[2] == 'S') {
-                                found = true;
-                                break;
-                            }
-                        }
-                    }
-                    if (!found)
-                        break;
-                }
-
-                // 跳过版本和标志
-                in.skip(2);
-
-                // 跳过粒度位置、序列号、页序号、校验和
-                in.skip(16);
-
-                // 读取分段数
-                int segCount = in.read();
-                if (segCount == -1)
-                    break;
-
-                // 读取分段表
-                if (in.read(segments, 0, segCount) < segCount)
-                    break;
-
-                // 计算数据长度
-                int dataLen = 0;
-                for (int i = 0; i < segCount; i++) {
-                    dataLen += segments[i] & 0xFF;
-                }
-
-                // 读取数据
-                byte[] pageData = new byte[dataLen];
-                int read = in.read(pageData, 0, dataLen);
-                if (read < dataLen) {
-                    byte[] actual = new byte[read];
-                    System.arraycopy(pageData, 0, actual, 0, read);
-                    pageData = actual;
-                }
-
-                // 解析数据包
-                int offset = 0;
-                int packetLen = 0;
-
-                for (int i = 0; i < segCount; i++) {
-                    int segLen = segments[i] & 0xFF;
-                    packetLen += segLen;
-
-                    // 如果段长不是255，表示包结束
-                    if (segLen != 255) {
-                        if (packetLen > 0 && offset + packetLen <= pageData.length) {
-                            byte[] packet = new byte[packetLen];
-                            System.arraycopy(pageData, offset, packet, 0, packetLen);
-                            packets.add(packet);
-                        }
-                        offset += packetLen;
-                        packetLen = 0;
-                    }
-                }
-
-                // 处理最后一个包
-                if (packetLen > 0 && offset + packetLen <= pageData.length) {
-                    byte[] packet = new byte[packetLen];
-                    System.arraycopy(pageData, offset, packet, 0, packetLen);
-                    packets.add(packet);
-                }
-            } catch (Exception e) {
-                logger.warn("OGG解析错误: {}", e.getMessage());
-            }
-        }
+        return OggOpusIndex.of(data).toByteArrays();
+    }
 
-        return packets;
+    /**
+     * 获取OGG文件的页索引，文件未变化时复用缓存的索引，重复播放无需再次解析
+     */
+    public OggOpusIndex getOggIndex(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        OggOpusIndex index = oggIndexes.get(path);
+        if (index != null && index.isValidFor(file)) {
+            return index;
+        }
+        index = OggOpusIndex.open(file);
+        if (oggIndexes.size() >= MAX_OGG_INDEXES) {
+            oggIndexes.clear();
+        }
+        oggIndexes.put(path, index);
+        return index;
     }
 
     /**
@@ -435,6 +437,16 @@ public class OpusProcessor {
         }
     }
 
+    /**
+     * 检查文件是否为OGG格式
+     */
+    public boolean isOgg(File file) throws IOException {
+        byte[] header = new byte[4];
+        try (FileInputStream fis = new FileInputStream(file)) {
+            return fis.read(header) == 4 && isOgg(header);
+        }
+    }
+
     /**
      * 检查OGG格式
      */
@@ -459,9 +471,7 @@ public class OpusProcessor {
      * 读取OGG文件
      */
     private List<byte[]> readOgg(File file) throws IOException {
-        // 使用Files.readAllBytes代替FileInputStream.readAllBytes
-        byte[] data = Files.readAllBytes(file.toPath());
-        return parseOgg(data);
+        return getOggIndex(file).toByteArrays();
     }
 
     /**
@@ -624,27 +634,16 @@ public class OpusProcessor {
      * 获取解码器
      */
     public OpusDecoder getDecoder(String sid) {
-        return decoders.computeIfAbsent(sid, k -> {
-            try {
-                OpusDecoder decoder = new OpusDecoder(SAMPLE_RATE, CHANNELS);
-                decoder.setGain(3);
-                return decoder;
-            } catch (OpusException e) {
-                logger.error("创建解码器失败", e);
-                throw new RuntimeException("创建解码器失败", e);
-            }
-        });
+        return getSession(sid).getDecoder();
     }
 
     /**
      * 重置解码器
      */
     public void resetDecoder(String sid) {
-        decoders.remove(sid);
-        try {
-            getDecoder(sid);
-        } catch (Exception e) {
-            logger.error("重置解码器失败", e);
+        OpusSession session = sessions.get(sid);
+        if (session != null) {
+            session.resetDecoder();
         }
     }
 
@@ -662,18 +661,64 @@ public class OpusProcessor {
             pcmLen--;
         }
 
-        // 每帧样本数
-        int frameSize = FRAME_SIZE;
+        // 整段编码使用增量编码器逐帧输出，不再复制整段PCM
+        if (!isStream) {
+            List<byte[]> frames = new ArrayList<>();
+            try (OpusStreamEncoder encoder = newStreamEncoder(frames::add)) {
+                encoder.write(pcm, 0, pcmLen);
+            }
+            return frames;
+        }
 
-        // 获取编码器
-        OpusEncoder encoder = getEncoder(sid, SAMPLE_RATE, CHANNELS);
+        // 流式编码需要跨调用保持编码器和残留数据，使用会话句柄
+        OpusSession session = getSession(sid);
+        return encodePcm(session.getEncoder(), session.getLeftoverState(), pcm, pcmLen, true);
+    }
+
+    /**
+     * 创建增量编码器，编码器从池中借出，关闭时归还
+     *
+     * @param sink 每编码完一帧立即回调
+     */
+    public OpusStreamEncoder newStreamEncoder(Consumer<byte[]> sink) {
+        OpusEncoder encoder = codecPool.borrowEncoder(SAMPLE_RATE, CHANNELS);
+        return new OpusStreamEncoder(encoder, FRAME_SIZE, sink,
+                () -> codecPool.returnEncoder(SAMPLE_RATE, CHANNELS, encoder));
+    }
+
+    /**
+     * PCM块流转Opus帧流，每凑满一帧立即下发，上游完成时刷新残留数据
+     */
+    public Flux<byte[]> pcmToOpus(Flux<byte[]> pcmChunks) {
+        return Flux.create(sink -> {
+            OpusStreamEncoder encoder = newStreamEncoder(sink::next);
+            Disposable upstream = pcmChunks.subscribe(
+                    chunk -> encoder.write(chunk, 0, chunk.length),
+                    error -> {
+                        encoder.release();
+                        sink.error(error);
+                    },
+                    () -> {
+                        encoder.close();
+                        sink.complete();
+                    });
+            sink.onDispose(() -> {
+                upstream.dispose();
+                encoder.release();
+            });
+        });
+    }
+
+    /**
+     * 使用指定编码器和残留数据状态编码PCM
+     */
+    private List<byte[]> encodePcm(OpusEncoder encoder, LeftoverState state, byte[] pcm, int pcmLen,
+            boolean isStream) {
+        int frameSize = FRAME_SIZE;
 
         // 处理PCM
         List<byte[]> frames = new ArrayList<>();
 
-        // 获取残留数据状态
-        LeftoverState state = getLeftoverState(sid);
-
         // 字节序处理
         ByteBuffer pcmBuf = ByteBuffer.wrap(pcm, 0, pcmLen).order(ByteOrder.LITTLE_ENDIAN);
         ShortBuffer inputShorts = pcmBuf.asShortBuffer();
@@ -787,9 +832,7 @@ public class OpusProcessor {
             try {
                 int opusLen = encoder.encode(silenceBuf, 0, frameSize, opusBuf, 0, opusBuf.length);
                 if (opusLen > 0) {
-                    byte[] frame = new byte[frameSize];
-                    System.arraycopy(opusBuf, 0, frame, 0, frameSize);
-                    frames.add(frame);
+                    frames.add(Arrays.copyOf(opusBuf, opusLen));
                 }
             } catch (OpusException e) {
                 logger.warn("预热帧 #{} 编码失败: {}", i, e.getMessage());
@@ -801,47 +844,11 @@ public class OpusProcessor {
      * 清理会话
      */
     public void cleanup(String sid) {
-        decoders.remove(sid);
-        overlaps.remove(sid);
-        leftoverStates.remove(sid); // 清理残留数据状态
-
-        // 清理编码器
-        List<String> toRemove = new ArrayList<>();
-        for (String key : encoders.keySet()) {
-            if (key.startsWith(sid + "_")) {
-                toRemove.add(key);
-            }
+        // 关闭会话句柄，编解码器归还到池中
+        OpusSession session = sessions.remove(sid);
+        if (session != null) {
+            session.close();
         }
-
-        for (String key : toRemove) {
-            encoders.remove(key);
-        }
-    }
-
-    /**
-     * 获取编码器
-     */
-    private OpusEncoder getEncoder(String sid, int rate, int channels) {
-        return encoders.computeIfAbsent(sid, k -> {
-            try {
-                OpusEncoder encoder = new OpusEncoder(rate, channels, OpusApplication.OPUS_APPLICATION_VOIP);
-
-                // 优化设置
-                encoder.setBitrate(AudioUtils.BITRATE);
-                // 这里后续看是不是要针对音乐做一个切换
-                encoder.setSignalType(OpusSignal.OPUS_SIGNAL_VOICE);
-                encoder.setComplexity(5); // 复杂度高音质好，低速度快
-                encoder.setPacketLossPercent(0); // 降低丢包补偿，减少处理延迟
-                encoder.setForceChannels(channels);
-                encoder.setUseVBR(false); // 使用CBR模式确保稳定的比特率
-                encoder.setUseDTX(false); // 禁用DTX以确保连续的帧
-
-                return encoder;
-            } catch (OpusException e) {
-                logger.error("创建编码器失败: 采样率={}, 通道={}", rate, channels, e);
-                throw new RuntimeException("创建编码器失败", e);
-            }
-        });
     }
 
     /**
@@ -849,9 +856,8 @@ public class OpusProcessor {
      */
     @PreDestroy
     public void cleanup() {
-        decoders.clear();
-        encoders.clear();
-        overlaps.clear();
-        leftoverStates.clear(); // 清理所有残留数据状态
+        sessions.values().forEach(OpusSession::close);
+        sessions.clear();
+        codecPool.clear();
     }
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package com.xiaozhi.utils;
+
+import io.github.jaredmdobson.concentus.OpusDecoder;
+import io.github.jaredmdobson.concentus.OpusEncoder;
+
+/**
+ * 会话级Opus句柄
+ * 直接持有从OpusCodecPool借出的编解码器和流式编码的残留数据，调用方持有句柄后每帧无需再按会话ID查表。
+ * 编解码器按需借出，关闭时归还到池中。同一句柄的解码/编码由调用方保证串行。
+ */
+public class OpusSession implements AutoCloseable {
+    private final String sessionId;
+    private final OpusCodecPool pool;
+    private final int sampleRate;
+    private final int channels;
+
+    private OpusDecoder decoder;
+    private OpusEncoder encoder;
+    private final OpusProcessor.LeftoverState leftoverState = new OpusProcessor.LeftoverState();
+    // 复用的解码输出缓冲区
+    private short[] pcmBuffer;
+    private volatile boolean closed = false;
+
+    public OpusSession(String sessionId, OpusCodecPool pool, int sampleRate, int channels) {
+        this.sessionId = sessionId;
+        this.pool = pool;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * 获取解码器，首次使用时从池中借出
+     *
+     * @throws IllegalStateException 句柄已关闭，关闭后借出的解码器不会再归还
+     */
+    public synchronized OpusDecoder getDecoder() {
+        ensureOpen();
+        if (decoder == null) {
+            decoder = pool.borrowDecoder(sampleRate, channels);
+        }
+        return decoder;
+    }
+
+    /**
+     * 获取编码器，首次使用时从池中借出
+     *
+     * @throws IllegalStateException 句柄已关闭，关闭后借出的编码器不会再归还
+     */
+    public synchronized OpusEncoder getEncoder() {
+        ensureOpen();
+        if (encoder == null) {
+            encoder = pool.borrowEncoder(sampleRate, channels);
+        }
+        return encoder;
+    }
+
+    /**
+     * 重置解码器状态（解码失败后调用）
+     */
+    public synchronized void resetDecoder() {
+        if (decoder != null) {
+            decoder.resetState();
+        }
+    }
+
+    /**
+     * 获取复用的解码输出缓冲区，容量为单个Opus包的最大样本数
+     */
+    public short[] getPcmBuffer() {
+        if (pcmBuffer == null) {
+            pcmBuffer = new short[OpusProcessor.maxFrameSamples(sampleRate, channels)];
+        }
+        return pcmBuffer;
+    }
+
+    public OpusProcessor.LeftoverState getLeftoverState() {
+        return leftoverState;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Opus会话已关闭: " + sessionId);
+        }
+    }
+
+    /**
+     * 归还编解码器
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (decoder != null) {
+            pool.returnDecoder(sampleRate, channels, decoder);
+            decoder = null;
+        }
+        if (encoder != null) {
+            pool.returnEncoder(sampleRate, channels, encoder);
+            encoder = null;
+        }
+        leftoverState.clear();
+    }
+}
@@ -0,0 +1,194 @@
+package com.xiaozhi.utils;
+
+import io.github.jaredmdobson.concentus.OpusEncoder;
+import io.github.jaredmdobson.concentus.OpusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * 增量PCM转Opus编码器
+ * 按块写入小端16位PCM，每凑满一帧（60ms）立即编码并推送给sink，残留样本保存在编码器内部，
+ * 内存占用固定为一帧，不随音频长度增长。写入与关闭之间会做同步，可以从不同线程调用。
+ */
+public class OpusStreamEncoder implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(OpusStreamEncoder.class);
+
+    // 预热帧数量 - 添加几个静音帧来预热编解码器
+    private static final int PRE_WARM_FRAMES = 2;
+    // 淡入样本数 - 前20毫秒
+    private static final int FADE_IN_SAMPLES = 320;
+    private static final int MAX_SIZE = 1275;
+
+    private final OpusEncoder encoder;
+    private final Consumer<byte[]> sink;
+    private final Runnable onRelease;
+    private final int frameSize;
+
+    private final short[] frameBuf;
+    private final byte[] opusBuf = new byte[MAX_SIZE];
+    private int frameFill = 0;
+
+    // 上一块末尾未配对的低字节
+    private int pendingByte = -1;
+    private boolean started = false;
+    private boolean fadedIn = false;
+    private boolean closed = false;
+    private long framesEncoded = 0;
+
+    /**
+     * @param encoder   使用的编码器，状态由调用方保证已重置
+     * @param frameSize 每帧样本数
+     * @param sink      接收编码后的Opus帧
+     * @param onRelease 关闭时调用，用于归还编码器，可以为null
+     */
+    public OpusStreamEncoder(OpusEncoder encoder, int frameSize, Consumer<byte[]> sink, Runnable onRelease) {
+        this.encoder = encoder;
+        this.frameSize = frameSize;
+        this.sink = sink;
+        this.onRelease = onRelease;
+        this.frameBuf = new short[frameSize];
+    }
+
+    /**
+     * 写入小端16位PCM字节
+     */
+    public synchronized void write(byte[] pcm, int offset, int length) {
+        if (closed || pcm == null || length <= 0) {
+            return;
+        }
+        int pos = offset;
+        int end = offset + length;
+
+        // 拼上一块遗留的半个样本
+        if (pendingByte >= 0) {
+            appendSample((short) (pendingByte | (pcm[pos++] << 8)));
+            pendingByte = -1;
+        }
+
+        while (end - pos >= 2) {
+            appendSample((short) ((pcm[pos] & 0xFF) | (pcm[pos + 1] << 8)));
+            pos += 2;
+        }
+
+        if (pos < end) {
+            pendingByte = pcm[pos] & 0xFF;
+        }
+    }
+
+    /**
+     * 写入16位PCM样本
+     */
+    public synchronized void write(short[] pcm, int offset, int length) {
+        if (closed || pcm == null) {
+            return;
+        }
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            int n = Math.min(frameSize - frameFill, end - pos);
+            System.arraycopy(pcm, pos, frameBuf, frameFill, n);
+            frameFill += n;
+            pos += n;
+            if (frameFill == frameSize) {
+                encodeFrame();
+            }
+        }
+    }
+
+    /**
+     * 残留样本补静音编码为最后一帧
+     */
+    public synchronized void flush() {
+        if (closed || frameFill == 0) {
+            return;
+        }
+        Arrays.fill(frameBuf, frameFill, frameSize, (short) 0);
+        frameFill = frameSize;
+        encodeFrame();
+    }
+
+    /**
+     * 已编码的帧数（不含预热帧）
+     */
+    public synchronized long getFramesEncoded() {
+        return framesEncoded;
+    }
+
+    /**
+     * 刷新残留数据并释放编码器
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        release();
+    }
+
+    /**
+     * 丢弃残留数据并释放编码器
+     */
+    public synchronized void release() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        frameFill = 0;
+        if (onRelease != null) {
+            onRelease.run();
+        }
+    }
+
+    private void appendSample(short sample) {
+        frameBuf[frameFill++] = sample;
+        if (frameFill == frameSize) {
+            encodeFrame();
+        }
+    }
+
+    private void encodeFrame() {
+        if (!started) {
+            started = true;
+            preWarm();
+        }
+
+        // 第一帧淡入，避免开头破音
+        if (!fadedIn) {
+            fadedIn = true;
+            int fadeInSamples = Math.min(FADE_IN_SAMPLES, frameSize);
+            for (int i = 0; i < fadeInSamples; i++) {
+                float gain = (float) i / fadeInSamples;
+                frameBuf[i] = (short) (frameBuf[i] * gain);
+            }
+        }
+
+        emit(frameBuf);
+        framesEncoded++;
+        frameFill = 0;
+    }
+
+    /**
+     * 编码几个静音帧预热编码器
+     */
+    private void preWarm() {
+        short[] silence = new short[frameSize];
+        for (int i = 0; i < PRE_WARM_FRAMES; i++) {
+            emit(silence);
+        }
+    }
+
+    private void emit(short[] samples) {
+        try {
+            int opusLen = encoder.encode(samples, 0, frameSize, opusBuf, 0, opusBuf.length);
+            if (opusLen > 0) {
+                sink.accept(Arrays.copyOf(opusBuf, opusLen));
+            }
+        } catch (OpusException e) {
+            logger.warn("帧编码失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.xiaozhi.utils;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 把组件的统计信息注册为Micrometer指标
+ * 统计信息以Map提供，每个数值项注册为一个Gauge，抓取时实时读取；指标名为前缀加键名（驼峰转为点分隔），
+ * 例如前缀"tts.cache"、键"hitRate"对应"tts.cache.hit.rate"。
+ */
+public final class StatsGauges {
+
+    private StatsGauges() {
+    }
+
+    /**
+     * 按统计信息当前的键注册Gauge，统计信息的键应固定不变
+     *
+     * @param registry 指标注册表
+     * @param prefix   指标名前缀
+     * @param tags     指标标签
+     * @param stats    统计信息，每次抓取调用一次
+     */
+    public static void register(MeterRegistry registry, String prefix, Tags tags,
+            Supplier<? extends Map<String, ?>> stats) {
+        Map<String, ?> current = stats.get();
+        if (current == null) {
+            return;
+        }
+        current.forEach((key, value) -> {
+            if (!(value instanceof Number)) {
+                return;
+            }
+            // 调用方传入的通常是临时的方法引用，Gauge默认弱引用会在GC后读到NaN，必须强引用
+            Gauge.builder(prefix + "." + toMeterName(key), stats, supplier -> valueOf(supplier.get(), key))
+                    .tags(tags)
+                    .strongReference(true)
+                    .register(registry);
+        });
+    }
+
+    private static double valueOf(Map<String, ?> stats, String key) {
+        Object value = stats != null ? stats.get(key) : null;
+        return value instanceof Number number ? number.doubleValue() : Double.NaN;
+    }
+
+    /**
+     * 驼峰键名转为点分隔的小写指标名
+     */
+    static String toMeterName(String key) {
+        StringBuilder name = new StringBuilder(key.length() + 4);
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (Character.isUpperCase(c)) {
+                if (i > 0) {
+                    name.append('.');
+                }
+                name.append(Character.toLowerCase(c));
+            } else {
+                name.append(c);
+            }
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package com.xiaozhi.dialogue.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SentenceBatcherTest {
+
+    private record Sentence(String text, boolean isFirst, boolean isLast) {
+    }
+
+    private final List<Sentence> sent = Collections.synchronizedList(new ArrayList<>());
+
+    private SentenceBatcher batcher(int minChars, int maxChars, long maxHoldMs) {
+        return new SentenceBatcher((text, isFirst, isLast) -> sent.add(new Sentence(text, isFirst, isLast)),
+                minChars, maxChars, maxHoldMs);
+    }
+
+    private void awaitSent(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (sent.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void firstSentencePassesThroughImmediately() {
+        SentenceBatcher batcher = batcher(100, 200, 60_000);
+
+        batcher.accept("你好，", true, false);
+        assertEquals(List.of(new Sentence("你好，", true, false)), sent);
+
+        // 首句之后的短片段先攒住
+        batcher.accept("我是小智，", false, false);
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void budgetDoublesUntilMaxChars() {
+        SentenceBatcher batcher = batcher(4, 8, 60_000);
+        batcher.accept("首句。", true, false);
+
+        batcher.accept("一二", false, false);
+        assertEquals(1, sent.size());
+        batcher.accept("三四", false, false);
+        assertEquals(new Sentence("一二三四", false, false), sent.get(1));
+
+        // 预算翻倍为8
+        batcher.accept("五六七", false, false);
+        batcher.accept("八九十", false, false);
+        assertEquals(2, sent.size());
+        batcher.accept("甲乙", false, false);
+        assertEquals(new Sentence("五六七八九十甲乙", false, false), sent.get(2));
+
+        // 预算不超过上限
+        batcher.accept("子丑寅卯", false, false);
+        assertEquals(3, sent.size());
+        batcher.accept("辰巳午未", false, false);
+        assertEquals(new Sentence("子丑寅卯辰巳午未", false, false), sent.get(3));
+    }
+
+    @Test
+    public void holdTimerFlushesStalledFragments() throws InterruptedException {
+        SentenceBatcher batcher = batcher(100, 200, 50);
+        batcher.accept("首句。", true, false);
+        batcher.accept("一段，", false, false);
+        batcher.accept("二段，", false, false);
+
+        awaitSent(2, 2_000);
+        assertEquals(List.of(new Sentence("首句。", true, false), new Sentence("一段，二段，", false, false)), sent);
+    }
+
+    @Test
+    public void lastSentenceFlushesPendingAsLast() {
+        SentenceBatcher batcher = batcher(100, 200, 60_000);
+        batcher.accept("First.", true, false);
+        batcher.accept("Hello,", false, false);
+        batcher.accept("world.", false, true);
+
+        // 英文片段合并时补空格，最后一批标记为结束
+        assertEquals(new Sentence("Hello, world.", false, true), sent.get(1));
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void lastWithoutPendingPassesThrough() {
+        SentenceBatcher batcher = batcher(4, 8, 60_000);
+        batcher.accept("首句。", true, false);
+        batcher.accept("一二三四", false, false);
+        batcher.accept("", false, true);
+
+        assertEquals(List.of(new Sentence("首句。", true, false), new Sentence("一二三四", false, false),
+                new Sentence("", false, true)), sent);
+    }
+
+    @Test
+    public void cancelDropsPendingAndTimer() throws InterruptedException {
+        SentenceBatcher batcher = batcher(100, 200, 50);
+        batcher.accept("首句。", true, false);
+        batcher.accept("一段，", false, false);
+
+        batcher.cancel();
+        batcher.accept("二段。", false, true);
+        Thread.sleep(200);
+        assertEquals(List.of(new Sentence("首句。", true, false)), sent);
+    }
+}
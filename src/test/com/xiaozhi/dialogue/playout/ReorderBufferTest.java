@@ -0,0 +1,150 @@
+package com.xiaozhi.dialogue.playout;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReorderBufferTest {
+
+    @Test
+    public void drainStopsAtGapUntilMissingSeqArrives() {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(8, 1);
+        List<Integer> drained = new ArrayList<>();
+
+        assertTrue(buffer.offer(1, 1));
+        assertTrue(buffer.offer(3, 3));
+        assertTrue(buffer.offer(4, 4));
+        buffer.drain(item -> true, drained::add);
+        assertEquals(List.of(1), drained);
+        assertEquals(2, buffer.nextSeq());
+        assertEquals(3, buffer.size());
+
+        assertTrue(buffer.offer(2, 2));
+        buffer.drain(item -> true, drained::add);
+        assertEquals(List.of(1, 2, 3, 4), drained);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void drainStopsAtHeadThatIsNotReleasable() {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(8, 1);
+        List<Integer> drained = new ArrayList<>();
+        buffer.offer(1, 1);
+        buffer.offer(2, 2);
+
+        buffer.drain(item -> item != 2, drained::add);
+        assertEquals(List.of(1), drained);
+        buffer.drain(item -> true, drained::add);
+        assertEquals(List.of(1, 2), drained);
+    }
+
+    @Test
+    public void offerRejectsStaleAndOverflowingSeq() {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(4, 1);
+        assertFalse(buffer.offer(0, 0));
+        assertTrue(buffer.offer(4, 4));
+        assertFalse(buffer.offer(5, 5));
+    }
+
+    @Test
+    public void clearDropsPendingAndSkipsGaps() {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(8, 1);
+        List<Integer> drained = new ArrayList<>();
+        buffer.offer(2, 2);
+        buffer.offer(3, 3);
+
+        buffer.clear();
+        assertEquals(4, buffer.nextSeq());
+        assertEquals(0, buffer.size());
+        // 清空前领取、清空后才放入的序号按过期拒绝
+        assertFalse(buffer.offer(1, 1));
+
+        buffer.offer(4, 4);
+        buffer.drain(item -> true, drained::add);
+        assertEquals(List.of(4), drained);
+    }
+
+    @Test
+    public void clearThroughSkipsReservedSeqs() {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(8, 1);
+        List<Integer> drained = new ArrayList<>();
+        buffer.offer(1, 1);
+
+        // 序号2、3已领取但尚未放入
+        buffer.clearThrough(3);
+        assertEquals(4, buffer.nextSeq());
+        assertFalse(buffer.offer(2, 2));
+        assertFalse(buffer.offer(3, 3));
+
+        buffer.offer(4, 4);
+        buffer.drain(item -> true, drained::add);
+        assertEquals(List.of(4), drained);
+    }
+
+    @Test
+    public void clearThroughBeyondCapacityUnblocksOverflow() {
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(4, 1);
+        List<Integer> drained = new ArrayList<>();
+        for (int seq = 2; seq <= 4; seq++) {
+            buffer.offer(seq, seq);
+        }
+        assertFalse(buffer.offer(9, 9));
+
+        buffer.clearThrough(9);
+        assertEquals(10, buffer.nextSeq());
+        assertTrue(buffer.offer(10, 10));
+        buffer.drain(item -> true, drained::add);
+        assertEquals(List.of(10), drained);
+    }
+
+    @Test
+    public void concurrentOfferAndDrainKeepOrder() throws Exception {
+        int count = 10_000;
+        int producers = 4;
+        ReorderBuffer<Integer> buffer = new ReorderBuffer<>(count, 1);
+        List<Integer> drained = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            for (int i = 0; i < producers; i++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    int seq;
+                    while ((seq = next.incrementAndGet()) <= count) {
+                        buffer.offer(seq, seq);
+                        buffer.drain(item -> true, drained::add);
+                    }
+                });
+            }
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        buffer.drain(item -> true, drained::add);
+
+        assertEquals(count, drained.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i + 1, drained.get(i));
+        }
+        assertEquals(0, buffer.size());
+    }
+}
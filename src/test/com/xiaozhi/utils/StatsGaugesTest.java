@@ -0,0 +1,51 @@
+package com.xiaozhi.utils;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class StatsGaugesTest {
+
+    @Test
+    public void camelCaseKeysBecomeDottedNames() {
+        assertEquals("in.flight", StatsGauges.toMeterName("inFlight"));
+        assertEquals("avg.wait.ms", StatsGauges.toMeterName("avgWaitMs"));
+        assertEquals("queued", StatsGauges.toMeterName("queued"));
+    }
+
+    @Test
+    public void gaugesReadCurrentStatsAndSkipNonNumbers() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("inFlight", 1);
+        stats.put("name", "edge");
+
+        StatsGauges.register(registry, "test", Tags.of("lane", "edge"), () -> stats);
+        assertEquals(1.0, registry.get("test.in.flight").tag("lane", "edge").gauge().value());
+        assertNull(registry.find("test.name").gauge());
+
+        stats.put("inFlight", 3);
+        assertEquals(3.0, registry.get("test.in.flight").gauge().value());
+    }
+
+    @Test
+    public void gaugesSurviveGarbageCollection() throws InterruptedException {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queued", 2);
+
+        // 供应者只有Gauge持有，弱引用时GC后读数变为NaN
+        StatsGauges.register(registry, "test", Tags.empty(), () -> new LinkedHashMap<>(stats));
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(2.0, registry.get("test.queued").gauge().value());
+    }
+}